@@ -0,0 +1,86 @@
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * The BaseConversionCheck class checks the conversions of the {@link BaseConverter} against BigInteger.toString and
+ * new BigInteger(String, int), which are used as the oracle.
+ *
+ * The numbers written in blocks are the ones where a block of digits can be all zeros, so it checks every exact power
+ * of every base (and its neighbours), numbers made of long runs of zeros in the target base, and random ones, with
+ * both {@link BaseConverter#toString(BigInteger, int)} and {@link BaseConverter#convert(CharSequence, int, int)},
+ * and exits with the status 1 at the first number whose digits differ.
+ *
+ * Usage: java -cp "out:out-bench:libs/*" BaseConversionCheck [--random 200000] [--seed 1]
+ */
+public class BaseConversionCheck {
+
+    public static void main(String[] args) {
+        int random = 200_000;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++)
+            switch (args[i]) {
+                case "--random" -> random = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> {
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+
+        Logger.setSinks();
+
+        int checked = 0;
+        for (int base = 2; base <= 36; base++)
+            for (int exponent = 0; exponent <= 400; exponent++) {
+                BigInteger power = BigInteger.valueOf(base).pow(exponent);
+                for (BigInteger value : List.of(power, power.subtract(BigInteger.ONE), power.add(BigInteger.ONE), power.negate()))
+                    checked += check(value, base, 10) + check(value, 10, base);
+            }
+
+        Random rnd = new Random(seed);
+        for (int i = 0; i < random; i++) {
+            int base = 2 + rnd.nextInt(35), targetBase = 2 + rnd.nextInt(35);
+            BigInteger value = rnd.nextBoolean() ? withZeroRuns(rnd, targetBase) : new BigInteger(1 + rnd.nextInt(2000), rnd);
+            if (rnd.nextInt(4) == 0)
+                value = value.negate();
+            checked += check(value, base, targetBase);
+        }
+        System.out.println(checked + " conversions give the same digits as BigInteger");
+    }
+
+    /**
+     * Writes a number in the target base, and converts it to the target base from its digits in a base,
+     * and compares both with BigInteger.
+     *
+     * @return the number of conversions checked.
+     */
+    private static int check(BigInteger value, int base, int targetBase) {
+        String expected = value.toString(targetBase).toUpperCase(Locale.ROOT);
+        String written = BaseConverter.toString(value, targetBase);
+        String converted = BaseConverter.convert(value.toString(base), base, targetBase);
+        if (!expected.equals(written) || !expected.equals(converted)) {
+            System.err.println("Mismatch for " + value + " from base " + base + " to base " + targetBase + ": expected " + expected
+                    + " but got " + written + " (converted: " + converted + ")");
+            System.exit(1);
+        }
+        return 2;
+    }
+
+    /**
+     * Builds a number whose digits in the given base are runs of zeros between a few other digits,
+     * so that whole blocks of its digits are zeros.
+     */
+    private static BigInteger withZeroRuns(Random rnd, int base) {
+        StringBuilder digits = new StringBuilder();
+        digits.append(Character.forDigit(1 + rnd.nextInt(base - 1), base));
+        int runs = 1 + rnd.nextInt(6);
+        for (int r = 0; r < runs; r++) {
+            digits.append("0".repeat(rnd.nextInt(300)));
+            if (rnd.nextBoolean())
+                digits.append(Character.forDigit(rnd.nextInt(base), base));
+        }
+        return new BigInteger(digits.toString(), base);
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The BenchmarkInputs class generates the inputs of the benchmarks and of the load test: expressions of a given length
+ * and operator mix, formula values, columns and binary numbers. They are generated from fixed seeds, so every run
+ * measures the same inputs.
+ */
+final class BenchmarkInputs {
+
+    /**
+     * The number of different inputs prepared for every benchmark, used in turn by its operations.
+     * It is a power of two, so the next input is found with a mask.
+     */
+    static final int inputCount = 1024;
+
+    private BenchmarkInputs() {
+    }
+
+    /**
+     * Generates expressions with the given number of numbers and operator mix:
+     * "add" only uses '+' and '-', "mul" only uses '*' and '/', and "mixed" uses all four.
+     * The numbers are never 0, so the expressions never divide by zero.
+     */
+    static String[] expressions(int length, String mix) {
+        String operators = switch (mix) {
+            case "add" -> "+-";
+            case "mul" -> "*/";
+            default -> "+-*/";
+        };
+        Random random = new Random(length * 31L + mix.hashCode());
+        String[] expressions = new String[inputCount];
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < inputCount; i++) {
+            expression.setLength(0);
+            for (int n = 0; n < length; n++) {
+                if (n > 0)
+                    expression.append(operators.charAt(random.nextInt(operators.length())));
+                expression.append(1 + random.nextInt(operators.equals("*/") ? 9 : 999));
+            }
+            expressions[i] = expression.toString();
+        }
+        return expressions;
+    }
+
+    /**
+     * Parses the expressions generated by {@link #expressions(int, String)}.
+     */
+    static Expression[] parsedExpressions(int length, String mix) {
+        Evaluator evaluator = new Evaluator();
+        return Arrays.stream(expressions(length, mix)).map(evaluator::compile).toArray(Expression[]::new);
+    }
+
+    /**
+     * Generates the values of the variables of the fixed formula: price, quantity, discount and tax.
+     */
+    static long[][] formulaValues() {
+        Random random = new Random(12);
+        long[][] values = new long[inputCount][];
+        for (int i = 0; i < inputCount; i++)
+            values[i] = new long[]{random.nextInt(100_000), random.nextInt(100), random.nextInt(1000), random.nextInt(30)};
+        return values;
+    }
+
+    /**
+     * Generates two columns of the given number of rows, with values that never overflow the column benchmarks.
+     */
+    static long[][] columnValues(int rows) {
+        Random random = new Random(rows);
+        long[][] columns = new long[2][rows];
+        for (long[] column : columns)
+            for (int i = 0; i < rows; i++)
+                column[i] = random.nextInt(2_000_000) - 1_000_000;
+        return columns;
+    }
+
+    /**
+     * Generates numbers made of the given number of binary digits, the first one always being 1.
+     */
+    static int[] binaryNumbers(int digits) {
+        Random random = new Random(digits);
+        int[] numbers = new int[inputCount];
+        for (int i = 0; i < inputCount; i++) {
+            int number = 1;
+            for (int d = 1; d < digits; d++)
+                number = number * 10 + random.nextInt(2);
+            numbers[i] = number;
+        }
+        return numbers;
+    }
+
+    /**
+     * Generates binary numbers of the given number of digits, the first one always being 1.
+     */
+    static String[] binaryStrings(int digits) {
+        Random random = new Random(digits);
+        String[] numbers = new String[inputCount];
+        for (int i = 0; i < inputCount; i++) {
+            StringBuilder number = new StringBuilder("1");
+            for (int d = 1; d < digits; d++)
+                number.append((char) ('0' + random.nextInt(2)));
+            numbers[i] = number.toString();
+        }
+        return numbers;
+    }
+}
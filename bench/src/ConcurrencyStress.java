@@ -0,0 +1,125 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ConcurrencyStress class checks that {@link Evaluator#evaluateExpression(String)} gives the right results
+ * when many threads call it at once. The results of a set of random expressions are first calculated on a single
+ * thread, by an Evaluator of its own, and then every thread evaluates the expressions in its own random order
+ * for a while, comparing every result with the expected one.
+ *
+ * The expression cache is made smaller than the set of expressions, so that the threads keep adding and evicting
+ * entries, and with --result-cache the results also go through a shared {@link ResultCache}.
+ * It exits with the status 1 at the first wrong result.
+ *
+ * Usage: java -cp "out:out-bench:libs/*" ConcurrencyStress [--threads 8] [--expressions 10000] [--cache 1024]
+ *        [--seconds 10] [--result-cache] [--log]
+ */
+public class ConcurrencyStress {
+
+    private static final char[] operators = {'+', '-', '*', '/'};
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = 8, count = 10_000, cacheSize = 1024;
+        long seconds = 10;
+        boolean resultCache = false, log = false;
+        for (int i = 0; i < args.length; i++)
+            switch (args[i]) {
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--expressions" -> count = Integer.parseInt(args[++i]);
+                case "--cache" -> cacheSize = Integer.parseInt(args[++i]);
+                case "--seconds" -> seconds = Long.parseLong(args[++i]);
+                case "--result-cache" -> resultCache = true;
+                case "--log" -> log = true;
+                default -> {
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+
+        //the size of the expression cache is read when the Evaluator class is first used, so it is set before
+        Main.expressionCacheSize = cacheSize;
+        if (!log)
+            Logger.setSinks();
+        if (resultCache)
+            Evaluator.setResultCache(new ResultCache(cacheSize, Main.resultCacheMaxLength));
+
+        //the expected results, from an Evaluator that no other thread uses
+        String[] expressions = new String[count];
+        String[] expected = new String[count];
+        Random rnd = new Random(1);
+        Evaluator reference = new Evaluator();
+        for (int i = 0; i < count; i++) {
+            expressions[i] = randomExpression(rnd);
+            expected[i] = outcome(reference, expressions[i]);
+        }
+
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicLong evaluations = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            workers.add(Thread.ofPlatform().name("Stress " + t).start(() -> {
+                Random order = new Random(seed);
+                long done = 0;
+                try {
+                    start.await();
+                    while (!failed.get() && System.nanoTime() < deadline) {
+                        for (int n = 0; n < 1000; n++) {
+                            int i = order.nextInt(expressions.length);
+                            String actual = outcome(null, expressions[i]);
+                            if (!actual.equals(expected[i]) && failed.compareAndSet(false, true))
+                                System.err.println(Thread.currentThread().getName() + ": \"" + expressions[i] + "\" gave " + actual + " instead of " + expected[i]);
+                        }
+                        done += 1000;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                evaluations.addAndGet(done);
+            }));
+        }
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+
+        System.out.printf("%d evaluations on %d threads in %d s, %s%n", evaluations.get(), threads, seconds,
+                failed.get() ? "with wrong results" : "all right");
+        System.out.println(Evaluator.getExpressionCache());
+        if (failed.get())
+            System.exit(1);
+    }
+
+    /**
+     * Returns the result of an evaluation, or the class of the exception it threw, with the given Evaluator
+     * or with the static method when it is null.
+     */
+    private static String outcome(Evaluator evaluator, String expression) {
+        try {
+            return Integer.toString(evaluator == null ? Evaluator.evaluateExpression(expression) : evaluator.evaluate(expression));
+        } catch (RuntimeException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    /**
+     * Builds an expression of 1 to 30 numbers, so that the parsing buffers of the threads hold expressions of different lengths.
+     */
+    private static String randomExpression(Random rnd) {
+        StringBuilder expression = new StringBuilder();
+        int numbers = 1 + rnd.nextInt(30);
+        for (int n = 0; n < numbers; n++) {
+            if (n > 0)
+                expression.append(operators[rnd.nextInt(operators.length)]);
+            if (rnd.nextInt(8) == 0)
+                expression.append('-');
+            expression.append(rnd.nextInt(rnd.nextBoolean() ? 10 : 100_000));
+        }
+        return expression.toString();
+    }
+}
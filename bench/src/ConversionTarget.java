@@ -0,0 +1,26 @@
+import benchmarks.ConversionBenchmark;
+
+/**
+ * The code measured by {@link ConversionBenchmark}, on binary numbers of a number of digits.
+ */
+public final class ConversionTarget implements ConversionBenchmark.Target {
+
+    private final int[] numbers;
+    private final String[] strings;
+
+    public ConversionTarget(int digits) {
+        Logger.setSinks(NoOpLogSink.INSTANCE);
+        numbers = BenchmarkInputs.binaryNumbers(Math.min(digits, 9));
+        strings = BenchmarkInputs.binaryStrings(digits);
+    }
+
+    @Override
+    public String convertToBaseN(int index) {
+        return Evaluator.convertToBaseN(numbers[index], 2, 10);
+    }
+
+    @Override
+    public String baseConverter(int index) {
+        return BaseConverter.convert(strings[index], 2, 10);
+    }
+}
@@ -0,0 +1,51 @@
+import benchmarks.EvaluationBenchmark;
+
+/**
+ * The code measured by {@link EvaluationBenchmark}, on the expressions of a length and operator mix.
+ */
+public final class EvaluationTarget implements EvaluationBenchmark.Target {
+
+    private final String[] expressions;
+    private final Expression[] parsed;
+    private final Evaluator evaluator = new Evaluator();
+
+    public EvaluationTarget(int length, String mix) {
+        Logger.setSinks(NoOpLogSink.INSTANCE);
+        expressions = BenchmarkInputs.expressions(length, mix);
+        parsed = BenchmarkInputs.parsedExpressions(length, mix);
+    }
+
+    @Override
+    public int evaluate(int index) {
+        return evaluator.evaluate(expressions[index]);
+    }
+
+    @Override
+    public int evaluateExpression(int index) {
+        return Evaluator.evaluateExpression(expressions[index]);
+    }
+
+    @Override
+    public Object evaluateExact(int index) {
+        return Evaluator.evaluateExactExpression(expressions[index]);
+    }
+
+    @Override
+    public int parsedInt(int index) {
+        return parsed[index].evaluate();
+    }
+
+    @Override
+    public long parsedLong(int index) {
+        try {
+            return parsed[index].evaluateLong();
+        } catch (ArithmeticException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public Object formater(int index) {
+        return evaluator.compile(expressions[index]);
+    }
+}
@@ -0,0 +1,50 @@
+import benchmarks.FormulaBenchmark;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * The code measured by {@link FormulaBenchmark}, on columns of a number of rows.
+ */
+public final class FormulaTarget implements FormulaBenchmark.Target {
+
+    private final ToLongFunction<long[]> fixed = Formula.compile("price*quantity - discount + price*tax/100").asFunction();
+    private final long[][] values = BenchmarkInputs.formulaValues();
+    private final ColumnFormula columnFormula = ColumnFormula.compile("x*3 + y/2 - x*y");
+    private final ToLongFunction<long[]> rowFormula = Formula.compile("x*3 + y/2 - x*y").asFunction();
+    private final long[][] columns;
+    private final long[] result;
+    private final long[] row = new long[2];
+
+    public FormulaTarget(int rows) {
+        Logger.setSinks(NoOpLogSink.INSTANCE);
+        columns = BenchmarkInputs.columnValues(rows);
+        result = new long[rows];
+    }
+
+    @Override
+    public long formulaFixed(int index) {
+        return fixed.applyAsLong(values[index]);
+    }
+
+    @Override
+    public long handWrittenFixed(int index) {
+        long[] v = values[index];
+        return Math.addExact(Math.subtractExact(Math.multiplyExact(v[0], v[1]), v[2]), Formula.divide(Math.multiplyExact(v[0], v[3]), 100));
+    }
+
+    @Override
+    public long[] columns() {
+        columnFormula.evaluate(columns, result, 0, result.length);
+        return result;
+    }
+
+    @Override
+    public long[] columnsRowByRow() {
+        for (int i = 0; i < result.length; i++) {
+            row[0] = columns[0][i];
+            row[1] = columns[1][i];
+            result[i] = rowFormula.applyAsLong(row);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,127 @@
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import java.awt.event.KeyEvent;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The InputLatency class measures how quickly the calculator window reacts to the keyboard: it types expressions
+ * into a {@link GUI} at a steady rate, ending each one with Enter, and measures the time from the moment each key
+ * is pressed to the moment the event dispatch thread has handled it.
+ *
+ * The logs go to a sink that waits before writing every message, like a slow disk or a busy Event Viewer would,
+ * so that any evaluation or logging done on the event dispatch thread shows up as keys waiting behind it.
+ * The keys are sent on a fixed schedule without waiting for the event dispatch thread, so a stall delays every key
+ * queued behind it, and they are all counted, as a user would feel them.
+ *
+ * It runs without a window (in headless mode), calling the key handler of the GUI directly.
+ *
+ * Usage: java -cp [calculator classes]:[benchmark classes]:libs/* InputLatency [--keys 2000] [--warmup 200] [--interval 10]
+ *        [--log-delay 5] [--length 16]
+ *
+ * --interval is the time between two keys and --log-delay the time every log message takes, both in milliseconds,
+ * and --length is the number of numbers of every expression typed. The first --warmup keys are typed but not measured,
+ * so that loading the classes and compiling the code don't count.
+ */
+public class InputLatency {
+
+    public static void main(String[] args) throws Exception {
+        int keys = 2000, warmup = 200, length = 16;
+        double intervalMillis = 10, logDelayMillis = 5;
+
+        for (int i = 0; i < args.length; i++)
+            switch (args[i]) {
+                case "--keys" -> keys = Integer.parseInt(args[++i]);
+                case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+                case "--interval" -> intervalMillis = Double.parseDouble(args[++i]);
+                case "--log-delay" -> logDelayMillis = Double.parseDouble(args[++i]);
+                case "--length" -> length = Integer.parseInt(args[++i]);
+                default -> {
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+
+        System.setProperty("java.awt.headless", "true");
+        long logDelay = (long) (logDelayMillis * 1e6);
+        Logger.setSinks(event -> LockSupport.parkNanos(logDelay));
+
+        //the keys typed: expressions of `length` numbers, each followed by Enter
+        char[] typed = typedKeys(warmup + keys, length);
+        GUI gui = new GUI();
+        JLabel label = new JLabel();
+        StringBuilder text = new StringBuilder();
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        LatencyHistogram enterLatencies = new LatencyHistogram();
+        CountDownLatch handled = new CountDownLatch(warmup + keys);
+        long interval = (long) (intervalMillis * 1e6);
+        long start = System.nanoTime();
+        for (int k = 0; k < warmup + keys; k++) {
+            long scheduled = start + k * interval;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+
+            //the time is read after waking up, so that waking up late doesn't count as latency of the GUI
+            long sent = System.nanoTime();
+            char key = typed[k];
+            int keyCode = key == '\n' ? KeyEvent.VK_ENTER : KeyEvent.VK_UNDEFINED;
+            char keyChar = key == '\n' ? KeyEvent.CHAR_UNDEFINED : key;
+            boolean measured = k >= warmup;
+            SwingUtilities.invokeLater(() -> {
+                gui.updateInput(keyChar, keyCode, label, text);
+                long latency = System.nanoTime() - sent;
+                if (measured) {
+                    latencies.record(latency);
+                    if (keyCode == KeyEvent.VK_ENTER)
+                        enterLatencies.record(latency);
+                }
+                handled.countDown();
+            });
+        }
+        if (!handled.await(10, TimeUnit.MINUTES))
+            throw new IllegalStateException("The keys were not handled in time");
+        long nanos = System.nanoTime() - start;
+
+        System.out.printf("%d keys (after %d warmup keys) every %.1f ms, %.1f ms per log message, %d numbers per expression, %.2f s%n",
+                keys, warmup, intervalMillis, logDelayMillis, length, nanos / 1e9);
+        print("every key", latencies.snapshot());
+        print("enter", enterLatencies.snapshot());
+    }
+
+    private static void print(String name, LatencySnapshot snapshot) {
+        System.out.printf("%-10s %6d keys: p50=%.2f ms p90=%.2f ms p99=%.2f ms max=%.2f ms%n", name, snapshot.getCount(),
+                snapshot.getP50() / 1e6, snapshot.getP90() / 1e6, snapshot.getP99() / 1e6, snapshot.getMax() / 1e6);
+    }
+
+    /**
+     * Returns the keys typed for random expressions of the given number of numbers, '\n' standing for Enter.
+     */
+    private static char[] typedKeys(int keys, int length) {
+        Random random = new Random(42);
+        char[] typed = new char[keys];
+        int numbers = 0;
+        boolean operation = false;
+        for (int k = 0; k < keys; k++) {
+            if (numbers == length) {
+                typed[k] = '\n';
+                numbers = 0;
+                operation = false;
+            } else if (operation) {
+                typed[k] = "+-*/".charAt(random.nextInt(4));
+                operation = false;
+            } else {
+                //one or two digits, never a lone 0 after a '/'
+                typed[k] = (char) ('1' + random.nextInt(9));
+                if (random.nextBoolean() && k + 1 < keys)
+                    typed[++k] = (char) ('0' + random.nextInt(10));
+                numbers++;
+                operation = true;
+            }
+        }
+        return typed;
+    }
+}
@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The LinearPassCheck class checks that the single-pass evaluation gives the same results as the original evaluation,
+ * which removed every operation by shifting the rest of the numbers and operations down. The original parsing and
+ * reduction are kept below, as they were, to be used as the oracle.
+ *
+ * It evaluates a list of hand-picked expressions (signed operands, trailing and leading operators, divisions by zero)
+ * and then random ones, with both {@link Evaluator#evaluateExpression(String)} and the {@link StreamingEvaluator},
+ * and exits with the status 1 at the first expression whose result (or exception) differs.
+ *
+ * Usage: java -cp "out:out-bench:libs/*" LinearPassCheck [--random 200000] [--seed 1]
+ */
+public class LinearPassCheck {
+
+    /**
+     * The expressions where the handling of '-' and of the missing numbers matters the most.
+     */
+    private static final String[] cases = {
+            "0", "7", "2+3*4-5", "5-3", "-5", "-5-3", "-5*-3", "5*-3", "10/-2", "-10/-3", "5--3", "5+-3", "5-+3",
+            "1-2-3-4", "2*3-4*5", "100/7/2", "-7/2", "7/-2*3", "1+2*3-4/2", "5 -3", "5 3", "5- 3", "5 - 3",
+            "5*", "5/", "5+", "5-", "*5", "/5", "+5", "5**3", "5*/3", "5+*3", "5-*3", "5*-", "-", "*", "",
+            "1/0", "5+3/0", "0/0", "-1/0", "5*0/0", "5/-0", "2147483647+1", "-2147483648/-1", "99999999999+1", "65536*65536"
+    };
+
+    private static final char[] operators = {'+', '-', '*', '/'};
+
+    public static void main(String[] args) {
+        int random = 200_000;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++)
+            switch (args[i]) {
+                case "--random" -> random = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> {
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+
+        //the evaluations are logged, which would only measure the disk here
+        Logger.setSinks();
+
+        List<String> expressions = new ArrayList<>(Arrays.asList(cases));
+        Random rnd = new Random(seed);
+        for (int i = 0; i < random; i++)
+            expressions.add(randomExpression(rnd));
+
+        ShiftingEvaluator oracle = new ShiftingEvaluator();
+        StreamingEvaluator streaming = new StreamingEvaluator();
+        int checked = 0, skipped = 0;
+        for (String expression : expressions) {
+            String expected = outcome(() -> oracle.evaluate(expression));
+            if (oracle.operationsWithoutNumber > 1) {
+                skipped++;
+                continue;
+            }
+            String actual = outcome(() -> Evaluator.evaluateExpression(expression));
+            String streamed = outcome(() -> {
+                //a division by zero is thrown while the characters are read, before finish could reset the evaluator
+                streaming.reset();
+                streaming.accept(expression, 0, expression.length());
+                return streaming.finish();
+            });
+            if (!expected.equals(actual) || !expected.equals(streamed)) {
+                System.err.println("Mismatch for \"" + expression + "\": expected " + expected + " but got " + actual + " (streamed: " + streamed + ")");
+                System.exit(1);
+            }
+            checked++;
+        }
+        System.out.println(checked + " expressions give the same results as the shifting evaluation (" + skipped + " skipped)");
+    }
+
+    /**
+     * Returns the result of an evaluation, or the class of the exception it threw.
+     */
+    private static String outcome(java.util.function.IntSupplier evaluation) {
+        try {
+            return Integer.toString(evaluation.getAsInt());
+        } catch (RuntimeException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    /**
+     * Builds an expression of 1 to 12 numbers, with signed operands, spaces, divisions by zero,
+     * and sometimes a leading or trailing operator.
+     */
+    private static String randomExpression(Random rnd) {
+        StringBuilder expression = new StringBuilder();
+        if (rnd.nextInt(20) == 0)
+            expression.append(operators[rnd.nextInt(operators.length)]);
+        int count = 1 + rnd.nextInt(12);
+        for (int n = 0; n < count; n++) {
+            //sometimes the operation is left out, so that a signed number follows a space (ex.: "5 -3")
+            if (n > 0 && rnd.nextInt(30) == 0)
+                expression.append(' ');
+            else if (n > 0) {
+                expression.append(operators[rnd.nextInt(operators.length)]);
+                if (rnd.nextInt(10) == 0)
+                    expression.append(' ');
+            }
+            if (rnd.nextInt(6) == 0)
+                expression.append('-');
+            expression.append(rnd.nextInt(10) == 0 ? 0 : rnd.nextInt(rnd.nextBoolean() ? 10 : 100_000));
+        }
+        if (rnd.nextInt(20) == 0)
+            expression.append(operators[rnd.nextInt(operators.length)]);
+        return expression.toString();
+    }
+
+    /**
+     * The original evaluation: formater fills the FILO vectors, '*' and '/' are reduced first and then '+',
+     * each time shifting the rest of the vectors down. Its vectors are cleared before every evaluation,
+     * so that a missing number is read as 0 instead of a value left behind by the previous expression.
+     *
+     * With two operations or more without a number (ex.: "+5*2-1*"), the shifts leave copies of numbers in the slots
+     * past the end, and the last loop adds them again, so those expressions are skipped: their original result
+     * was a bug, not a behaviour to keep.
+     */
+    private static final class ShiftingEvaluator {
+        private int[] numbers;
+        private char[] operations;
+        private int stN, stO;
+
+        /**
+         * The number of operations of the last expression that had no number to pair with.
+         */
+        int operationsWithoutNumber;
+
+        int evaluate(String expression) {
+            numbers = new int[expression.length() + 3];
+            operations = new char[expression.length() + 3];
+            stN = stO = 1;
+
+            formater(expression);
+            operationsWithoutNumber = Math.max(0, stO - stN + 1);
+
+            for (int i = 1; i < stO; i++)
+                if (operations[i] == '*') {
+                    numbers[i] = numbers[i] * numbers[i + 1];
+                    for (int j = i + 1; j < stN; j++)
+                        numbers[j] = numbers[j + 1];
+                    stN--;
+                    for (int j = i; j < stO; j++)
+                        operations[j] = operations[j + 1];
+                    stO--;
+                    if (operations[i] == '*' || operations[i] == '/')
+                        i--;
+                }
+                else if (operations[i] == '/') {
+                    numbers[i] = numbers[i] / numbers[i + 1];
+                    for (int j = i + 1; j < stN; j++)
+                        numbers[j] = numbers[j + 1];
+                    stN--;
+                    for (int j = i; j < stO; j++)
+                        operations[j] = operations[j + 1];
+                    stO--;
+                    if (operations[i] == '*' || operations[i] == '/')
+                        i--;
+                }
+
+            for (int i = 1; i <= stO || stN > 1; i++) {
+                if (operations[1] == '-')
+                    numbers[1] = numbers[1] - numbers[2];
+                else
+                    numbers[1] = numbers[1] + numbers[2];
+                for (int j = 2; j < stN; j++)
+                    numbers[j] = numbers[j + 1];
+                stN--;
+                for (int j = 2; j < stO; j++)
+                    operations[j] = operations[j + 1];
+                stO--;
+            }
+
+            return numbers[1];
+        }
+
+        private void formater(String equation) {
+            byte lastInput = -1;
+            char currentChar;
+            int i;
+
+            for (int k = 0; k < equation.length(); k++) {
+                currentChar = equation.charAt(k);
+
+                if (currentChar >= 48 && currentChar <= 57 && lastInput != 0) {
+                    int number = currentChar - '1' + 1;
+                    for (i = k + 1; i < equation.length() && equation.charAt(i) >= 48 && equation.charAt(i) <= 57; i++)
+                        number = number * 10 + equation.charAt(i) - '1' + 1;
+
+                    if (lastInput == 2)
+                        number *= -1;
+                    numbers[stN++] = number;
+                    lastInput = 0;
+                    k = i - 1;
+                } else if (currentChar == '/') {
+                    operations[stO++] = '/';
+                    lastInput = 1;
+                } else if (currentChar == '*') {
+                    operations[stO++] = '*';
+                    lastInput = 1;
+                } else if (currentChar == '-') {
+                    if (k >= 1 && equation.charAt(k - 1) >= 48 && equation.charAt(k - 1) <= 57)
+                        operations[stO++] = '+';
+                    lastInput = 2;
+                } else if (currentChar == '+') {
+                    operations[stO++] = '+';
+                    lastInput = 1;
+                }
+            }
+        }
+    }
+}
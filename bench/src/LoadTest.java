@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LoadTest class is a client for the server mode of the calculator (see {@link EvaluationServer}):
+ * it opens many connections at once, sends expressions on each of them without waiting for the results
+ * (up to a given number of expressions in flight per connection), and reports the throughput and the
+ * latency percentiles, from the moment an expression is sent to the moment its result is read.
+ *
+ * Every result is also compared with the result of the same expression evaluated locally,
+ * which checks that the results come back complete and in order.
+ *
+ * Usage: java -cp [calculator classes]:[benchmark classes]:libs/* LoadTest [--port n | --unix path | --embedded]
+ *        [--connections 64] [--pipeline 16] [--requests 10000] [--length 8]
+ *
+ * With --embedded, a server is started in the same JVM on a free port, with its logs discarded.
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        SocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Main.defaultServerPort);
+        boolean embedded = false;
+        int connections = 64, pipeline = 16, requests = 10_000, length = 8;
+
+        for (int i = 0; i < args.length; i++)
+            switch (args[i]) {
+                case "--port" -> address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[++i]));
+                case "--unix" -> address = UnixDomainSocketAddress.of(args[++i]);
+                case "--embedded" -> embedded = true;
+                case "--connections" -> connections = Integer.parseInt(args[++i]);
+                case "--pipeline" -> pipeline = Integer.parseInt(args[++i]);
+                case "--requests" -> requests = Integer.parseInt(args[++i]);
+                case "--length" -> length = Integer.parseInt(args[++i]);
+                default -> {
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+
+        //the results every expression should get, evaluated here before the logs are discarded
+        String[] expressions = BenchmarkInputs.expressions(length, "mixed");
+        String[] expected = new String[expressions.length];
+        Logger.setSinks(NoOpLogSink.INSTANCE);
+        for (int i = 0; i < expressions.length; i++)
+            expected[i] = BatchEvaluator.evaluateLine(expressions[i]);
+
+        EvaluationServer server = null;
+        if (embedded) {
+            server = EvaluationServer.openTcp(0);
+            address = server.getAddress();
+            EvaluationServer running = server;
+            Thread.ofPlatform().daemon().name("Embedded server").start(() -> {
+                try {
+                    running.serve();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        LongAdder mismatches = new LongAdder();
+        List<Thread> clients = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            SocketAddress target = address;
+            int first = c * 31, count = requests, depth = pipeline;
+            clients.add(Thread.ofVirtual().start(() -> {
+                try {
+                    runConnection(target, expressions, expected, first, count, depth, latencies, mismatches);
+                } catch (IOException | InterruptedException e) {
+                    System.err.println("A connection failed: " + e);
+                }
+            }));
+        }
+        for (Thread client : clients)
+            client.join();
+        long nanos = System.nanoTime() - start;
+
+        if (server != null)
+            server.close();
+        Logger.setSinks();
+
+        LatencySnapshot snapshot = latencies.snapshot();
+        System.out.printf("%d connections, %d expressions in flight per connection, %d expressions of %d numbers%n",
+                connections, pipeline, snapshot.getCount(), length);
+        System.out.printf("throughput: %.0f expressions/s in %.3f s%n", snapshot.getCount() / (nanos / 1e9), nanos / 1e9);
+        System.out.printf("latency: p50=%.1f us p90=%.1f us p99=%.1f us p99.9=%.1f us max=%.1f us%n", snapshot.getP50() / 1e3,
+                snapshot.getP90() / 1e3, snapshot.getP99() / 1e3, snapshot.getP999() / 1e3, snapshot.getMax() / 1e3);
+        if (mismatches.sum() > 0)
+            System.out.println("wrong or out of order results: " + mismatches.sum());
+    }
+
+    /**
+     * Sends expressions on one connection from a second virtual thread, while this one reads the results,
+     * allowing at most `depth` expressions without a result.
+     */
+    private static void runConnection(SocketAddress address, String[] expressions, String[] expected, int first, int count, int depth,
+                                      LatencyHistogram latencies, LongAdder mismatches) throws IOException, InterruptedException {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            //written by the sender and read by this thread, so they are read and written atomically
+            AtomicLongArray sendTimes = new AtomicLongArray(count);
+            Semaphore inFlight = new Semaphore(depth);
+            Thread sender = Thread.ofVirtual().start(() -> {
+                try {
+                    for (int r = 0; r < count; r++) {
+                        inFlight.acquire();
+                        ByteBuffer line = ByteBuffer.wrap((expressions[(first + r) % expressions.length] + "\n").getBytes(StandardCharsets.UTF_8));
+                        sendTimes.set(r, System.nanoTime());
+                        while (line.hasRemaining())
+                            channel.write(line);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    System.err.println("Sending failed: " + e);
+                }
+            });
+
+            ByteBuffer input = ByteBuffer.allocate(1 << 14);
+            int received = 0;
+            while (received < count && channel.read(input) >= 0) {
+                long now = System.nanoTime();
+                byte[] bytes = input.array();
+                int lineStart = 0;
+                for (int i = 0; i < input.position(); i++)
+                    if (bytes[i] == '\n') {
+                        String result = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8);
+                        if (!result.equals(expected[(first + received) % expected.length]))
+                            mismatches.increment();
+                        latencies.record(now - sendTimes.get(received++));
+                        inFlight.release();
+                        lineStart = i + 1;
+                    }
+                input.flip().position(lineStart);
+                input.compact();
+            }
+            sender.join();
+        }
+    }
+}
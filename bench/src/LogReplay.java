@@ -0,0 +1,288 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The LogReplay class replays the workload recorded in the logs of the calculator: it reads the evaluations
+ * ("Evaluated expression X to be Y") and the conversions ("Converted number N from base B into target base T: R")
+ * logged in production, calls the evaluator again with the same inputs, checks every result against the logged one,
+ * and reports the throughput and the latency distribution of the calls.
+ *
+ * The calls are replayed at the pace they were logged at (--speed 1), at a multiple of it (--speed 10 is ten times faster),
+ * or as fast as possible (--speed 0). Text logs only keep the second of every entry, so the entries logged within
+ * the same second are spread evenly over it instead of being replayed as a single burst. When the replay is paced,
+ * the latency is also measured from the moment every call was due, so falling behind the recorded pace shows up in it.
+ *
+ * The calls are shared among --threads threads, call i going to thread i % threads, so that the traffic of a server
+ * can be replayed with its concurrency. The logs of the replayed calls are discarded, so that the replay doesn't add
+ * to the logs it reads, and --rounds replays the whole workload several times, the first rounds warming up the JVM.
+ *
+ * Usage: java -cp [calculator classes]:[benchmark classes]:libs/* LogReplay [--from "yyyy-MM-dd HH:mm:ss"] [--to "yyyy-MM-dd HH:mm:ss"]
+ *        [--folder ~/.SimpleCalculator] [--file logs.txt ...] [--speed 1] [--threads 1] [--rounds 1]
+ *
+ * Without --file, the logs of the application's folder (or of --folder) are read between --from and --to, with a {@link LogQuery}.
+ * --file reads whole log files instead, text or binary, compressed or not, in the order they are given.
+ */
+public class LogReplay {
+
+    /**
+     * The kinds of calls that are replayed, also used as the indexes of their histograms.
+     */
+    private static final int evaluation = 0, exactEvaluation = 1, conversion = 2;
+    private static final String[] kindNames = {"evaluate", "exact", "convert"};
+
+    private static final String evaluatedPrefix = "Evaluated expression ", evaluatedSeparator = " to be ";
+    private static final String convertedPrefix = "Converted number ", fromBase = " from base ", intoBase = " into target base ";
+
+    public static void main(String[] args) throws Exception {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        long from = 0, to = Long.MAX_VALUE / 1_000_000;
+        Path folder = Main.getAppDirectory();
+        List<Path> files = new ArrayList<>();
+        double speed = 1;
+        int threads = 1, rounds = 1;
+
+        for (int i = 0; i < args.length; i++)
+            switch (args[i]) {
+                case "--from" -> from = LocalDateTime.parse(args[++i], formatter).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                case "--to" -> to = LocalDateTime.parse(args[++i], formatter).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                case "--folder" -> folder = Path.of(args[++i]);
+                case "--file" -> files.add(Path.of(args[++i]));
+                case "--speed" -> speed = Double.parseDouble(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--rounds" -> rounds = Integer.parseInt(args[++i]);
+                default -> {
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+
+        //the calls are read before the logs are discarded, and the entries that aren't calls are only counted
+        long start = System.nanoTime();
+        List<Call> calls = new ArrayList<>();
+        long[] skipped = new long[1];
+        if (files.isEmpty())
+            new LogQuery(folder, "logs").query(from, to, event -> addCall(event, calls, skipped));
+        else
+            for (Path file : files)
+                readFile(file, event -> addCall(event, calls, skipped));
+        System.out.printf("read %d calls (%d other entries) in %.1f ms%n", calls.size(), skipped[0], (System.nanoTime() - start) / 1e6);
+        if (calls.isEmpty())
+            return;
+
+        long[] due = schedule(calls, speed);
+        System.out.printf("recorded over %.1f s, replayed %s on %d threads%n", (calls.get(calls.size() - 1).timeMillis - calls.get(0).timeMillis) / 1e3,
+                speed > 0 ? "at " + speed + " times the recorded pace" : "as fast as possible", threads);
+
+        Logger.setSinks(NoOpLogSink.INSTANCE);
+        for (int r = 1; r <= rounds; r++)
+            replay(r, calls, due, threads);
+        Logger.setSinks();
+    }
+
+    /**
+     * Replays every call once, on `threads` threads, and prints what the round measured.
+     */
+    private static void replay(int round, List<Call> calls, long[] due, int threads) throws InterruptedException {
+        LatencyHistogram[] latencies = new LatencyHistogram[kindNames.length];
+        for (int k = 0; k < latencies.length; k++)
+            latencies[k] = new LatencyHistogram();
+        LatencyHistogram lateLatencies = new LatencyHistogram();
+        LongAdder mismatches = new LongAdder();
+        boolean paced = due != null;
+
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int first = t, step = threads;
+            workers.add(Thread.ofPlatform().name("Replay " + t).start(() -> {
+                for (int i = first; i < calls.size(); i += step) {
+                    long dueTime = paced ? start + due[i] : 0;
+                    if (paced) {
+                        long wait = dueTime - System.nanoTime();
+                        if (wait > 0)
+                            LockSupport.parkNanos(wait);
+                    }
+
+                    Call call = calls.get(i);
+                    long begin = System.nanoTime();
+                    String result = call.replay();
+                    long end = System.nanoTime();
+                    latencies[call.kind].record(end - begin);
+                    if (paced)
+                        lateLatencies.record(end - dueTime);
+
+                    if (!result.equals(call.expected)) {
+                        //only the first mismatches are printed, there can be millions of them after a change of behaviour
+                        mismatches.increment();
+                        if (mismatches.sum() <= 10)
+                            System.out.println("mismatch: " + call + " gave " + result);
+                    }
+                }
+            }));
+        }
+        for (Thread worker : workers)
+            worker.join();
+        long nanos = System.nanoTime() - start;
+
+        System.out.printf("round %d: %d calls in %.3f s, %.0f calls/s, %d mismatches%n", round, calls.size(), nanos / 1e9,
+                calls.size() / (nanos / 1e9), mismatches.sum());
+        for (int k = 0; k < latencies.length; k++)
+            print(kindNames[k], latencies[k].snapshot());
+        if (paced)
+            print("from due", lateLatencies.snapshot());
+    }
+
+    private static void print(String name, LatencySnapshot snapshot) {
+        if (snapshot.getCount() == 0)
+            return;
+        System.out.printf("  %-9s %9d calls: p50=%.1f us p90=%.1f us p99=%.1f us p99.9=%.1f us max=%.1f us%n", name, snapshot.getCount(),
+                snapshot.getP50() / 1e3, snapshot.getP90() / 1e3, snapshot.getP99() / 1e3, snapshot.getP999() / 1e3, snapshot.getMax() / 1e3);
+    }
+
+    /**
+     * Returns the nanoseconds from the start of the replay at which every call is due, or null to replay as fast as possible.
+     *
+     * The calls logged at the same time are spread evenly until the time of the next call, within a second at most,
+     * since the logs only keep the second (text) or the millisecond (binary) of the entries.
+     */
+    private static long[] schedule(List<Call> calls, double speed) {
+        if (speed <= 0)
+            return null;
+        long[] due = new long[calls.size()];
+        long first = calls.get(0).timeMillis;
+        int i = 0;
+        while (i < calls.size()) {
+            long time = calls.get(i).timeMillis;
+            int same = i;
+            while (same < calls.size() && calls.get(same).timeMillis == time)
+                same++;
+            long next = same < calls.size() ? Math.max(time, calls.get(same).timeMillis) : time + 1;
+            double spread = Math.min(next - time, 1000) * 1e6 / (same - i);
+            for (int j = i; j < same; j++)
+                due[j] = (long) (((time - first) * 1e6 + (j - i) * spread) / speed);
+            i = same;
+        }
+        return due;
+    }
+
+    /**
+     * Adds the call logged by an entry, if it logged one.
+     */
+    private static void addCall(LogEvent event, List<Call> calls, long[] skipped) {
+        Call call = Call.parse(event);
+        if (call != null)
+            calls.add(call);
+        else
+            skipped[0]++;
+    }
+
+    /**
+     * Reads every entry of a log file, in the format its extension gives.
+     */
+    private static void readFile(Path file, Consumer<LogEvent> action) throws IOException {
+        String fileName = file.getFileName().toString();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            //a compressed segment is a series of gzip members, which GZIPInputStream reads one after the other
+            InputStream entries = fileName.endsWith(".gz") ? new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16) : in;
+            LogSegmentReader reader = new LogSegmentReader(entries, fileName.endsWith(".bin") || fileName.endsWith(".bin.gz"));
+            LogEvent event;
+            while ((event = reader.next()) != null)
+                action.accept(event);
+        }
+    }
+
+    /**
+     * A call to the evaluator read from the logs, with the result it gave then.
+     */
+    private static final class Call {
+        final long timeMillis;
+        final int kind;
+        final String input;
+        final int base, targetBase;
+        final String expected;
+
+        Call(long timeMillis, int kind, String input, int base, int targetBase, String expected) {
+            this.timeMillis = timeMillis;
+            this.kind = kind;
+            this.input = input;
+            this.base = base;
+            this.targetBase = targetBase;
+            this.expected = expected;
+        }
+
+        /**
+         * Reads the call logged by an entry.
+         *
+         * @return the call, or null if the entry didn't log an evaluation or a conversion.
+         */
+        static Call parse(LogEvent event) {
+            String message = event.message;
+            try {
+                if (message.startsWith(evaluatedPrefix)) {
+                    //expressions never hold spaces, so the result is after the last separator
+                    int separator = message.lastIndexOf(evaluatedSeparator);
+                    if (separator < evaluatedPrefix.length())
+                        return null;
+                    String result = message.substring(separator + evaluatedSeparator.length());
+                    //a result that doesn't fit in an int was given by the exact evaluation
+                    BigInteger value = new BigInteger(result);
+                    int kind = value.bitLength() < 32 ? evaluation : exactEvaluation;
+                    return new Call(event.timeMillis, kind, message.substring(evaluatedPrefix.length(), separator), 0, 0, result);
+                }
+                if (message.startsWith(convertedPrefix)) {
+                    int baseStart = message.indexOf(fromBase), targetStart = message.indexOf(intoBase, baseStart);
+                    int resultStart = message.indexOf(": ", targetStart);
+                    if (baseStart < 0 || targetStart < 0 || resultStart < 0)
+                        return null;
+                    return new Call(event.timeMillis, conversion, message.substring(convertedPrefix.length(), baseStart),
+                            Integer.parseInt(message.substring(baseStart + fromBase.length(), targetStart)),
+                            Integer.parseInt(message.substring(targetStart + intoBase.length(), resultStart)),
+                            message.substring(resultStart + 2));
+                }
+            } catch (NumberFormatException e) {
+                //an entry that only looks like a call
+            }
+            return null;
+        }
+
+        /**
+         * Makes the call again.
+         *
+         * @return the result, formatted like in the logs, or the error the call threw.
+         */
+        String replay() {
+            try {
+                return switch (kind) {
+                    case evaluation -> {
+                        //the exact evaluation also logs the results that fit in an int, so it is tried when the int one differs
+                        String result = Integer.toString(Evaluator.evaluateExpression(input));
+                        yield result.equals(expected) ? result : Evaluator.evaluateExactExpression(input).toString();
+                    }
+                    case exactEvaluation -> Evaluator.evaluateExactExpression(input).toString();
+                    default -> Evaluator.convertToBaseN(input, base, targetBase);
+                };
+            } catch (ArithmeticException | NumberFormatException e) {
+                return "Error: " + e.getMessage();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return kind == conversion ? "converting " + input + " from base " + base + " to base " + targetBase + " (logged " + expected + ")"
+                    : "evaluating " + input + " (logged " + expected + ")";
+        }
+    }
+}
@@ -0,0 +1,44 @@
+import benchmarks.LoggerBenchmark;
+import com.sun.jna.platform.win32.WinNT;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * The code measured by {@link LoggerBenchmark}: logging expressions of a length to a file in a temporary folder.
+ */
+public final class LoggerTarget implements LoggerBenchmark.Target {
+
+    private final String[] messages;
+    private final Path folder;
+
+    public LoggerTarget(int length, boolean async) {
+        messages = BenchmarkInputs.expressions(length, "mixed");
+        try {
+            folder = Files.createTempDirectory("benchmark-logs");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Logger.setSinks(new FileLogSink(folder.resolve("logs.txt")));
+        if (async)
+            Logger.enableAsync(1 << 16, Logger.OverflowPolicy.BLOCK);
+    }
+
+    @Override
+    public void log(int index) {
+        Logger.log(messages[index], (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        Logger.disableAsync();
+        Logger.setSinks();
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
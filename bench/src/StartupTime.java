@@ -0,0 +1,90 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The StartupTime class measures how long the calculator takes to give its first result when it is started
+ * from a script: it launches "Main --eval" in a new JVM several times and measures the time from starting the
+ * process to reading the result line, which includes starting the JVM, loading the classes and evaluating.
+ *
+ * When an AppCDS archive is given (see scripts/create-cds-archive.sh), every run is done both without and with it,
+ * and with --csv the medians are appended to a file, one line per variant, so they can be tracked over time.
+ *
+ * Usage: java -cp [benchmark classes] StartupTime [--jar out/artifacts/Calculator_jar/Calculator.jar] [--archive calculator.jsa]
+ *        [--runs 20] [--expression "1+2*3"] [--csv startup.csv]
+ */
+public class StartupTime {
+
+    public static void main(String[] args) throws Exception {
+        String jar = "out/artifacts/Calculator_jar/Calculator.jar", archive = null, expression = "12+34*5-6/7";
+        int runs = 20;
+        Path csv = null;
+
+        for (int i = 0; i < args.length; i++)
+            switch (args[i]) {
+                case "--jar" -> jar = args[++i];
+                case "--archive" -> archive = args[++i];
+                case "--runs" -> runs = Integer.parseInt(args[++i]);
+                case "--expression" -> expression = args[++i];
+                case "--csv" -> csv = Path.of(args[++i]);
+                default -> {
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<String[]> variants = new ArrayList<>();
+        variants.add(new String[]{"default", java, "-jar", jar, "--eval", expression});
+        if (archive != null)
+            variants.add(new String[]{"appcds", java, "-XX:SharedArchiveFile=" + archive, "-jar", jar, "--eval", expression});
+
+        System.out.printf("%-10s %10s %10s %10s%n", "variant", "min ms", "median ms", "p90 ms");
+        List<String> rows = new ArrayList<>();
+        for (String[] variant : variants) {
+            String[] command = Arrays.copyOfRange(variant, 1, variant.length);
+            //a first run that isn't measured, so that the files are in the cache of the system for every measured run
+            timeToFirstLine(command);
+            double[] millis = new double[runs];
+            for (int r = 0; r < runs; r++)
+                millis[r] = timeToFirstLine(command);
+            Arrays.sort(millis);
+            double median = millis[runs / 2], p90 = millis[Math.min(runs - 1, (int) Math.ceil(runs * 0.9) - 1)];
+            System.out.printf("%-10s %10.1f %10.1f %10.1f%n", variant[0], millis[0], median, p90);
+            rows.add(String.format("%s,%s,%d,%.1f,%.1f,%.1f", LocalDate.now(), variant[0], runs, millis[0], median, p90));
+        }
+
+        if (csv != null) {
+            boolean exists = Files.exists(csv);
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(csv, StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+                if (!exists)
+                    writer.println("date,variant,runs,min_ms,median_ms,p90_ms");
+                rows.forEach(writer::println);
+            }
+        }
+    }
+
+    /**
+     * Starts the command and returns the milliseconds until it printed its first line, after checking that the line is a result.
+     */
+    private static double timeToFirstLine(String[] command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line = output.readLine();
+            long nanos = System.nanoTime() - start;
+            if (line == null || line.startsWith("Error"))
+                throw new IllegalStateException("The calculator didn't print a result: " + line);
+            process.waitFor();
+            return nanos / 1e6;
+        }
+    }
+}
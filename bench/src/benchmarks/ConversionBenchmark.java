@@ -0,0 +1,71 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ConversionBenchmark class measures the base conversions of binary numbers of `digits` digits to base 10:
+ * through the int API of the GUI (at most 9 digits, since they are read from an int), and through the
+ * BaseConverter, which moves to BigInteger past 63 digits.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    /**
+     * The code measured, implemented by ConversionTarget in the default package (see {@link Targets}).
+     */
+    public interface Target {
+
+        /**
+         * Converts the number of the given index with Evaluator.convertToBaseN.
+         */
+        String convertToBaseN(int index);
+
+        /**
+         * Converts the number of the given index with BaseConverter.convert.
+         */
+        String baseConverter(int index);
+    }
+
+    @Param({"4", "32", "256"})
+    int digits;
+
+    private Target target;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        target = Targets.create("ConversionTarget", new Class<?>[]{int.class}, digits);
+    }
+
+    private int next() {
+        return index = Targets.next(index);
+    }
+
+    @Benchmark
+    public String convertToBaseN() {
+        return target.convertToBaseN(next());
+    }
+
+    @Benchmark
+    public String baseConverter() {
+        return target.baseConverter(next());
+    }
+}
@@ -0,0 +1,121 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The EvaluationBenchmark class measures the parsing and the evaluation of expressions, for every expression length
+ * (the number of numbers) and operator mix: "add" only uses '+' and '-', "mul" only '*' and '/', and "mixed" all four.
+ *
+ * The evaluations are logged, so the logs are discarded to measure the arithmetic and not the disk.
+ * Every thread has its own state, and goes through its inputs in turn.
+ *
+ * evaluateExact, the path of the GUI, is compared with evaluateExpression, and parsedLong with parsedInt: on numbers small
+ * enough for the exact evaluation to use the int one (ex.: -p length=4), each pair should run at the same speed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+
+    /**
+     * The code measured, implemented by EvaluationTarget in the default package (see {@link Targets}).
+     * Every method works on the input of the given index.
+     */
+    public interface Target {
+
+        /**
+         * Parsing and evaluating on a private Evaluator, without the expression cache.
+         */
+        int evaluate(int index);
+
+        /**
+         * The static API used by the batch modes, which goes through the expression cache.
+         */
+        int evaluateExpression(int index);
+
+        /**
+         * The exact evaluation (long, moving to BigInteger on overflow) of the same cached expressions, used by the GUI.
+         */
+        Object evaluateExact(int index);
+
+        /**
+         * Evaluating an already parsed expression with the int arithmetic, without any logging or caching.
+         */
+        int parsedInt(int index);
+
+        /**
+         * Evaluating an already parsed expression with the exact long arithmetic, which is the int one when no value can overflow an int.
+         * The long expressions of only multiplications can overflow a long, and then cost a BigInteger evaluation.
+         */
+        long parsedLong(int index);
+
+        /**
+         * formater alone, through Evaluator.compile.
+         */
+        Object formater(int index);
+    }
+
+    @Param({"4", "32", "256"})
+    int length;
+
+    @Param({"add", "mul", "mixed"})
+    String mix;
+
+    private Target target;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        target = Targets.create("EvaluationTarget", new Class<?>[]{int.class, String.class}, length, mix);
+    }
+
+    private int next() {
+        return index = Targets.next(index);
+    }
+
+    @Benchmark
+    public int evaluate() {
+        return target.evaluate(next());
+    }
+
+    @Benchmark
+    public int evaluateExpression() {
+        return target.evaluateExpression(next());
+    }
+
+    @Benchmark
+    public Object evaluateExact() {
+        return target.evaluateExact(next());
+    }
+
+    @Benchmark
+    public int parsedInt() {
+        return target.parsedInt(next());
+    }
+
+    @Benchmark
+    public long parsedLong() {
+        return target.parsedLong(next());
+    }
+
+    @Benchmark
+    public Object formater() {
+        return target.formater(next());
+    }
+}
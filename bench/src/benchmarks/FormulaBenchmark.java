@@ -0,0 +1,94 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FormulaBenchmark class measures the formulas compiled to bytecode: one formula calculated through its generated
+ * code against the same arithmetic written in Java, and a formula over columns of `rows` rows (an operation is a whole
+ * pass), column by column and then row by row.
+ *
+ * The column by column benchmark uses the Vector API when the JVM runs with --add-modules jdk.incubator.vector,
+ * which is passed to the forked JVMs with -jvmArgsAppend.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormulaBenchmark {
+
+    /**
+     * The code measured, implemented by FormulaTarget in the default package (see {@link Targets}).
+     */
+    public interface Target {
+
+        /**
+         * Calculates "price*quantity - discount + price*tax/100" on the values of the given index with its Formula.
+         */
+        long formulaFixed(int index);
+
+        /**
+         * Calculates the same formula written in Java, with the same overflow checks.
+         */
+        long handWrittenFixed(int index);
+
+        /**
+         * Calculates "x*3 + y/2 - x*y" over all the rows with a ColumnFormula, and returns the result column.
+         */
+        long[] columns();
+
+        /**
+         * Calculates the same formula with a Formula called on every row, and returns the result column.
+         */
+        long[] columnsRowByRow();
+    }
+
+    @Param({"4096", "262144"})
+    int rows;
+
+    private Target target;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        target = Targets.create("FormulaTarget", new Class<?>[]{int.class}, rows);
+    }
+
+    private int next() {
+        return index = Targets.next(index);
+    }
+
+    @Benchmark
+    public long formulaFixed() {
+        return target.formulaFixed(next());
+    }
+
+    @Benchmark
+    public long handWrittenFixed() {
+        return target.handWrittenFixed(next());
+    }
+
+    @Benchmark
+    public long[] columns() {
+        return target.columns();
+    }
+
+    @Benchmark
+    public long[] columnsRowByRow() {
+        return target.columnsRowByRow();
+    }
+}
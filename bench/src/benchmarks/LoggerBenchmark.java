@@ -0,0 +1,80 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The LoggerBenchmark class measures logging a message of `length` numbers to a file in a temporary folder,
+ * either written right away ("sync") or only queued for the background writer ("async", see Logger.enableAsync).
+ *
+ * The logger is shared by all the threads, so its state is too; only the index of the next message is per thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerBenchmark {
+
+    /**
+     * The code measured, implemented by LoggerTarget in the default package (see {@link Targets}).
+     */
+    public interface Target {
+
+        /**
+         * Logs the message of the given index.
+         */
+        void log(int index);
+
+        /**
+         * Stops the background writer if any, and deletes the temporary folder.
+         */
+        void close() throws IOException;
+    }
+
+    /**
+     * The index of the next message of a thread.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+    }
+
+    @Param({"4", "32", "256"})
+    int length;
+
+    @Param({"sync", "async"})
+    String mode;
+
+    private Target target;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        target = Targets.create("LoggerTarget", new Class<?>[]{int.class, boolean.class}, length, mode.equals("async"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        target.close();
+    }
+
+    @Benchmark
+    public void log(Cursor cursor) {
+        target.log(cursor.index = Targets.next(cursor.index));
+    }
+}
@@ -0,0 +1,39 @@
+package benchmarks;
+
+/**
+ * JMH refuses benchmark classes in the default package, and a class in a package can't name the classes of the
+ * default package, where all the classes of the calculator are. So every benchmark of this package declares the code
+ * it measures as a Target interface, implemented in the default package by a class created here by its name.
+ *
+ * Only one implementation of every interface is ever loaded, so the JIT inlines the calls through it.
+ */
+final class Targets {
+
+    /**
+     * The number of different inputs prepared for every benchmark, used in turn by its operations.
+     * It must match BenchmarkInputs.inputCount.
+     */
+    static final int inputCount = 1024;
+
+    private Targets() {
+    }
+
+    /**
+     * Creates the target of the given class of the default package, with its constructor taking the given types.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T create(String className, Class<?>[] types, Object... arguments) {
+        try {
+            return (T) Class.forName(className).getConstructor(types).newInstance(arguments);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't create the benchmark target " + className, e);
+        }
+    }
+
+    /**
+     * Returns the index of the input after the given one, going back to 0 after the last one.
+     */
+    static int next(int index) {
+        return (index + 1) & (inputCount - 1);
+    }
+}
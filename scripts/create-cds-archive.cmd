@@ -0,0 +1,27 @@
+@echo off
+rem Creates an AppCDS archive of the classes the calculator loads to evaluate expressions from the command line,
+rem so that the JVM maps them from the archive instead of finding, parsing and verifying them at every start.
+rem
+rem Usage: scripts\create-cds-archive.cmd [jar] [archive]
+rem Then:  java -XX:SharedArchiveFile=calculator.jsa -jar Calculator.jar --eval "1+2*3"
+rem
+rem The classes must come from a jar (CDS doesn't archive class folders), by default the Calculator.jar artifact.
+rem The archive only works with the same JDK and the same jar, so it has to be created again after every build.
+
+set jar=%~1
+if "%jar%"=="" set jar=out\artifacts\Calculator_jar\Calculator.jar
+set archive=%~2
+if "%archive%"=="" set archive=calculator.jsa
+
+if not exist "%jar%" (
+    echo %jar% not found, build the Calculator:jar artifact first 1>&2
+    exit /b 1
+)
+
+rem a training run of the one-shot mode, with an error too so that its classes are archived as well
+java -XX:ArchiveClassesAtExit="%archive%" -jar "%jar%" --eval "12+34*5-6/7" "1/0" > nul
+if not exist "%archive%" (
+    echo The archive could not be created 1>&2
+    exit /b 1
+)
+echo Created %archive%
@@ -0,0 +1,26 @@
+#!/bin/sh
+# Creates an AppCDS archive of the classes the calculator loads to evaluate expressions from the command line,
+# so that the JVM maps them from the archive instead of finding, parsing and verifying them at every start.
+#
+# Usage: scripts/create-cds-archive.sh [jar] [archive]
+# Then:  java -XX:SharedArchiveFile=calculator.jsa -jar Calculator.jar --eval "1+2*3"
+#
+# The classes must come from a jar (CDS doesn't archive class folders), by default the Calculator.jar artifact.
+# The archive only works with the same JDK and the same jar, so it has to be created again after every build.
+set -e
+
+jar=${1:-out/artifacts/Calculator_jar/Calculator.jar}
+archive=${2:-calculator.jsa}
+
+if [ ! -f "$jar" ]; then
+    echo "$jar not found, build the Calculator:jar artifact first" >&2
+    exit 1
+fi
+
+# a training run of the one-shot mode, with an error too so that its classes are archived as well
+java -XX:ArchiveClassesAtExit="$archive" -jar "$jar" --eval "12+34*5-6/7" "1/0" > /dev/null || true
+if [ ! -f "$archive" ]; then
+    echo "The archive could not be created" >&2
+    exit 1
+fi
+echo "Created $archive"
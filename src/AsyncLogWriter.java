@@ -0,0 +1,288 @@
+import com.sun.jna.platform.win32.WinNT;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The AsyncLogWriter class takes the writing of log entries off the threads that log them.
+ *
+ * Logging threads only put a {@link LogEvent} into a bounded lock-free ring buffer, and a single background thread
+ * takes the events out in batches, hands them to the {@link LogSink}s and flushes the sinks once per batch,
+ * so a {@link FileLogSink} writes a whole batch with a single write to its file, which stays open.
+ * When the ring buffer is full, the {@link Logger.OverflowPolicy} decides whether the logging thread waits for room,
+ * drops the event or drops all but a sample of the events.
+ */
+class AsyncLogWriter {
+
+    /**
+     * The largest number of events handed to the sinks before they are flushed.
+     */
+    private static final int batchSize = 4096;
+
+    /**
+     * With the SAMPLE policy, one out of this many events that find the ring buffer full waits for room, the others are dropped.
+     */
+    static final int sampleEvery = 100;
+
+    /**
+     * How long the writer thread sleeps when it finds the ring buffer empty, in nanoseconds.
+     */
+    private static final long idleNanos = 1_000_000;
+
+    /**
+     * The slots of the ring buffer. The slot of a position is the position masked with {@link #mask}.
+     */
+    private final LogEvent[] events;
+
+    /**
+     * The sequence of every slot, which tells producers and the consumer who owns the slot.
+     *
+     * A slot whose sequence equals a position is free for the producer that claims that position, and a slot whose
+     * sequence is one more than a position holds the event of that position, ready for the writer thread.
+     * Reading and writing these sequences is what publishes the events between threads without any lock.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * The capacity of the ring buffer minus one, the capacity always being a power of two.
+     */
+    private final int mask;
+
+    /**
+     * The next position producers will claim.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The next position the writer thread will read. It is only used by the writer thread,
+     * and once it has ended by {@link #drainStopped()}.
+     */
+    private long head;
+
+    /**
+     * What to do when the ring buffer is full.
+     */
+    private final Logger.OverflowPolicy policy;
+
+    /**
+     * Counts the events that found the ring buffer full, used to pick the sampled events with the SAMPLE policy.
+     */
+    private final AtomicLong overflows = new AtomicLong();
+
+    /**
+     * Counts the events that were dropped because the ring buffer was full.
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * The number of dropped events that have already been reported in the logs file.
+     */
+    private long reportedDropped;
+
+    /**
+     * The thread that takes the events out of the ring buffer and writes them.
+     */
+    private final Thread thread;
+
+    /**
+     * Set when the writer is shut down, so the writer thread writes what is left and stops.
+     */
+    private volatile boolean running = true;
+
+
+    /**
+     * Creates a writer with a ring buffer of at least the given capacity and starts its background thread.
+     *
+     * @param capacity the number of events the ring buffer can hold, rounded up to a power of two.
+     * @param policy   what to do when the ring buffer is full.
+     */
+    AsyncLogWriter(int capacity, Logger.OverflowPolicy policy) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.events = new LogEvent[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        this.mask = size - 1;
+        this.policy = policy;
+
+        this.thread = new Thread(this::writeLoop, Main.name + " log writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Puts an event into the ring buffer, applying the overflow policy if it is full.
+     *
+     * @param event the event to be written.
+     */
+    void enqueue(LogEvent event) {
+        //the writer thread logs its own problems, and it can't wait for itself to make room
+        if (Thread.currentThread() == thread) {
+            Logger.dispatch(event);
+            return;
+        }
+
+        if (!offer(event)) {
+            //the ring buffer is full, so the policy decides what happens to the event
+            if (policy == Logger.OverflowPolicy.DROP
+                    || (policy == Logger.OverflowPolicy.SAMPLE && overflows.getAndIncrement() % sampleEvery != 0)) {
+                dropped.increment();
+                return;
+            }
+
+            //wait for the writer thread to make room, or make it ourselves once the writer thread is stopped
+            while (!offer(event)) {
+                if (!running)
+                    drainStopped();
+                else {
+                    LockSupport.unpark(thread);
+                    LockSupport.parkNanos(10_000);
+                }
+            }
+        }
+
+        //a thread that read the writer just before it was shut down can get here after the last batch was written,
+        // so the event is written from here rather than left in the ring buffer
+        if (!running)
+            drainStopped();
+    }
+
+    /**
+     * Returns the number of events that were dropped because the ring buffer was full.
+     *
+     * @return the number of dropped events.
+     */
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stops the writer: the events already in the ring buffer are written and the sinks are flushed.
+     * Events logged afterwards, by threads that still hold the writer, are written by those threads.
+     */
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        drainStopped();
+    }
+
+    /**
+     * Writes the events left in the ring buffer once the writer is stopped, from the calling thread.
+     *
+     * It waits for the writer thread to end first, so that a single thread takes the events out at a time, and then
+     * for every position claimed so far to be filled. A producer that claims a position afterwards has read `running`
+     * after this method read `tail`, so it sees the writer stopped and calls this method again for its event.
+     */
+    private synchronized void drainStopped() {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            //the events are still written below, but the writer thread might not be done, so we leave them to it
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        long end = tail.get();
+        int count = 0;
+        while (head < end) {
+            LogEvent event = poll();
+            if (event == null)
+                //the position is claimed but its event isn't stored yet
+                Thread.onSpinWait();
+            else {
+                Logger.dispatch(event);
+                count++;
+            }
+        }
+        reportDropped();
+        if (count > 0)
+            Logger.flushSinks();
+    }
+
+    /**
+     * Tries to claim a position in the ring buffer and store the event in it.
+     *
+     * @param event the event to be stored.
+     * @return false if the ring buffer is full.
+     */
+    private boolean offer(LogEvent event) {
+        long position;
+        int slot;
+        while (true) {
+            position = tail.get();
+            slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+
+            //the slot is free for this position, so we try to claim it
+            if (difference == 0 && tail.compareAndSet(position, position + 1))
+                break;
+            //the slot still holds an event the writer thread has not taken yet, so the ring buffer is full
+            if (difference < 0)
+                return false;
+            //another producer claimed the position first, so we try again with the next one
+        }
+
+        //store the event and hand the slot to the writer thread
+        events[slot] = event;
+        sequences.lazySet(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * Takes the next event out of the ring buffer. Only called by the writer thread.
+     *
+     * @return the next event, or null if the ring buffer is empty.
+     */
+    private LogEvent poll() {
+        int slot = (int) head & mask;
+        if (sequences.get(slot) != head + 1)
+            return null;
+
+        LogEvent event = events[slot];
+        events[slot] = null;
+        //hand the slot back to the producers, for the position one lap later
+        sequences.lazySet(slot, head + events.length);
+        head++;
+        return event;
+    }
+
+    /**
+     * The loop of the writer thread: it takes the events out in batches and writes them until the writer is shut down.
+     */
+    private void writeLoop() {
+        while (true) {
+            boolean stopping = !running;
+            int count = 0;
+            LogEvent event;
+
+            //hand up to a batch of events to the sinks, and flush them once for the whole batch
+            while (count < batchSize && (event = poll()) != null) {
+                Logger.dispatch(event);
+                count++;
+            }
+            reportDropped();
+            if (count > 0)
+                Logger.flushSinks();
+
+            //stop once we were asked to and everything logged before has been written
+            if (stopping && count == 0)
+                break;
+            if (count == 0)
+                LockSupport.parkNanos(idleNanos);
+        }
+    }
+
+    /**
+     * Logs how many events were dropped since the last report, if there are any.
+     */
+    private void reportDropped() {
+        long total = dropped.sum();
+        if (total != reportedDropped) {
+            Logger.dispatch(new LogEvent(LogEvent.now(), Logger.class.getName(),
+                    "Dropped " + (total - reportedDropped) + " log events because the log queue was full", (byte) WinNT.EVENTLOG_WARNING_TYPE, false));
+            reportedDropped = total;
+        }
+    }
+}
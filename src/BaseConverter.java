@@ -0,0 +1,385 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The BaseConverter class converts integers between any two bases from 2 to 36.
+ *
+ * The digits are 0-9 followed by the letters A-Z (either case is accepted when reading), and a number can be
+ * preceded by a '-' sign. Numbers that fit in a long are converted with plain long arithmetic and a lookup table
+ * for the digits, and bigger numbers use BigInteger with a divide-and-conquer algorithm: the number is split
+ * around a power of the base into two halves which are converted on their own. Since BigInteger multiplies and
+ * divides big numbers in less than quadratic time, converting numbers with thousands of digits stays fast.
+ *
+ * Every method is static and thread safe. Invalid digits and bases make the methods throw a NumberFormatException,
+ * the same way Integer.parseInt does.
+ */
+public final class BaseConverter {
+
+    /**
+     * The smallest base supported.
+     */
+    public static final int minimumBase = 2;
+
+    /**
+     * The biggest base supported.
+     */
+    public static final int maximumBase = 36;
+
+    /**
+     * The character of every digit value, from 0 to 35.
+     */
+    private static final char[] digitCharacters = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    /**
+     * The value of every ASCII character as a digit, or -1 if it is not a digit in any base.
+     */
+    private static final byte[] digitValues = new byte[128];
+
+    /**
+     * For every base, the number of digits that always fit in a long: base^chunkDigits[base] <= Long.MAX_VALUE.
+     * Numbers with at most that many digits are converted without BigInteger, and the divide-and-conquer
+     * algorithms split the big numbers in blocks of that many digits.
+     */
+    private static final int[] chunkDigits = new int[maximumBase + 1];
+
+    /**
+     * For every base, the powers base^(chunkDigits[base] * 2^i) used to split the big numbers, created when first needed.
+     * An array is never changed once published, it only gets replaced by a longer copy.
+     */
+    private static final AtomicReferenceArray<BigInteger[]> splitPowers = new AtomicReferenceArray<>(maximumBase + 1);
+
+    /**
+     * The level of split from which a conversion with a budget checks its deadline before splitting: the halves then have
+     * at least 2^bigLevel blocks of digits, so the multiplication or division joining them is much longer than reading the clock.
+     */
+    private static final int bigLevel = 3;
+
+    static {
+        Arrays.fill(digitValues, (byte) -1);
+        for (int value = 0; value < digitCharacters.length; value++) {
+            digitValues[digitCharacters[value]] = (byte) value;
+            digitValues[Character.toLowerCase(digitCharacters[value])] = (byte) value;
+        }
+
+        for (int base = minimumBase; base <= maximumBase; base++) {
+            //multiply the power by the base as long as it can't overflow
+            int count = 0;
+            for (long power = 1; power <= Long.MAX_VALUE / base; power *= base)
+                count++;
+            chunkDigits[base] = count;
+            splitPowers.set(base, new BigInteger[]{BigInteger.valueOf(base).pow(count)});
+        }
+    }
+
+    private BaseConverter() {
+    }
+
+    /**
+     * Converts a number written in a base into another base.
+     *
+     * @param number     the digits of the number, optionally preceded by a '-' sign.
+     * @param base       the base the number is written in, from 2 to 36.
+     * @param targetBase the base to write the number in, from 2 to 36.
+     * @return the number written in the target base, with uppercase letters for the digits above 9.
+     * @throws NumberFormatException if a base is not supported or the number has no digits or an invalid one.
+     */
+    public static String convert(CharSequence number, int base, int targetBase) {
+        return convert(number, base, targetBase, null);
+    }
+
+    /**
+     * Converts a number written in a base into another base, within a budget: the length of the number is checked
+     * before starting, and every block of digits read or written spends an operation.
+     *
+     * @param number     the digits of the number, optionally preceded by a '-' sign.
+     * @param base       the base the number is written in, from 2 to 36.
+     * @param targetBase the base to write the number in, from 2 to 36.
+     * @param budget     the budget of the conversion, or null for none.
+     * @return the number written in the target base, with uppercase letters for the digits above 9.
+     * @throws NumberFormatException if a base is not supported or the number has no digits or an invalid one.
+     * @throws BudgetExceededException if the number is too long, or the conversion goes over the operations or the deadline of the budget.
+     */
+    public static String convert(CharSequence number, int base, int targetBase, Budget budget) {
+        checkBase(base);
+        checkBase(targetBase);
+        if (budget != null)
+            budget.checkInput(number.length());
+
+        //numbers short enough to fit in a long never touch BigInteger
+        int digits = number.length() - (number.length() > 0 && number.charAt(0) == '-' ? 1 : 0);
+        if (digits <= chunkDigits[base]) {
+            if (budget != null)
+                budget.spend(2);
+            return toString(parseLong(number, base), targetBase);
+        }
+        return toString(parseBigInteger(number, base, budget), targetBase, budget);
+    }
+
+    /**
+     * Converts many numbers written in the same base into another base.
+     *
+     * @param numbers    the numbers to convert.
+     * @param base       the base the numbers are written in, from 2 to 36.
+     * @param targetBase the base to write the numbers in, from 2 to 36.
+     * @return the converted numbers, in the same order.
+     * @throws NumberFormatException if a base is not supported or one of the numbers is invalid.
+     */
+    public static String[] convertAll(CharSequence[] numbers, int base, int targetBase) {
+        String[] converted = new String[numbers.length];
+        for (int i = 0; i < numbers.length; i++)
+            converted[i] = convert(numbers[i], base, targetBase);
+        return converted;
+    }
+
+    /**
+     * Writes many numbers in a base, one after the other, separated by the given character.
+     * The digits are all written in the same StringBuilder, so no String is created for the single numbers.
+     *
+     * @param values     the numbers to write.
+     * @param targetBase the base to write the numbers in, from 2 to 36.
+     * @param separator  the character written between two numbers.
+     * @param out        where the numbers are written.
+     * @return the StringBuilder given.
+     * @throws NumberFormatException if the base is not supported.
+     */
+    public static StringBuilder appendAll(long[] values, int targetBase, char separator, StringBuilder out) {
+        checkBase(targetBase);
+        char[] buffer = new char[65];
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                out.append(separator);
+            int start = writeDigits(values[i], targetBase, buffer);
+            out.append(buffer, start, buffer.length - start);
+        }
+        return out;
+    }
+
+    /**
+     * Writes a long in a base.
+     *
+     * @param value the number to write.
+     * @param base  the base to write it in, from 2 to 36.
+     * @return the digits of the number, preceded by a '-' if it is negative.
+     * @throws NumberFormatException if the base is not supported.
+     */
+    public static String toString(long value, int base) {
+        checkBase(base);
+        char[] buffer = new char[65];
+        int start = writeDigits(value, base, buffer);
+        return new String(buffer, start, buffer.length - start);
+    }
+
+    /**
+     * Writes a BigInteger in a base.
+     *
+     * @param value the number to write.
+     * @param base  the base to write it in, from 2 to 36.
+     * @return the digits of the number, preceded by a '-' if it is negative.
+     * @throws NumberFormatException if the base is not supported.
+     */
+    public static String toString(BigInteger value, int base) {
+        return toString(value, base, null);
+    }
+
+    private static String toString(BigInteger value, int base, Budget budget) {
+        checkBase(base);
+        if (value.bitLength() < 64) {
+            if (budget != null)
+                budget.spend(1);
+            return toString(value.longValue(), base);
+        }
+
+        StringBuilder digits = new StringBuilder();
+        if (value.signum() < 0) {
+            digits.append('-');
+            value = value.negate();
+        }
+        appendDigits(value, base, 0, digits, budget);
+        return digits.toString();
+    }
+
+    /**
+     * Reads a long written in a base.
+     *
+     * @param number the digits of the number, optionally preceded by a '-' sign.
+     * @param base   the base the number is written in, from 2 to 36.
+     * @return the number read.
+     * @throws NumberFormatException if the base is not supported, the number has no digits or an invalid one, or it doesn't fit in a long.
+     */
+    public static long parseLong(CharSequence number, int base) {
+        checkBase(base);
+        boolean negative = number.length() > 0 && number.charAt(0) == '-';
+        int from = negative ? 1 : 0;
+        if (from == number.length())
+            throw new NumberFormatException("No digits in \"" + number + "\"");
+
+        //the number is accumulated as a negative one, since Long.MIN_VALUE has no positive counterpart
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplicationLimit = limit / base;
+        long result = 0;
+        for (int i = from; i < number.length(); i++) {
+            int digit = digitValue(number, i, base);
+            if (result < multiplicationLimit || result * base < limit + digit)
+                throw new NumberFormatException("\"" + number + "\" doesn't fit in a long in base " + base);
+            result = result * base - digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Reads a number of any size written in a base.
+     *
+     * @param number the digits of the number, optionally preceded by a '-' sign.
+     * @param base   the base the number is written in, from 2 to 36.
+     * @return the number read.
+     * @throws NumberFormatException if the base is not supported or the number has no digits or an invalid one.
+     */
+    public static BigInteger parseBigInteger(CharSequence number, int base) {
+        return parseBigInteger(number, base, null);
+    }
+
+    private static BigInteger parseBigInteger(CharSequence number, int base, Budget budget) {
+        checkBase(base);
+        boolean negative = number.length() > 0 && number.charAt(0) == '-';
+        int from = negative ? 1 : 0;
+        if (from == number.length())
+            throw new NumberFormatException("No digits in \"" + number + "\"");
+
+        BigInteger value = parseDigits(number, from, number.length(), base, budget);
+        return negative ? value.negate() : value;
+    }
+
+    /**
+     * Reads the digits between two positions, splitting them in two halves around a block boundary
+     * until they fit in a long: the number is then high * base^(digits of low) + low.
+     * Every block spends an operation of the budget, and the deadline is also checked before the big multiplications.
+     */
+    private static BigInteger parseDigits(CharSequence number, int from, int to, int base, Budget budget) {
+        int length = to - from;
+        if (length <= chunkDigits[base]) {
+            if (budget != null)
+                budget.spend(1);
+            return BigInteger.valueOf(parseChunk(number, from, to, base));
+        }
+
+        //the low half is the biggest power of two of blocks that still leaves some digits to the high half
+        int level = 0;
+        while ((long) chunkDigits[base] << (level + 1) < length)
+            level++;
+        if (budget != null && level >= bigLevel)
+            budget.checkTime();
+        int split = to - (chunkDigits[base] << level);
+        BigInteger high = parseDigits(number, from, split, base, budget);
+        BigInteger low = parseDigits(number, split, to, base, budget);
+        return high.multiply(splitPower(base, level)).add(low);
+    }
+
+    /**
+     * Reads at most chunkDigits[base] digits, which always fit in a long.
+     */
+    private static long parseChunk(CharSequence number, int from, int to, int base) {
+        long result = 0;
+        for (int i = from; i < to; i++)
+            result = result * base + digitValue(number, i, base);
+        return result;
+    }
+
+    /**
+     * Writes the digits of a positive BigInteger, with leading zeros up to the given number of digits.
+     * The number is split into quotient and remainder of a power of the base, about half as long as the number,
+     * and the remainder is written with exactly as many digits as that power has zeros.
+     * Like in parseDigits, every block spends an operation of the budget.
+     */
+    private static void appendDigits(BigInteger value, int base, int padding, StringBuilder out, Budget budget) {
+        if (value.bitLength() < 64) {
+            if (budget != null)
+                budget.spend(1);
+            appendDigits(value.longValue(), base, padding, out);
+            return;
+        }
+
+        int level = 0;
+        while (splitPower(base, level + 1).bitLength() * 2L <= value.bitLength() + 1)
+            level++;
+        if (budget != null && level >= bigLevel)
+            budget.checkTime();
+        int lowDigits = chunkDigits[base] << level;
+        BigInteger[] parts = value.divideAndRemainder(splitPower(base, level));
+        appendDigits(parts[0], base, Math.max(padding - lowDigits, 0), out, budget);
+        appendDigits(parts[1], base, lowDigits, out, budget);
+    }
+
+    /**
+     * Writes the digits of a positive long, with leading zeros up to the given number of digits.
+     */
+    private static void appendDigits(long value, int base, int padding, StringBuilder out) {
+        char[] buffer = new char[64];
+        int start = writeDigits(value, base, buffer);
+        int digits = buffer.length - start;
+        //a padded zero is only its padding, so its own "0" is not counted as one of its digits
+        if (value == 0 && padding > 0)
+            digits = 0;
+        for (int i = digits; i < padding; i++)
+            out.append('0');
+        out.append(buffer, buffer.length - digits, digits);
+    }
+
+    /**
+     * Writes the digits of a long at the end of a buffer, which must hold at least 65 characters for negative numbers.
+     *
+     * @return the position of the first character written.
+     */
+    private static int writeDigits(long value, int base, char[] buffer) {
+        int position = buffer.length;
+        //working on the negative value handles Long.MIN_VALUE too
+        long remaining = value < 0 ? value : -value;
+        do {
+            buffer[--position] = digitCharacters[(int) -(remaining % base)];
+            remaining /= base;
+        } while (remaining != 0);
+        if (value < 0)
+            buffer[--position] = '-';
+        return position;
+    }
+
+    /**
+     * Returns base^(chunkDigits[base] * 2^level), squaring the biggest power known until the level is reached.
+     */
+    private static BigInteger splitPower(int base, int level) {
+        BigInteger[] powers = splitPowers.get(base);
+        if (level < powers.length)
+            return powers[level];
+
+        synchronized (splitPowers) {
+            powers = splitPowers.get(base);
+            if (level >= powers.length) {
+                int known = powers.length;
+                powers = Arrays.copyOf(powers, level + 1);
+                for (int i = known; i <= level; i++)
+                    powers[i] = powers[i - 1].multiply(powers[i - 1]);
+                splitPowers.set(base, powers);
+            }
+            return powers[level];
+        }
+    }
+
+    /**
+     * Returns the value of the digit at a position, checking it is valid in the base.
+     */
+    private static int digitValue(CharSequence number, int index, int base) {
+        char character = number.charAt(index);
+        int value = character < 128 ? digitValues[character] : -1;
+        if (value < 0 || value >= base)
+            throw new NumberFormatException("Invalid digit '" + character + "' for base " + base + " in \"" + number + "\"");
+        return value;
+    }
+
+    /**
+     * Checks a base is supported.
+     */
+    private static void checkBase(int base) {
+        if (base < minimumBase || base > maximumBase)
+            throw new NumberFormatException("The base must be between " + minimumBase + " and " + maximumBase + ", but was " + base);
+    }
+}
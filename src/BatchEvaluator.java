@@ -0,0 +1,158 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The BatchEvaluator class evaluates many expressions without a GUI, one expression per line.
+ *
+ * The input is read in chunks of lines. Every chunk is evaluated in parallel on a fork-join pool
+ * while the next chunk is being read, and the results are written in the same order as the input,
+ * one result per line. An expression that cannot be evaluated (ex.: a division by zero) produces
+ * an "Error: ..." line instead of stopping the batch.
+ */
+public class BatchEvaluator {
+
+    /**
+     * The number of lines read and evaluated together as one chunk.
+     * It keeps the memory used by a batch bounded no matter how many lines the input has.
+     */
+    private static final int chunkSize = 1 << 16;
+
+    /**
+     * The number of lines below which a part of a chunk is evaluated on a single thread
+     * instead of being split further between the threads of the pool.
+     */
+    private static final int splitThreshold = 1024;
+
+    /**
+     * The fork-join pool the expressions are evaluated on.
+     * Its parallelism decides how many expressions are evaluated at the same time.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a batch evaluator that evaluates expressions on the given number of threads.
+     *
+     * @param parallelism the number of threads used to evaluate expressions, at least 1.
+     */
+    public BatchEvaluator(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("The parallelism must be at least 1, but was " + parallelism);
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Evaluates every line of the input and writes the results to the output in the input order.
+     * The output is flushed but not closed once the input is exhausted.
+     *
+     * @param input  the reader the expressions are read from, one expression per line.
+     * @param output the writer the results are written to, one result per line.
+     * @return the number of expressions evaluated.
+     * @throws IOException if reading the input or writing the output fails.
+     */
+    public long run(BufferedReader input, Writer output) throws IOException {
+        long count = 0;
+        String[] lines = new String[chunkSize], nextLines = new String[chunkSize];
+        String[] results = new String[chunkSize];
+
+        int size = readChunk(input, lines);
+        while (size > 0) {
+            //start evaluating the current chunk and read the next one while the pool is busy
+            ForkJoinTask<Void> task = pool.submit(new EvaluateRange(lines, results, 0, size));
+            int nextSize = readChunk(input, nextLines);
+            task.join();
+
+            //write the results of the current chunk in the same order as their expressions
+            for (int i = 0; i < size; i++) {
+                output.write(results[i]);
+                output.write('\n');
+            }
+            count += size;
+
+            //the chunk we read in the background becomes the current one
+            String[] swap = lines;
+            lines = nextLines;
+            nextLines = swap;
+            size = nextSize;
+        }
+
+        output.flush();
+        return count;
+    }
+
+    /**
+     * Stops the threads of the fork-join pool. The batch evaluator cannot be used afterwards.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Evaluates a single expression and turns its result into the line written to the output.
+     * With the --budget option, every expression gets a budget with the limits of the settings (see {@link Budget#forHeadless()}),
+     * so a huge or hostile line gives an error instead of holding a thread of the batch or of the server.
+     *
+     * @param expression the expression to be evaluated.
+     * @return the result of the expression, or "Error: " followed by the reason it could not be evaluated.
+     */
+    static String evaluateLine(String expression) {
+        try {
+            return String.valueOf(Evaluator.evaluateExpression(expression, Budget.forHeadless()));
+        } catch (RuntimeException e) {
+            return "Error: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Reads up to a full chunk of lines from the input.
+     *
+     * @param input the reader the lines are read from.
+     * @param lines the array the lines are stored in.
+     * @return the number of lines read, 0 once the input is exhausted.
+     * @throws IOException if reading the input fails.
+     */
+    private static int readChunk(BufferedReader input, String[] lines) throws IOException {
+        int size = 0;
+        String line;
+        while (size < lines.length && (line = input.readLine()) != null)
+            lines[size++] = line;
+        return size;
+    }
+
+    /**
+     * A fork-join task that evaluates a range of lines from a chunk,
+     * splitting it in halves until the ranges are small enough to be evaluated directly.
+     */
+    private static class EvaluateRange extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String[] lines;
+        private final String[] results;
+        private final int from;
+        private final int to;
+
+        EvaluateRange(String[] lines, String[] results, int from, int to) {
+            this.lines = lines;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= splitThreshold) {
+                for (int i = from; i < to; i++)
+                    results[i] = evaluateLine(lines[i]);
+                return;
+            }
+
+            //split the range in two halves and evaluate them in parallel
+            int middle = (from + to) >>> 1;
+            invokeAll(new EvaluateRange(lines, results, from, middle), new EvaluateRange(lines, results, middle, to));
+        }
+    }
+}
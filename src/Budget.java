@@ -0,0 +1,155 @@
+import com.sun.jna.platform.win32.WinNT;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Budget class bounds the resources of the evaluations and conversions it is given to, so that a huge or hostile input
+ * can't hold a thread much longer than a normal one: it limits the length of the inputs, the number of operations
+ * and the time, and it can be cancelled from another thread.
+ *
+ * The calculations check their budget cooperatively: the length of the input before starting, the number of operations
+ * of an expression once it is parsed, and the deadline and the cancellation every few thousand operations
+ * (and before every operation on big numbers). A calculation that goes over its budget throws a
+ * {@link BudgetExceededException}, which is logged as a warning and counted by the {@link Metrics}.
+ *
+ * An operation is one operator of an expression, or one block of digits (as many as fit in a long) read or written by a
+ * conversion. The operations add up over the calculations the budget is given to, so a budget can also bound a
+ * whole request made of several calculations. The deadline is set when the budget is created, so the time
+ * a calculation waited in a queue counts too.
+ *
+ * A budget is meant for one calculation at a time, but {@link #cancel()} can be called from any thread.
+ */
+public final class Budget {
+
+    /**
+     * The number of operations between two checks of the deadline and of the cancellation.
+     */
+    static final int checkInterval = 4096;
+
+    private final int maxInputLength;
+    private final long maxOperations;
+
+    /**
+     * The deadline, as a System.nanoTime() value, and whether there is one.
+     */
+    private final long deadline;
+    private final boolean hasDeadline;
+
+    private volatile boolean cancelled;
+
+    //only used by the thread of the calculation
+    private long operations;
+    private long untilCheck = checkInterval;
+
+    /**
+     * Creates a budget.
+     *
+     * @param maxInputLength the greatest number of characters of an expression or of a number.
+     * @param maxOperations  the greatest number of operations of all the calculations of the budget.
+     * @param timeoutMillis  the time from now after which the calculations are stopped, or 0 or less for no deadline.
+     * @throws IllegalArgumentException if a limit is negative.
+     */
+    public Budget(int maxInputLength, long maxOperations, long timeoutMillis) {
+        if (maxInputLength < 0 || maxOperations < 0)
+            throw new IllegalArgumentException("The limits of a budget can't be negative: " + maxInputLength + " characters, " + maxOperations + " operations");
+        this.maxInputLength = maxInputLength;
+        this.maxOperations = maxOperations;
+        this.hasDeadline = timeoutMillis > 0;
+        this.deadline = hasDeadline ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+    }
+
+    /**
+     * Creates a budget with the limits of the settings: `Main.budgetMaxLength`, `Main.budgetMaxOperations` and `Main.budgetMillis`.
+     *
+     * @return a new budget, whose deadline starts now.
+     */
+    public static Budget fromSettings() {
+        return new Budget(Main.budgetMaxLength, Main.budgetMaxOperations, Main.budgetMillis);
+    }
+
+    /**
+     * Creates the budget of an expression of the batch, coordinator and server modes: a budget with the limits of the
+     * settings if they were asked for one (see `Main.headlessBudgets`), and no budget otherwise.
+     *
+     * @return a new budget, whose deadline starts now, or null.
+     */
+    public static Budget forHeadless() {
+        return Main.headlessBudgets ? fromSettings() : null;
+    }
+
+    /**
+     * Stops the calculations of the budget at their next check. It can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return whether the budget was cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the number of operations spent so far.
+     */
+    public long getOperations() {
+        return operations;
+    }
+
+    /**
+     * Checks the length of an input, and the cancellation, before a calculation starts. The deadline is also checked
+     * for the inputs longer than {@value #checkInterval} characters: the shorter ones take less time than reading the clock
+     * would add to them (about 50 ns on some virtual machines).
+     *
+     * @param length the number of characters of the input.
+     * @throws BudgetExceededException if the input is too long, the deadline has passed, or the budget was cancelled.
+     */
+    void checkInput(int length) {
+        if (length > maxInputLength)
+            throw exceeded(BudgetExceededException.Limit.INPUT_LENGTH, "The input has " + length + " characters, more than the " + maxInputLength + " allowed");
+        if (length > checkInterval)
+            checkTime();
+        else if (cancelled)
+            throw exceeded(BudgetExceededException.Limit.CANCELLED, "The calculation was cancelled");
+    }
+
+    /**
+     * Spends operations, checking the deadline once every {@value #checkInterval} operations.
+     *
+     * @param count the number of operations.
+     * @throws BudgetExceededException if the budget has no operations left, the deadline has passed, or the budget was cancelled.
+     */
+    void spend(long count) {
+        operations += count;
+        if (operations > maxOperations)
+            throw exceeded(BudgetExceededException.Limit.OPERATIONS, "The calculation needs more than the " + maxOperations + " operations allowed");
+        untilCheck -= count;
+        if (untilCheck <= 0) {
+            untilCheck = checkInterval;
+            checkTime();
+        }
+    }
+
+    /**
+     * Checks the deadline and the cancellation.
+     *
+     * @throws BudgetExceededException if the deadline has passed or the budget was cancelled.
+     */
+    void checkTime() {
+        if (cancelled)
+            throw exceeded(BudgetExceededException.Limit.CANCELLED, "The calculation was cancelled");
+        if (hasDeadline && System.nanoTime() - deadline > 0)
+            throw exceeded(BudgetExceededException.Limit.DEADLINE, "The calculation went past its deadline");
+    }
+
+    private static BudgetExceededException exceeded(BudgetExceededException.Limit limit, String message) {
+        if (Metrics.enabled)
+            Metrics.budgetsExceeded.increment();
+        //a cancellation is asked for, so it isn't worth a warning
+        if (limit != BudgetExceededException.Limit.CANCELLED)
+            Logger.log(() -> "Stopped a calculation over its budget: " + message, (byte) WinNT.EVENTLOG_WARNING_TYPE);
+        return new BudgetExceededException(limit, message);
+    }
+}
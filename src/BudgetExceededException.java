@@ -0,0 +1,52 @@
+/**
+ * The BudgetExceededException is thrown when an evaluation or a conversion is stopped because it went over its {@link Budget}.
+ *
+ * It isn't an ArithmeticException nor a NumberFormatException, so that the code handling invalid expressions
+ * doesn't mistake a stopped calculation for a wrong one.
+ */
+public class BudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The limits of a budget.
+     */
+    public enum Limit {
+        /**
+         * The input had more characters than allowed.
+         */
+        INPUT_LENGTH,
+        /**
+         * The calculation needed more operations than allowed.
+         */
+        OPERATIONS,
+        /**
+         * The calculation went past its deadline.
+         */
+        DEADLINE,
+        /**
+         * The budget was cancelled while the calculation was running.
+         */
+        CANCELLED
+    }
+
+    private final Limit limit;
+
+    /**
+     * Creates the exception.
+     *
+     * @param limit   the limit that was exceeded.
+     * @param message what was exceeded and by how much.
+     */
+    public BudgetExceededException(Limit limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+
+    /**
+     * @return the limit that was exceeded.
+     */
+    public Limit getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,295 @@
+import com.sun.jna.platform.win32.WinNT;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The ColumnFormula class calculates a {@link Formula} over whole columns of values at once,
+ * ex.: "x*3+y/2" over two long[] of 10 million rows, giving a column of 10 million results.
+ *
+ * Instead of calculating the formula row after row, every operation of the formula is applied to a block of rows
+ * before moving to the next operation, so each one is a tight loop over primitive arrays. When the JVM runs with
+ * the incubator Vector API (--add-modules jdk.incubator.vector), the multiplications, additions and subtractions
+ * use SIMD instructions (see {@link VectorColumnKernels}), and otherwise plain loops the JIT can still vectorize.
+ * The divisions by a number of the formula are turned into multiplications and shifts (see {@link ConstantDivisor}).
+ *
+ * Unlike {@link Formula#evaluate(long...)}, the arithmetic wraps around on overflow like the long operators of Java,
+ * since checking every row for overflow would defeat the vectorization. A division by zero still throws an ArithmeticException.
+ * Column formulas are immutable and can be calculated by many threads at once.
+ */
+public final class ColumnFormula {
+
+    /**
+     * The number of rows every operation is applied to before moving to the next one.
+     * A block of every column in use stays in the first level of the processor cache between two operations
+     * (512 rows are 4 KB per column, and bigger blocks measured slower).
+     */
+    private static final int blockRows = 512;
+
+    /**
+     * The loops the operations run, with the Vector API when it is available.
+     */
+    private static final ScalarColumnKernels kernels = loadKernels();
+
+    /**
+     * The formula being calculated.
+     */
+    private final Formula formula;
+
+    /**
+     * The terms of the formula that use at least one variable (or that can't be calculated in advance),
+     * with the '-' signs of their factors folded into their subtract flag.
+     */
+    private final Formula.Term[] terms;
+
+    /**
+     * The divisions by a number of every term, prepared in advance, at the positions of the factors in the term
+     * (the other positions are null, and so are the divisions by zero, which only throw once there are rows to calculate).
+     */
+    private final ConstantDivisor[][] divisors;
+
+    /**
+     * The sum of the terms made only of numbers, calculated once in advance.
+     */
+    private final long constant;
+
+    private ColumnFormula(Formula formula) {
+        this.formula = formula;
+
+        List<Formula.Term> variableTerms = new ArrayList<>();
+        long constantSum = 0;
+        for (Formula.Term term : formula.getTerms()) {
+            //a '-' on a factor just flips the sign of the whole term: -(a*b) = (-a)*b and -(a/b) = (-a)/b = a/(-b)
+            boolean subtract = term.subtract;
+            for (Formula.Factor factor : term.factors)
+                subtract ^= factor.negate;
+            Formula.Term unsigned = new Formula.Term(subtract);
+            boolean onlyNumbers = true;
+            for (Formula.Factor factor : term.factors) {
+                unsigned.factors.add(new Formula.Factor(factor.operation, false, factor.variable, factor.constant));
+                onlyNumbers &= factor.variable < 0 && !(factor.operation == '/' && factor.constant == 0);
+            }
+
+            if (onlyNumbers) {
+                long value = unsigned.factors.get(0).constant;
+                for (int i = 1; i < unsigned.factors.size(); i++)
+                    value = unsigned.factors.get(i).operation == '*' ? value * unsigned.factors.get(i).constant : value / unsigned.factors.get(i).constant;
+                constantSum += subtract ? -value : value;
+            } else
+                variableTerms.add(unsigned);
+        }
+        this.terms = variableTerms.toArray(new Formula.Term[0]);
+        this.constant = constantSum;
+
+        divisors = new ConstantDivisor[terms.length][];
+        for (int t = 0; t < terms.length; t++) {
+            divisors[t] = new ConstantDivisor[terms[t].factors.size()];
+            for (int i = 1; i < divisors[t].length; i++) {
+                Formula.Factor factor = terms[t].factors.get(i);
+                if (factor.operation == '/' && factor.variable < 0 && factor.constant != 0)
+                    divisors[t][i] = new ConstantDivisor(factor.constant);
+            }
+        }
+    }
+
+    /**
+     * Parses a formula to be calculated over columns.
+     *
+     * @param text the formula, ex.: "x*3+y/2".
+     * @return the compiled formula.
+     * @throws IllegalArgumentException if the text is not a valid formula, or a number doesn't fit in a long.
+     */
+    public static ColumnFormula compile(String text) {
+        return new ColumnFormula(Formula.compile(text));
+    }
+
+    /**
+     * Creates a column formula calculating an already compiled formula.
+     *
+     * @param formula the formula to calculate.
+     * @return the column formula.
+     */
+    public static ColumnFormula of(Formula formula) {
+        return new ColumnFormula(formula);
+    }
+
+    /**
+     * Calculates the formula for every row of the columns.
+     *
+     * @param columns the values of the variables, one column per variable in the order of {@link #getVariables()}, all of the same length.
+     * @return the column of the results.
+     * @throws IllegalArgumentException if the number of columns is not the number of variables, or they are not of the same length.
+     * @throws ArithmeticException      if the formula divides by zero.
+     */
+    public long[] evaluate(long[]... columns) {
+        int rows = columns.length > 0 ? columns[0].length : 0;
+        for (long[] column : columns)
+            if (column.length != rows)
+                throw new IllegalArgumentException("The columns are not of the same length: " + column.length + " rows instead of " + rows);
+        long[] result = new long[rows];
+        evaluate(columns, result, 0, rows);
+        return result;
+    }
+
+    /**
+     * Calculates the formula for the rows from `from` to `to` of the columns, storing the results at the same rows of `result`.
+     *
+     * @param columns the values of the variables, one column per variable in the order of {@link #getVariables()}.
+     * @param result  the column the results are stored in.
+     * @param from    the first row calculated.
+     * @param to      the row after the last one calculated.
+     * @throws IllegalArgumentException  if the number of columns is not the number of variables.
+     * @throws IndexOutOfBoundsException if a column or the result doesn't have the rows.
+     * @throws ArithmeticException       if the formula divides by zero.
+     */
+    public void evaluate(long[][] columns, long[] result, int from, int to) {
+        checkColumns(columns.length);
+        for (long[] column : columns)
+            Objects.checkFromToIndex(from, to, column.length);
+        Objects.checkFromToIndex(from, to, result.length);
+
+        long[] block = new long[blockRows];
+        for (int start = from; start < to; start += blockRows)
+            evaluateBlock(columns, start, result, start, Math.min(blockRows, to - start), block);
+
+        Logger.log(() -> "Evaluated formula " + formula + " over " + (to - from) + " rows", (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+    }
+
+    /**
+     * Calculates the formula over columns held in buffers, which can be off-heap (ex.: direct or memory-mapped buffers).
+     * The rows are read from the current position of every column, and as many rows as `result` has remaining are calculated
+     * and stored from its position. The positions of the buffers are not changed.
+     *
+     * Blocks of rows are copied into arrays, calculated with the same loops as {@link #evaluate(long[][], long[], int, int)},
+     * and copied back, so the copies only add a pass over memory that stays in the cache.
+     *
+     * @param columns the values of the variables, one column per variable in the order of {@link #getVariables()}.
+     * @param result  the column the results are stored in.
+     * @throws IllegalArgumentException  if the number of columns is not the number of variables.
+     * @throws IndexOutOfBoundsException if a column has fewer rows remaining than `result`.
+     * @throws ArithmeticException       if the formula divides by zero.
+     */
+    public void evaluate(LongBuffer[] columns, LongBuffer result) {
+        checkColumns(columns.length);
+        int rows = result.remaining();
+        for (LongBuffer column : columns)
+            if (column.remaining() < rows)
+                throw new IndexOutOfBoundsException("A column has " + column.remaining() + " rows remaining but " + rows + " are needed");
+
+        long[][] blocks = new long[columns.length][blockRows];
+        long[] results = new long[blockRows], block = new long[blockRows];
+        for (int start = 0; start < rows; start += blockRows) {
+            int length = Math.min(blockRows, rows - start);
+            for (int i = 0; i < columns.length; i++)
+                columns[i].get(columns[i].position() + start, blocks[i], 0, length);
+            evaluateBlock(blocks, 0, results, 0, length, block);
+            result.put(result.position() + start, results, 0, length);
+        }
+
+        Logger.log(() -> "Evaluated formula " + formula + " over " + rows + " rows", (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+    }
+
+    /**
+     * Calculates one block of rows: the result starts as the constant part of the formula,
+     * and every term is built in `block` and then added to the result (a term of a single variable is added straight from its column).
+     */
+    private void evaluateBlock(long[][] columns, int row, long[] result, int resultRow, int length, long[] block) {
+        Arrays.fill(result, resultRow, resultRow + length, constant);
+        for (int t = 0; t < terms.length; t++) {
+            Formula.Term term = terms[t];
+            Formula.Factor first = term.factors.get(0);
+            if (term.factors.size() == 1) {
+                if (term.subtract)
+                    kernels.subtract(result, resultRow, columns[first.variable], row, length);
+                else
+                    kernels.add(result, resultRow, columns[first.variable], row, length);
+                continue;
+            }
+
+            //the first operation reads the column of the first factor straight away, and the next ones read the block it wrote
+            long[] left = block;
+            int leftRow = 0;
+            if (first.variable >= 0) {
+                left = columns[first.variable];
+                leftRow = row;
+            } else
+                Arrays.fill(block, 0, length, first.constant);
+            for (int i = 1; i < term.factors.size(); i++) {
+                Formula.Factor factor = term.factors.get(i);
+                if (factor.operation == '*' && factor.variable >= 0)
+                    kernels.multiply(block, left, leftRow, columns[factor.variable], row, length);
+                else if (factor.operation == '*')
+                    kernels.multiply(block, left, leftRow, factor.constant, length);
+                else if (factor.variable >= 0)
+                    kernels.divide(block, left, leftRow, columns[factor.variable], row, length);
+                else if (divisors[t][i] != null)
+                    kernels.divide(block, left, leftRow, divisors[t][i], length);
+                else
+                    throw new ArithmeticException("/ by zero");
+                left = block;
+                leftRow = 0;
+            }
+
+            if (term.subtract)
+                kernels.subtract(result, resultRow, block, 0, length);
+            else
+                kernels.add(result, resultRow, block, 0, length);
+        }
+    }
+
+    /**
+     * Returns the names of the variables of the formula, in the order their columns are given.
+     *
+     * @return a copy of the names of the variables.
+     */
+    public String[] getVariables() {
+        return formula.getVariables();
+    }
+
+    /**
+     * Returns the formula calculated by this column formula.
+     *
+     * @return the formula.
+     */
+    public Formula getFormula() {
+        return formula;
+    }
+
+    /**
+     * Tells whether the column formulas use SIMD instructions through the Vector API in this JVM.
+     *
+     * @return true if the Vector API is used, false if the plain loops are.
+     */
+    public static boolean isVectorized() {
+        return kernels.isVectorized();
+    }
+
+    @Override
+    public String toString() {
+        return formula.toString();
+    }
+
+    private void checkColumns(int count) {
+        if (count != formula.getVariables().length)
+            throw new IllegalArgumentException("The formula " + formula + " has " + formula.getVariables().length + " variables, but " + count + " columns were given");
+    }
+
+    /**
+     * Picks the Vector API loops if the jdk.incubator.vector module is in the JVM and the processor has wide enough registers,
+     * and the plain loops otherwise. Setting the system property calculator.vectorColumns to false forces the plain loops.
+     */
+    private static ScalarColumnKernels loadKernels() {
+        if (!Boolean.parseBoolean(System.getProperty("calculator.vectorColumns", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return new ScalarColumnKernels();
+        try {
+            return new VectorColumnKernels();
+        } catch (LinkageError | UnsupportedOperationException e) {
+            Logger.log("Could not use the Vector API for the column formulas: " + e, (byte) WinNT.EVENTLOG_WARNING_TYPE);
+            return new ScalarColumnKernels();
+        }
+    }
+}
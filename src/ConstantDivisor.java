@@ -0,0 +1,105 @@
+/**
+ * The ConstantDivisor class divides longs by a number known in advance without a division instruction,
+ * which takes tens of cycles where a multiplication or a shift takes one.
+ *
+ * A power of two (or its negative) divides with a shift, rounded toward zero. Any other number divides by multiplying
+ * with a "magic" number and keeping the high half of the 128-bit product (Hacker's Delight, chapter 10), which is
+ * what the JIT does itself when the divisor is a constant of the code. The results are the same as the '/' of Java.
+ */
+final class ConstantDivisor {
+
+    /**
+     * The number divided by.
+     */
+    final long divisor;
+
+    /**
+     * Whether the absolute value of the divisor is a power of two (Long.MIN_VALUE included).
+     */
+    final boolean powerOfTwo;
+
+    /**
+     * The magic number multiplied with, when the divisor is not a power of two.
+     */
+    final long magic;
+
+    /**
+     * How much the product (or the number, for a power of two) is shifted to the right.
+     */
+    final int shift;
+
+    /**
+     * -1, 0 or 1 times the number, added to the high half of the product to correct the sign of the magic number.
+     */
+    final int correction;
+
+    /**
+     * Prepares the division by a number.
+     *
+     * @param divisor the number divided by.
+     * @throws ArithmeticException if the divisor is 0.
+     */
+    ConstantDivisor(long divisor) {
+        if (divisor == 0)
+            throw new ArithmeticException("/ by zero");
+        this.divisor = divisor;
+
+        //Math.abs(Long.MIN_VALUE) is still negative, but its bit count is right
+        long absolute = Math.abs(divisor);
+        if (Long.bitCount(absolute) == 1) {
+            powerOfTwo = true;
+            shift = Long.numberOfTrailingZeros(absolute);
+            magic = 0;
+            correction = 0;
+            return;
+        }
+
+        //the magic number M and shift s are the smallest ones for which floor(M * n / 2^(64 + s)) is n / d for every long n
+        final long twoPower63 = Long.MIN_VALUE;
+        long t = twoPower63 + (divisor >>> 63);
+        long absoluteLimit = t - 1 - Long.remainderUnsigned(t, absolute);
+        int p = 63;
+        long q1 = Long.divideUnsigned(twoPower63, absoluteLimit), r1 = twoPower63 - q1 * absoluteLimit;
+        long q2 = Long.divideUnsigned(twoPower63, absolute), r2 = twoPower63 - q2 * absolute;
+        long delta;
+        do {
+            p++;
+            q1 *= 2;
+            r1 *= 2;
+            if (Long.compareUnsigned(r1, absoluteLimit) >= 0) {
+                q1++;
+                r1 -= absoluteLimit;
+            }
+            q2 *= 2;
+            r2 *= 2;
+            if (Long.compareUnsigned(r2, absolute) >= 0) {
+                q2++;
+                r2 -= absolute;
+            }
+            delta = absolute - r2;
+        } while (Long.compareUnsigned(q1, delta) < 0 || (q1 == delta && r1 == 0));
+
+        long m = q2 + 1;
+        powerOfTwo = false;
+        magic = divisor < 0 ? -m : m;
+        shift = p - 64;
+        correction = divisor > 0 && magic < 0 ? 1 : divisor < 0 && magic > 0 ? -1 : 0;
+    }
+
+    /**
+     * Divides a number by the divisor, rounding toward zero.
+     *
+     * @param number the number divided.
+     * @return number / divisor.
+     */
+    long divide(long number) {
+        if (powerOfTwo) {
+            //adding divisor - 1 to a negative number makes the shift round toward zero instead of toward negative infinity
+            long quotient = shift == 0 ? number : (number + ((number >> 63) >>> (64 - shift))) >> shift;
+            return divisor < 0 ? -quotient : quotient;
+        }
+        long quotient = (Math.multiplyHigh(magic, number) + correction * number) >> shift;
+        //a negative quotient is one too small, since the shift rounded it down
+        return quotient + (quotient >>> 63);
+    }
+}
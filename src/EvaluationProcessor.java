@@ -0,0 +1,386 @@
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The EvaluationProcessor class evaluates a stream of expressions as a {@link Flow.Processor}: it subscribes to
+ * a publisher of expressions and publishes an {@link EvaluationResult} for every one of them to its subscriber.
+ *
+ * It never holds more than a fixed number of expressions at once (received but not yet published, 2 × parallelism × batch size):
+ * it asks its publisher for that many expressions at first, and then only for as many as its subscriber has taken,
+ * so a publisher faster than the evaluation, or a subscriber slower than it, slows the publisher down
+ * instead of filling the memory or losing expressions.
+ *
+ * The expressions are evaluated by up to `parallelism` tasks of an executor, each taking the expressions waiting
+ * in batches of up to `batchSize`, so that a busy processor doesn't start a task for every expression. The publisher
+ * is also asked for more expressions a batch at a time, rather than one expression at a time. The results are published
+ * in the order of the expressions, or as soon as they are ready when the order doesn't matter.
+ *
+ * An expression that can't be evaluated (ex.: a division by zero) gives a failed result, like a "Error: ..." line
+ * of the batch mode, and doesn't stop the stream. An error of the publisher is passed on to the subscriber
+ * after the results of the expressions received before it.
+ *
+ * A processor has a single subscriber: any other one is refused with an IllegalStateException.
+ */
+public class EvaluationProcessor implements Flow.Processor<String, EvaluationResult> {
+
+    private final Executor executor;
+    private final int parallelism;
+    private final int batchSize;
+    private final boolean ordered;
+
+    /**
+     * The greatest number of expressions held at once, received but not yet published.
+     */
+    private final int capacity;
+
+    /**
+     * The expressions received and not yet taken by a task.
+     */
+    private final ConcurrentLinkedQueue<Pending> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The results not yet published, by sequence modulo the capacity when they are published in order,
+     * or in the order they were evaluated in otherwise.
+     */
+    private final AtomicReferenceArray<EvaluationResult> reordered;
+    private final ConcurrentLinkedQueue<EvaluationResult> completed;
+
+    /**
+     * The number of tasks evaluating expressions.
+     */
+    private final AtomicInteger workers = new AtomicInteger();
+
+    private volatile Flow.Subscription upstream;
+
+    /**
+     * The number of expressions received, only written by the publisher's thread.
+     */
+    private volatile long received;
+
+    /**
+     * Whether the publisher completed or failed, and its error if it failed.
+     */
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private volatile Flow.Subscriber<? super EvaluationResult> downstream;
+
+    /**
+     * The number of results the subscriber asked for and didn't get yet.
+     */
+    private final AtomicLong demand = new AtomicLong();
+
+    /**
+     * An error that ends the stream at once, without the results still expected (ex.: an invalid request of the subscriber).
+     */
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+
+    /**
+     * Makes a single thread publish the results at a time: the thread that increments it from 0 publishes,
+     * and the others only make it publish again.
+     */
+    private final AtomicInteger drains = new AtomicInteger();
+
+    //only used by the thread publishing the results
+    private volatile long emitted;
+    private long freed;
+    private boolean terminated;
+
+    /**
+     * Creates a processor evaluating on the common ForkJoinPool.
+     *
+     * @param parallelism the greatest number of expressions evaluated at the same time, at least 1.
+     * @param batchSize   the greatest number of expressions a task takes at once, at least 1.
+     * @param ordered     whether the results are published in the order of the expressions.
+     * @throws IllegalArgumentException if the parallelism or the batch size is smaller than 1.
+     */
+    public EvaluationProcessor(int parallelism, int batchSize, boolean ordered) {
+        this(ForkJoinPool.commonPool(), parallelism, batchSize, ordered);
+    }
+
+    /**
+     * Creates a processor.
+     *
+     * @param executor    the executor running the tasks evaluating the expressions.
+     * @param parallelism the greatest number of expressions evaluated at the same time, at least 1.
+     * @param batchSize   the greatest number of expressions a task takes at once, at least 1.
+     * @param ordered     whether the results are published in the order of the expressions.
+     * @throws IllegalArgumentException if the parallelism or the batch size is smaller than 1, or if they hold too many expressions.
+     */
+    public EvaluationProcessor(Executor executor, int parallelism, int batchSize, boolean ordered) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("The parallelism must be at least 1, but was " + parallelism);
+        if (batchSize < 1)
+            throw new IllegalArgumentException("The batch size must be at least 1, but was " + batchSize);
+        if ((long) parallelism * batchSize > 1 << 24)
+            throw new IllegalArgumentException("The parallelism times the batch size must be at most " + (1 << 24));
+        this.executor = Objects.requireNonNull(executor);
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.ordered = ordered;
+        this.capacity = 2 * parallelism * batchSize;
+        this.reordered = ordered ? new AtomicReferenceArray<>(capacity) : null;
+        this.completed = ordered ? null : new ConcurrentLinkedQueue<>();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super EvaluationResult> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("An EvaluationProcessor has a single subscriber"));
+            return;
+        }
+
+        //the results are only published once onSubscribe has returned
+        subscriber.onSubscribe(new Downstream());
+        downstream = subscriber;
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null || cancelled) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        subscription.request(capacity);
+    }
+
+    @Override
+    public void onNext(String expression) {
+        Objects.requireNonNull(expression);
+        if (cancelled || failure != null)
+            return;
+        long sequence = received;
+        if (sequence - emitted >= capacity) {
+            fail(new IllegalStateException("The publisher sent more expressions than were requested"));
+            return;
+        }
+        pending.offer(new Pending(sequence, expression));
+        received = sequence + 1;
+        if (claimWorker())
+            startWorker();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        upstreamError = Objects.requireNonNull(throwable);
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * Counts one more task if there are less than `parallelism`.
+     *
+     * @return whether a task can be started.
+     */
+    private boolean claimWorker() {
+        int running;
+        while ((running = workers.get()) < parallelism)
+            if (workers.compareAndSet(running, running + 1))
+                return true;
+        return false;
+    }
+
+    private void startWorker() {
+        try {
+            executor.execute(this::work);
+        } catch (RejectedExecutionException e) {
+            workers.decrementAndGet();
+            fail(e);
+        }
+    }
+
+    /**
+     * Evaluates the expressions waiting, a batch at a time, until there are none left.
+     */
+    private void work() {
+        Pending[] batch = new Pending[batchSize];
+        while (true) {
+            int size = 0;
+            Pending next;
+            while (size < batchSize && (next = pending.poll()) != null)
+                batch[size++] = next;
+
+            if (size == 0) {
+                workers.decrementAndGet();
+                //an expression received after the queue was found empty might not have started a task, since this one was still counted
+                if (pending.isEmpty() || !claimWorker())
+                    return;
+                continue;
+            }
+
+            for (int i = 0; i < size; i++) {
+                EvaluationResult result = evaluate(batch[i]);
+                batch[i] = null;
+                if (ordered)
+                    reordered.set((int) (result.sequence % capacity), result);
+                else
+                    completed.offer(result);
+            }
+            //the results of a whole batch are published together
+            drain();
+        }
+    }
+
+    private static EvaluationResult evaluate(Pending expression) {
+        try {
+            return new EvaluationResult(expression.sequence, expression.text, Evaluator.evaluateExpression(expression.text), null);
+        } catch (RuntimeException e) {
+            return new EvaluationResult(expression.sequence, expression.text, 0, e.getMessage());
+        }
+    }
+
+    /**
+     * Publishes the results ready, as many as the subscriber asked for, and ends the stream once every result was published.
+     */
+    private void drain() {
+        if (drains.getAndIncrement() != 0)
+            return;
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super EvaluationResult> subscriber = downstream;
+            if (subscriber != null && !terminated && !cancelled) {
+                Throwable error = failure;
+                if (error != null) {
+                    terminated = true;
+                    subscriber.onError(error);
+                } else {
+                    long requested = demand.get(), sent = 0;
+                    while (sent != requested && !cancelled) {
+                        EvaluationResult result = nextResult(emitted + sent);
+                        if (result == null)
+                            break;
+                        subscriber.onNext(result);
+                        sent++;
+                    }
+                    if (sent > 0) {
+                        if (requested != Long.MAX_VALUE)
+                            demand.addAndGet(-sent);
+                        emitted += sent;
+                        requestMore(sent);
+                    }
+
+                    //upstreamDone is read before received, which is final once the publisher is done
+                    if (!cancelled && upstreamDone && emitted == received) {
+                        terminated = true;
+                        if (upstreamError != null)
+                            subscriber.onError(upstreamError);
+                        else
+                            subscriber.onComplete();
+                    }
+                }
+            }
+            missed = drains.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Takes the next result to publish.
+     *
+     * @param sequence the sequence of the next expression in order.
+     * @return the result, or null if it isn't ready.
+     */
+    private EvaluationResult nextResult(long sequence) {
+        if (!ordered)
+            return completed.poll();
+        int slot = (int) (sequence % capacity);
+        EvaluationResult result = reordered.get(slot);
+        if (result != null)
+            reordered.set(slot, null);
+        return result;
+    }
+
+    /**
+     * Asks the publisher for as many expressions as were published, once they make a whole batch.
+     */
+    private void requestMore(long published) {
+        freed += published;
+        if (freed >= batchSize && !upstreamDone) {
+            upstream.request(freed);
+            freed = 0;
+        }
+    }
+
+    /**
+     * Ends the stream at once with an error, and stops the publisher.
+     */
+    private void fail(Throwable error) {
+        failure = error;
+        Flow.Subscription subscription = upstream;
+        if (subscription != null)
+            subscription.cancel();
+        pending.clear();
+        drain();
+    }
+
+    /**
+     * An expression received, with its position among the expressions received.
+     */
+    private static final class Pending {
+        private final long sequence;
+        private final String text;
+
+        Pending(long sequence, String text) {
+            this.sequence = sequence;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The subscription of the subscriber.
+     */
+    private final class Downstream implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("The number of results requested must be positive, but was " + n));
+                return;
+            }
+            long current, next;
+            do {
+                current = demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Flow.Subscription subscription = upstream;
+            if (subscription != null)
+                subscription.cancel();
+            pending.clear();
+            if (completed != null)
+                completed.clear();
+        }
+    }
+}
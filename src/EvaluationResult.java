@@ -0,0 +1,84 @@
+/**
+ * The EvaluationResult class holds the outcome of evaluating one expression with an {@link EvaluationProcessor}:
+ * either its result, or the reason it could not be evaluated (ex.: a division by zero).
+ */
+public class EvaluationResult {
+
+    /**
+     * The position of the expression among those the processor received, 0 for the first one.
+     */
+    final long sequence;
+
+    /**
+     * The expression that was evaluated.
+     */
+    final String expression;
+
+    /**
+     * The result of the expression, 0 if it failed.
+     */
+    final int value;
+
+    /**
+     * The reason the expression could not be evaluated, or null if it was.
+     */
+    final String error;
+
+    /**
+     * Creates an evaluation result.
+     *
+     * @param sequence   the position of the expression among those the processor received.
+     * @param expression the expression that was evaluated.
+     * @param value      the result of the expression, 0 if it failed.
+     * @param error      the reason the expression could not be evaluated, or null if it was.
+     */
+    EvaluationResult(long sequence, String expression, int value, String error) {
+        this.sequence = sequence;
+        this.expression = expression;
+        this.value = value;
+        this.error = error;
+    }
+
+    /**
+     * @return the position of the expression among those the processor received, 0 for the first one.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the expression that was evaluated.
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return the result of the expression, 0 if it failed.
+     */
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * @return the reason the expression could not be evaluated, or null if it was.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return whether the expression was evaluated.
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return the result as the batch mode writes it: the value, or "Error: " followed by the reason.
+     */
+    @Override
+    public String toString() {
+        return error == null ? String.valueOf(value) : "Error: " + error;
+    }
+}
@@ -0,0 +1,222 @@
+import com.sun.jna.platform.win32.WinNT;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The EvaluationServer class lets other processes of the machine evaluate expressions,
+ * over a TCP port of the loopback interface or a Unix domain socket.
+ *
+ * The protocol is made of lines: a client sends one expression per line, and gets back one line per expression,
+ * in the same order, with its result or "Error: " followed by the reason it could not be evaluated
+ * (the same lines as the batch mode, see {@link BatchEvaluator#evaluateLine(String)}).
+ * A client doesn't have to wait for a result before sending the next expression: every line that has arrived
+ * is evaluated, and all of their results are written back together before reading again, so a client pipelining
+ * many expressions gets them back in few writes.
+ *
+ * Every connection is served by its own virtual thread doing blocking reads and writes,
+ * so thousands of clients only cost a few carrier threads.
+ */
+public final class EvaluationServer implements Closeable {
+
+    /**
+     * The size of the buffers a connection starts with, for both the expressions and the results.
+     */
+    private static final int bufferSize = 1 << 14;
+
+    /**
+     * The longest line accepted. A client sending a longer line gets an error and is disconnected.
+     */
+    private static final int maxLineLength = 1 << 20;
+
+    /**
+     * The socket the clients connect to.
+     */
+    private final ServerSocketChannel server;
+
+    /**
+     * The address the server is bound to, with the actual port if port 0 was asked for.
+     */
+    private final SocketAddress address;
+
+    /**
+     * The connections being served, closed together with the server.
+     */
+    private final Set<SocketChannel> clients = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates the virtual threads serving the connections.
+     */
+    private final ThreadFactory clientThreads = Thread.ofVirtual().name("Evaluation client ", 1).factory();
+
+    private EvaluationServer(ServerSocketChannel server) throws IOException {
+        this.server = server;
+        this.address = server.getLocalAddress();
+    }
+
+    /**
+     * Opens a server on a TCP port of the loopback interface, so that only processes of this machine can connect.
+     *
+     * @param port the port to listen on, or 0 for any free port (see {@link #getAddress()}).
+     * @return the server, which accepts connections once {@link #serve()} is called.
+     * @throws IOException if the port can't be listened on.
+     */
+    public static EvaluationServer openTcp(int port) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.INET);
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return new EvaluationServer(server);
+    }
+
+    /**
+     * Opens a server on a Unix domain socket. The socket file is deleted when the server is closed.
+     *
+     * @param path the path of the socket file, which must not exist.
+     * @return the server, which accepts connections once {@link #serve()} is called.
+     * @throws IOException if the socket can't be created.
+     */
+    public static EvaluationServer openUnix(Path path) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(path));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return new EvaluationServer(server);
+    }
+
+    /**
+     * Returns the address the clients connect to.
+     *
+     * @return an InetSocketAddress for a TCP server, or a UnixDomainSocketAddress.
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Accepts connections and serves each of them on a new virtual thread, until the server is closed.
+     *
+     * @throws IOException if accepting a connection fails for another reason than the server being closed.
+     */
+    public void serve() throws IOException {
+        Logger.log("Evaluation server listening on " + address, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+        while (true) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (ClosedChannelException e) {
+                //the server was closed
+                return;
+            }
+            clients.add(client);
+            clientThreads.newThread(() -> handle(client)).start();
+        }
+    }
+
+    /**
+     * Serves one connection until the client closes it.
+     */
+    private void handle(SocketChannel client) {
+        try (client) {
+            ByteBuffer input = ByteBuffer.allocate(bufferSize);
+            ByteBuffer output = ByteBuffer.allocate(bufferSize);
+            //the bytes of the incomplete line that were already searched for its end
+            int scanned = 0;
+            while (client.read(input) >= 0) {
+                //evaluate every complete line received, keeping the results to write them together
+                byte[] bytes = input.array();
+                int lineStart = 0;
+                for (int i = scanned; i < input.position(); i++) {
+                    if (bytes[i] != '\n')
+                        continue;
+                    int lineEnd = i > lineStart && bytes[i - 1] == '\r' ? i - 1 : i;
+                    String result = BatchEvaluator.evaluateLine(new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8));
+                    output = append(client, output, result);
+                    lineStart = i + 1;
+                }
+
+                //keep the incomplete line for the next read, in a bigger buffer if it already fills this one
+                input.flip().position(lineStart);
+                input.compact();
+                scanned = input.position();
+                if (!input.hasRemaining()) {
+                    if (input.capacity() >= maxLineLength) {
+                        output = append(client, output, "Error: The line is longer than " + maxLineLength + " bytes");
+                        write(client, output);
+                        return;
+                    }
+                    input = ByteBuffer.allocate(input.capacity() * 2).put(input.flip());
+                }
+
+                write(client, output);
+            }
+        } catch (IOException e) {
+            //the client went away, nothing to answer
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    /**
+     * Adds a result line to the output, writing the output to the client first if it is full.
+     *
+     * @return the output buffer, which is a bigger one if the result is longer than the buffer.
+     */
+    private static ByteBuffer append(SocketChannel client, ByteBuffer output, String result) throws IOException {
+        byte[] line = result.getBytes(StandardCharsets.UTF_8);
+        if (output.remaining() < line.length + 1) {
+            write(client, output);
+            if (output.capacity() < line.length + 1)
+                output = ByteBuffer.allocate(line.length + 1);
+        }
+        return output.put(line).put((byte) '\n');
+    }
+
+    /**
+     * Writes everything in the output to the client and clears it.
+     */
+    private static void write(SocketChannel client, ByteBuffer output) throws IOException {
+        output.flip();
+        while (output.hasRemaining())
+            client.write(output);
+        output.clear();
+    }
+
+    /**
+     * Stops accepting connections and closes the ones being served. A Unix domain socket file is deleted.
+     *
+     * @throws IOException if closing the server socket fails.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!server.isOpen())
+            return;
+        server.close();
+        for (SocketChannel client : clients)
+            client.close();
+        if (address instanceof UnixDomainSocketAddress unixAddress)
+            Files.deleteIfExists(unixAddress.getPath());
+        Logger.log("Evaluation server on " + address + " closed", (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+    }
+}
@@ -1,175 +1,377 @@
 import com.sun.jna.platform.win32.WinNT;
 
+import java.math.BigInteger;
+import java.util.Arrays;
+
 /**
  * The Evaluator class provides utility methods for mathematical expression evaluation
  * and base conversion. It includes mechanisms to parse and calculate arithmetic
  * operations and convert numbers between various bases.
+ *
+ * Every Evaluator instance owns its own parsing buffers, so an instance must only be used by one thread at a time,
+ * while different instances can evaluate expressions concurrently. The static methods are safe to call from any
+ * thread, since they use an Evaluator that belongs to the calling thread.
  */
 public class Evaluator {
 
+    /**
+     * Holds one Evaluator for every thread that calls the static evaluateExpression method.
+     *
+     * This lets the static API keep working as before while never sharing the parsing buffers
+     * between threads, so concurrent evaluations cannot corrupt each other's results.
+     */
+    private static final ThreadLocal<Evaluator> threadEvaluator = ThreadLocal.withInitial(Evaluator::new);
+
+    /**
+     * Holds the recently parsed expressions, so that evaluating the same text again skips formater entirely.
+     * Its size and the length of the longest expression it keeps are taken from `Main.expressionCacheSize`
+     * and `Main.expressionCacheMaxLength` when the Evaluator class is first used.
+     */
+    private static final ExpressionCache expressionCache = new ExpressionCache(Main.expressionCacheSize, Main.expressionCacheMaxLength);
+
+    /**
+     * Holds the results of the expressions evaluated most often by {@link #evaluateExpression(String)},
+     * or null if results are not cached (see {@link #setResultCache(ResultCache)}).
+     */
+    private static volatile ResultCache resultCache;
+
     /**
      * An array utilized to store numbers extracted from a mathematical equation during parsing.
      *
-     * This static array represents a First-In-Last-Out (FILO) stack structure and is used internally
-     * by the `Evaluator` class to evaluate mathematical expressions and perform base conversions.
-     * The size of the array is determined by the maximum allowed equation length
-     * (`Main.maxEcuationLenght`) plus one, to accommodate potential edge cases.
+     * This array represents a First-In-Last-Out (FILO) stack structure and is used internally
+     * by its `Evaluator` instance to evaluate mathematical expressions and perform base conversions.
+     * The initial size of the array is determined by the maximum allowed equation length
+     * (`Main.maxEcuationLenght`) plus one, to accommodate potential edge cases, and it grows
+     * when a longer expression is parsed.
      *
      * Usage within the `Evaluator` ensures proper order and retrieval of numbers corresponding
      * to operations extracted during the processing of a given mathematical equation.
      */
     //creating 2 FILO vectors
-    private static int numbers[] = new int[Main.maxEquationLength+1];
+    private int numbers[] = new int[Main.maxEquationLength+1];
     /**
      * Array to store mathematical operations extracted from a given equation.
      * Each element represents a valid arithmetic operator (+, -, *, /) in the order
-     * they appear in the parsed equation. The length of the array is determined
-     * by the maximum allowed equation length (`Main.maxEcuationLenght`) plus one.
+     * they appear in the parsed equation. The initial length of the array is determined
+     * by the maximum allowed equation length (`Main.maxEcuationLenght`) plus one, and it grows with the expressions.
      *
      * This field is used in conjunction with other components (such as `numbers` in
      * the Evaluator class) for parsing and evaluating mathematical expressions.
      */
-    private static char operations[] = new char[Main.maxEquationLength+1];
+    private char operations[] = new char[Main.maxEquationLength+1];
 
     /**
-     * Represents a static integer used as a reference or count for the left-side numbers
+     * Represents an integer used as a reference or count for the left-side numbers
      * in mathematical computation or parsing processes within the Evaluator class.
      * Typically utilized in conjunction with `stO` and `numbers` to manage or track the
      * state of numbers in operations.
      */
     //creating their bounds with stN being leftNumbers and stO being leftOperations
-    private static int stN = 1;
+    private int stN = 1;
     /**
-     * Represents the static offset used during internal computations or processing
+     * Represents the offset used during internal computations or processing
      * within the Evaluator class. The variable might be involved in calculation
      * adjustments or as a fixed constant during operations. Its exact usage depends
      * on the context provided by the methods in the Evaluator class.
      */
-    private static int stO = 1;
+    private int stO = 1;
+
+    /**
+     * The exact values of the numbers too long to surely fit in an int (more than 9 digits), at the same positions as in `numbers`.
+     * The `numbers` array still gets their int value, so that the int evaluation is unchanged,
+     * while the exact evaluation (see {@link Expression#evaluateExact()}) reads them from here.
+     * It is only created the first time such a number is parsed, and its used slots are cleared after every parse.
+     */
+    private BigInteger[] wideNumbers;
+
+    /**
+     * Whether the expression being parsed has a number stored in `wideNumbers`.
+     */
+    private boolean hasWideNumbers;
+
+    /**
+     * Evaluates a mathematical expression using the Evaluator that belongs to the calling thread.
+     *
+     * This method can be called from any number of threads at the same time. The parsed form of the expression
+     * is taken from the shared {@link ExpressionCache}, so an expression that was evaluated recently is not parsed again.
+     *
+     * @param expression the mathematical expression to be evaluated. It must consist of valid
+     *                   numbers and arithmetic operators (+, -, *, /).
+     * @return the result of evaluating the expression as an integer.
+     */
+    static int evaluateExpression(String expression) {
+        return evaluateExpression(expression, null);
+    }
+
+    /**
+     * Evaluates a mathematical expression like {@link #evaluateExpression(String)}, within a budget:
+     * the expression is refused if it is too long or has too many operations, and stopped if it runs past the deadline
+     * of the budget or the budget is cancelled.
+     *
+     * @param expression the mathematical expression to be evaluated.
+     * @param budget     the budget of the evaluation, or null for none.
+     * @return the result of evaluating the expression as an integer.
+     * @throws ArithmeticException if the expression divides by zero.
+     * @throws BudgetExceededException if the evaluation goes over its budget.
+     */
+    static int evaluateExpression(String expression, Budget budget) {
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+        try {
+            if (budget != null)
+                budget.checkInput(expression.length());
+            return evaluateCached(expression, budget);
+        } catch (ArithmeticException e) {
+            if (Metrics.enabled)
+                Metrics.evaluationErrors.increment();
+            throw e;
+        } finally {
+            if (Metrics.enabled) {
+                Metrics.evaluations.increment();
+                Metrics.evaluateLatency.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Evaluates an expression through the result cache when there is one, so that a cached expression is neither parsed nor evaluated.
+     * Expressions that fail (ex.: a division by zero) are never cached, so they fail again every time.
+     */
+    private static int evaluateCached(String expression, Budget budget) {
+        ResultCache results = resultCache;
+        if (results == null)
+            return evaluateParsed(expressionCache.get(expression), budget);
+
+        long cached = results.get(expression);
+        if (cached != ResultCache.missing) {
+            //we log the result, as if it was evaluated
+            Logger.log(() -> "Evaluated expression " + expression + " to be " + cached, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+            return (int) cached;
+        }
+        int result = evaluateParsed(expressionCache.get(expression), budget);
+        results.put(expression, result);
+        return result;
+    }
+
+    /**
+     * Sets the cache the results of {@link #evaluateExpression(String)} are kept in.
+     *
+     * @param cache the result cache, or null to stop caching results.
+     */
+    static void setResultCache(ResultCache cache) {
+        resultCache = cache;
+    }
+
+    /**
+     * Returns the cache the results of {@link #evaluateExpression(String)} are kept in.
+     *
+     * @return the result cache, or null if results are not cached.
+     */
+    static ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Evaluates a mathematical expression exactly, using the Evaluator that belongs to the calling thread.
+     *
+     * Unlike {@link #evaluateExpression(String)}, the numbers and the result are never limited to an int:
+     * the expression is calculated with longs, and only moves to BigInteger if a value would overflow a long
+     * (see {@link Expression#evaluateExact()}). It shares the same {@link ExpressionCache}.
+     *
+     * @param expression the mathematical expression to be evaluated. It must consist of valid
+     *                   numbers and arithmetic operators (+, -, *, /).
+     * @return the exact result, a Long when it fits in a long and a BigInteger otherwise.
+     * @throws ArithmeticException if the expression divides by zero.
+     */
+    static Number evaluateExactExpression(String expression) {
+        return evaluateExactExpression(expression, null);
+    }
+
+    /**
+     * Evaluates a mathematical expression exactly like {@link #evaluateExactExpression(String)}, within a budget.
+     * The numbers of an exact evaluation can grow with every operation, so the deadline is checked before every
+     * operation on numbers that don't fit in a long.
+     *
+     * @param expression the mathematical expression to be evaluated.
+     * @param budget     the budget of the evaluation, or null for none.
+     * @return the exact result, a Long when it fits in a long and a BigInteger otherwise.
+     * @throws ArithmeticException if the expression divides by zero.
+     * @throws BudgetExceededException if the evaluation goes over its budget.
+     */
+    static Number evaluateExactExpression(String expression, Budget budget) {
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+        Expression parsed;
+        Number result;
+        try {
+            if (budget != null)
+                budget.checkInput(expression.length());
+            parsed = expressionCache.get(expression);
+            result = parsed.evaluateExact(budget);
+        } catch (ArithmeticException e) {
+            if (Metrics.enabled)
+                Metrics.evaluationErrors.increment();
+            throw e;
+        } finally {
+            if (Metrics.enabled) {
+                Metrics.evaluations.increment();
+                Metrics.evaluateLatency.record(System.nanoTime() - start);
+            }
+        }
+
+        //we log the result
+        Logger.log(() -> "Evaluated expression " + parsed + " to be " + result, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+
+        return result;
+    }
+
+    /**
+     * Parses an expression using the Evaluator that belongs to the calling thread.
+     *
+     * @param expression the mathematical expression to be parsed.
+     * @return the parsed expression, ready to be evaluated any number of times.
+     */
+    static Expression compileExpression(String expression) {
+        return threadEvaluator.get().compile(expression);
+    }
+
+    /**
+     * Returns the cache that holds the parsed expressions used by {@link #evaluateExpression(String)}.
+     * It can be used to read the hit and miss statistics of the cache.
+     *
+     * @return the shared expression cache.
+     */
+    static ExpressionCache getExpressionCache() {
+        return expressionCache;
+    }
 
     /**
      * Evaluates a mathematical expression represented as a string, performs the calculations
      * following the standard operator precedence (multiplication and division before addition
      * and subtraction), and returns the computed result.
+     * The numbers and operations extracted by formater are reduced in a single pass, so the cost
+     * of an evaluation grows linearly with the number of operations.
      *
      * @param expression the mathematical expression to be evaluated. It must consist of valid
      *                   numbers and arithmetic operators (+, -, *, /).
      * @return the result of evaluating the expression as an integer.
      */
-    static int evaluateExpression(String expression) {
+    int evaluate(String expression) {
+        return evaluateParsed(compile(expression), null);
+    }
+
+    /**
+     * Parses a mathematical expression into an {@link Expression} that can be evaluated many times.
+     *
+     * @param expression the mathematical expression to be parsed. It must consist of valid
+     *                   numbers and arithmetic operators (+, -, *, /).
+     * @return the parsed expression.
+     */
+    Expression compile(String expression) {
 
         //reset the bonds of the FILO vectors
         stN=stO=1;
+        hasWideNumbers = false;
+
+        //an expression can't have more numbers or operations than characters, so we grow the FILO vectors if it is longer than they are
+        if (expression.length() + 1 > numbers.length) {
+            numbers = new int[expression.length() + 1];
+            operations = new char[expression.length() + 1];
+            wideNumbers = null;
+        }
 
         //get the expression and extract the numbers and operations from it in their corresponding FILO
+        long start = Metrics.enabled ? System.nanoTime() : 0;
         formater(expression);
+        if (Metrics.enabled)
+            Metrics.formaterLatency.record(System.nanoTime() - start);
 
-        //iterating over all the elements from operations to first calculate the higher priorities operations ('*' and '/')
-        for (int i = 1; i < stO; i++)
-            if (operations[i] == '*') {
-                //we have found the symbol for multiplication '*', now we multiply the corresponding numbers in the FILO numbers vector which are i and i + 1
-                numbers[i] = numbers[i] * numbers[i + 1];
-                //we override the next number (i + 1) with the rest of the vector to delete it and update the numbers FILO vector bound
-                for (int j = i + 1; j < stN; j++)
-                    numbers[j] = numbers[j + 1];
-                stN--;
-                //we override current symbol (i) with the rest of the vector to delete it and update the operations FILO vector bound
-                for (int j = i; j < stO; j++)
-                    operations[j] = operations[j + 1];
-                stO--;
-                //if the current symbol is still a multiplication or divide one ('*'/'/') then we decrement i so that we don't jump over it
-                if (operations[i] == '*' || operations[i] == '/')
-                    i--;
-            }
-            else if (operations[i] == '/') {
-                //we have found the symbol for dividing '/', now we divide the corresponding numbers in the FILO numbers vector which are i and i + 1
-                numbers[i] = numbers[i] / numbers[i + 1];
-                //we override the next number (i + 1) with the rest of the vector to delete it and update the numbers FILO vector bound
-                for (int j = i + 1; j < stN; j++)
-                    numbers[j] = numbers[j + 1];
-                stN--;
-                //we override current symbol (i) with the rest of the vector to delete it and update the operations FILO vector bound
-                for (int j = i; j < stO; j++)
-                    operations[j] = operations[j + 1];
-                stO--;
-                //if the current symbol is still a multiplication or divide one ('*'/'/') then we decrement i so that we don't jump over it
-                if (operations[i] == '*' || operations[i] == '/')
-                    i--;
-            }
-
-        //now we iterate again over operations so that we evaluate the "+" and '-' symbols
-        for (int i = 1; i <= stO || stN > 1; i++) {
-            //if the current element of operation[i] is '-' then we subtract, else, we add the numbers
-            if (operations[1] == '-')
-                numbers[1] = numbers[1] - numbers[2];
-            else
-                numbers[1] = numbers[1] + numbers[2];
-            //we override the next number with the rest of the vector to delete it and update the numbers FILO vector bound
-            for (int j = 2; j < stN; j++)
-                numbers[j] = numbers[j + 1];
-            stN--;
-            //we override current symbol with the rest of the vector to delete it and update the operations FILO vector bound
-            for (int j = 2; j < stO; j++)
-                operations[j] = operations[j + 1];
-            stO--;
+        //copy the parsed numbers and operations out of the FILO vectors, since they will be reused by the next parse
+        BigInteger[] wide = null;
+        if (hasWideNumbers) {
+            wide = Arrays.copyOfRange(wideNumbers, 1, stN);
+            Arrays.fill(wideNumbers, 1, stN, null);
         }
+        return new Expression(expression, Arrays.copyOfRange(numbers, 1, stN), Arrays.copyOfRange(operations, 1, stO), wide);
+    }
+
+    /**
+     * Evaluates an already parsed expression and logs its result.
+     *
+     * @param expression the parsed expression.
+     * @param budget     the budget of the evaluation, or null for none.
+     * @return the result of evaluating the expression as an integer.
+     */
+    private static int evaluateParsed(Expression expression, Budget budget) {
+        int result = expression.evaluate(budget);
 
         //we log the result
-        Logger.log("Evaluated expression " + expression + " to be " + numbers[1], (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+        Logger.log(() -> "Evaluated expression " + expression + " to be " + result, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
 
-        return numbers[1];
+        return result;
     }
 
     /**
      * Converts a number represented in a given base to another target base.
-     * The method first translates the input number from its original base to a base-10 integer.
-     * It then converts the base-10 integer to the specified target base.
+     * The decimal digits of the number are read as digits of the original base (ex.: 101 in base 2 is 5),
+     * and the conversion itself is done by {@link BaseConverter}.
      *
      * @param number      The number to be converted, represented in the original base.
      * @param base        The base of the input number (e.g., 2 for binary, 10 for decimal).
      * @param targetBase  The base to which the number should be converted.
      * @return A string representing the number in the target base.
-     *         If the input number is invalid or bases are unsupported, behavior is undefined.
+     * @throws NumberFormatException if a digit of the number is not valid in the base, or a base is not between 2 and 36.
      */
     static public String convertToBaseN(int number, int base,int targetBase){
-        //Reconstruct the number in <base>
-
-        //we get the current number, we get its first digit, and then we multiply it by the base at the power of what position it is in the number (basic math, nothing fancy)
-        int numberInBase = 0,i = 0,copyNumber = number;
-        while(number != 0){
-            numberInBase += number % 10 * (int) Math.pow(base, i++);
-            number /= 10;
-        }
-
-        //Transform the numberInBase into that targetBase
-
-        StringBuilder rests = new StringBuilder();
-
-        //we now transform the number in base 10 to the target base, and we do it like we learned in school, we divide the number by the target base
-        // (in school  we just learned to divide by to and transform into base 2, but it's the same principle) and we get its remainer and then construct a number with it
-        // then we do that again and again until the initial number is 0
-        // ex.: 25 / 2 = 12 / 2 = 6 / 2 = 3 / 2 = 1 / 2 = 0
-        //         r = 1    r = 0   r = 0   r = 1   r = 1
-        //new we get the remainders and construct the actual number in the targetBase by flipping the remainders
-        // ex.: original remainders : 1,0,0,1,1 so the original number in targetBase will be 1,1,0,0,1
-        while(numberInBase != 0){
-            rests.append(numberInBase % targetBase);
-            numberInBase /= targetBase;
-        }
+        return convertToBaseN(Integer.toString(number), base, targetBase);
+    }
 
-        StringBuilder numberInBaseN = new StringBuilder();
+    /**
+     * Converts a number written in a given base to another target base, and logs the conversion.
+     * The number can have any number of digits (see {@link BaseConverter}), so it is not limited to an int.
+     *
+     * @param number      The digits of the number to be converted, optionally preceded by a '-' sign.
+     * @param base        The base of the input number, from 2 to 36.
+     * @param targetBase  The base to which the number should be converted, from 2 to 36.
+     * @return A string representing the number in the target base.
+     * @throws NumberFormatException if a digit of the number is not valid in the base, or a base is not between 2 and 36.
+     */
+    static public String convertToBaseN(String number, int base, int targetBase){
+        return convertToBaseN(number, base, targetBase, null);
+    }
 
-        //flip the remainders to get the actual number
-        while(!rests.isEmpty()){
-            numberInBaseN.append(rests.charAt(rests.length() - 1));
-            rests.setLength(rests.length() - 1);
+    /**
+     * Converts a number written in a given base to another target base like {@link #convertToBaseN(String, int, int)},
+     * within a budget: the number is refused if it is too long, and the conversion is stopped if it needs too many
+     * operations, runs past the deadline of the budget, or the budget is cancelled.
+     *
+     * @param number      The digits of the number to be converted, optionally preceded by a '-' sign.
+     * @param base        The base of the input number, from 2 to 36.
+     * @param targetBase  The base to which the number should be converted, from 2 to 36.
+     * @param budget      The budget of the conversion, or null for none.
+     * @return A string representing the number in the target base.
+     * @throws NumberFormatException if a digit of the number is not valid in the base, or a base is not between 2 and 36.
+     * @throws BudgetExceededException if the conversion goes over its budget.
+     */
+    static public String convertToBaseN(String number, int base, int targetBase, Budget budget){
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+        String numberInBaseN;
+        try {
+            numberInBaseN = BaseConverter.convert(number, base, targetBase, budget);
+        } catch (NumberFormatException e) {
+            if (Metrics.enabled)
+                Metrics.conversionErrors.increment();
+            throw e;
+        } finally {
+            if (Metrics.enabled) {
+                Metrics.conversions.increment();
+                Metrics.convertLatency.record(System.nanoTime() - start);
+            }
         }
 
         //log the results
-        Logger.log("Converted number " + copyNumber + " from base " + base + " into target base " + targetBase + ": " + numberInBaseN, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+        Logger.log(() -> "Converted number " + number + " from base " + base + " into target base " + targetBase + ": " + numberInBaseN, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
 
         //return the result
-        return numberInBaseN.toString();
+        return numberInBaseN;
     }
 
 
@@ -181,7 +383,7 @@ public class Evaluator {
      * @param equation the mathematical string equation to be parsed.
      *                 It should consist of numbers and arithmetic operators (+, -, *, /) only.
      */
-    static private void formater(String equation) {
+    private void formater(String equation) {
 
         //initializing some vars
         byte lastInput = -1;
@@ -206,6 +408,9 @@ public class Evaluator {
                 //we add the number to the FILO vector
                 if(lastInput == 2)
                     number *= -1;
+                //a number with more than 9 digits might not fit in an int, so we also keep its exact value for the exact evaluation
+                if(i - k > 9)
+                    addWideNumber(equation.substring(k, i), lastInput == 2);
                 numbers[stN++] = number;
                 //we've set the lastInput to 0 since we just processed a number
                 lastInput = 0;
@@ -228,7 +433,21 @@ public class Evaluator {
         }
 
         //log the results
-        Logger.log("Formated " + equation + " to numbers: " + numbers.toString() + " and operations to: " + operations.toString(), (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+        Logger.log(() -> "Formated " + equation + " to numbers: " + numbers.toString() + " and operations to: " + operations.toString(), (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+
+    }
 
+    /**
+     * Keeps the exact value of a number that might not fit in an int, at the position the number is about to take in `numbers`.
+     *
+     * @param digits   the digits of the number.
+     * @param negative whether the number is preceded by a '-'.
+     */
+    private void addWideNumber(String digits, boolean negative) {
+        if (wideNumbers == null)
+            wideNumbers = new BigInteger[numbers.length];
+        BigInteger value = BaseConverter.parseBigInteger(digits, 10);
+        wideNumbers[stN] = negative ? value.negate() : value;
+        hasWideNumbers = true;
     }
 }
@@ -0,0 +1,88 @@
+import com.sun.jna.platform.win32.Advapi32;
+import com.sun.jna.platform.win32.Kernel32;
+import com.sun.jna.platform.win32.WinNT;
+
+/**
+ * The EventViewerLogSink class sends log events to the Windows Event Viewer, under the application name.
+ *
+ * Only the events logged with a severity level are sent (see {@link Logger#log(String, byte)}).
+ * The JNA classes are only loaded when this sink is used, and if the Event Viewer can't be reached at all
+ * (ex.: the native libraries are missing), the sink stops trying instead of failing on every event.
+ */
+public class EventViewerLogSink implements LogSink {
+
+    /**
+     * Whether the Event Viewer can still be reached. It is cleared the first time the native calls fail to link.
+     */
+    private volatile boolean available = true;
+
+    @Override
+    public void write(LogEvent event) {
+        if (!event.toEventViewer || !available)
+            return;
+
+        try {
+            logInEventViewer(event.message, event.eventLevel);
+        } catch (LinkageError e) {
+            available = false;
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends a log message to the Windows Event Viewer with the specified severity level.
+     *
+     * This method registers the application as an event source, sends the provided message
+     * to the Event Viewer, and cleans up the event source handle after logging. If sending
+     * the log fails, it retrieves the Windows error code and logs it using the local logging system.
+     *
+     * @param message The log message to be sent to the Event Viewer.
+     * @param eventLevel The severity level of the log message (e.g., information, warning, or error).
+     */
+    private static void logInEventViewer(String message, byte eventLevel) {
+        // Register the event source (usually your application name).
+        // This tells Windows you're sending a log from "Main.name".
+        WinNT.HANDLE hEventLog = Advapi32.INSTANCE.RegisterEventSource(null, Main.name);
+
+        // If the handle couldn't be created, log an error and return.
+        if (hEventLog == null) {
+            Logger.log("Failed to register event source"); // try to at least log in the logs.txt file
+            return;
+        }
+
+        // The message to send. You can send multiple lines by using more strings in this array.
+        String[] messages = {message};
+
+        // Send the event to Windows Event Viewer.
+        // Parameters:
+        // - hEventLog: the handle to the event source
+        // - eventLevel: severity type (INFO, WARNING, ERROR)
+        // - 0: event category (custom if needed, 0 is fine)
+        // - 0x1000: event ID (any number you assign)
+        // - null: no specific user SID (security ID)
+        // - messages.length: number of message strings
+        // - 0: no binary data
+        // - messages: the message strings array
+        // - null: no binary data attached
+        boolean success = Advapi32.INSTANCE.ReportEvent(
+                hEventLog,
+                eventLevel,
+                0,
+                0x1000,
+                null,
+                messages.length,
+                0,
+                messages,
+                null
+        );
+
+        // If logging failed, retrieve the Windows error code and use your own logger to record it
+        if (!success) {
+            int errorCode = Kernel32.INSTANCE.GetLastError(); // Get the Windows error code
+            Logger.log("Failed to report event. Error code: " + errorCode);
+        }
+
+        // Always release the event source handle to free resources
+        Advapi32.INSTANCE.DeregisterEventSource(hEventLog);
+    }
+}
@@ -0,0 +1,362 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * The Expression class holds an arithmetic expression that has already been parsed by an {@link Evaluator}.
+ *
+ * Parsing an expression with formater is the expensive part of an evaluation, so an Expression is built once
+ * and can then be evaluated any number of times without touching the original text again.
+ * Expressions are immutable, which means the same instance can be shared and evaluated by many threads at once.
+ */
+public class Expression {
+
+    /**
+     * The text the expression was parsed from.
+     *
+     * It is kept so that the expression can be logged and used as a key by the {@link ExpressionCache}.
+     */
+    private final String text;
+
+    /**
+     * The numbers extracted from the expression, in the order they appear in the text.
+     *
+     * Negative numbers already carry their sign, since formater folds every '-' into a '+'
+     * followed by a negative number.
+     */
+    private final int[] numbers;
+
+    /**
+     * The operations extracted from the expression, in the order they appear in the text.
+     *
+     * The operation at position i is applied between the numbers at positions i and i + 1,
+     * and it can only be '+', '*' or '/'.
+     */
+    private final char[] operations;
+
+    /**
+     * The exact values of the numbers as longs (0 for the numbers that don't fit in a long).
+     * It duplicates `numbers` when every number fits in an int, so that the exact evaluation reads a single array.
+     */
+    private final long[] longNumbers;
+
+    /**
+     * The exact values of the numbers that don't fit in a long, at their positions (the other positions are null),
+     * or null if every number fits in a long.
+     */
+    private final BigInteger[] bigNumbers;
+
+    /**
+     * True when no value met during the evaluation can reach the limits of an int, whatever the numbers are,
+     * so that the exact evaluation can use the int one, which checks nothing (see {@link #fitsInInt()}).
+     */
+    private final boolean intExact;
+
+    /**
+     * Creates a parsed expression from the numbers and operations extracted by formater.
+     * The arrays are used as they are, so the caller must not modify them afterwards.
+     *
+     * @param text        the text the expression was parsed from.
+     * @param numbers     the numbers of the expression, in order, as ints.
+     * @param operations  the operations of the expression, in order.
+     * @param wideNumbers the exact values of the numbers that might not fit in an int, at their positions
+     *                    (the other positions are null), or null if there are none.
+     */
+    Expression(String text, int[] numbers, char[] operations, BigInteger[] wideNumbers) {
+        this.text = text;
+        this.numbers = numbers;
+        //a number without an operation before it (ex.: the -3 of "5 -3", whose '-' doesn't follow a digit) was added to the result
+        // by the original evaluation, whose last loop went on while numbers were left, so we give those numbers a '+'
+        if (numbers.length > operations.length + 1) {
+            int paired = operations.length;
+            operations = Arrays.copyOf(operations, numbers.length - 1);
+            Arrays.fill(operations, paired, operations.length, '+');
+        }
+        this.operations = operations;
+
+        long[] longs = new long[numbers.length];
+        BigInteger[] bigs = null;
+        for (int i = 0; i < numbers.length; i++)
+            longs[i] = numbers[i];
+        if (wideNumbers != null) {
+            for (int i = 0; i < numbers.length; i++)
+                if (wideNumbers[i] == null)
+                    longs[i] = numbers[i];
+                else if (wideNumbers[i].bitLength() < 64)
+                    longs[i] = wideNumbers[i].longValue();
+                else {
+                    if (bigs == null)
+                        bigs = new BigInteger[numbers.length];
+                    bigs[i] = wideNumbers[i];
+                }
+        }
+        this.longNumbers = longs;
+        this.bigNumbers = bigs;
+        this.intExact = bigs == null && fitsInInt();
+    }
+
+    /**
+     * Finds out whether every value met during the evaluation stays strictly between Integer.MIN_VALUE and Integer.MAX_VALUE,
+     * from the number of bits of the numbers: a product has at most as many bits as its factors together,
+     * a quotient at most as many as its dividend, and a sum one more than the largest of its terms.
+     * The numbers themselves must fit too, since the int evaluation reads them from `numbers`.
+     */
+    private boolean fitsInInt() {
+        int sumBits = 0, termBits = bits(0), maximumBits = termBits;
+        for (int i = 0; i < operations.length && maximumBits < 32; i++) {
+            if (operations[i] == '*')
+                termBits += bits(i + 1);
+            else if (operations[i] == '/')
+                //the quotient is not larger than the term, but the divisor itself must fit
+                maximumBits = Math.max(maximumBits, bits(i + 1));
+            else {
+                sumBits = Math.max(sumBits, termBits) + 1;
+                termBits = bits(i + 1);
+            }
+            maximumBits = Math.max(maximumBits, Math.max(sumBits, termBits));
+        }
+        return Math.max(maximumBits, Math.max(sumBits, termBits) + 1) < 32;
+    }
+
+    /**
+     * Returns the number of bits of the magnitude of the number at the given position.
+     * It must not be used when a number doesn't fit in a long.
+     */
+    private int bits(int i) {
+        //the int of a number written with too many digits is wrapped, so the int evaluation can't use it
+        if (i < numbers.length && numbers[i] != longNumbers[i])
+            return 64;
+        return 64 - Long.numberOfLeadingZeros(Math.abs(longOperand(i)));
+    }
+
+    /**
+     * Returns the text this expression was parsed from.
+     *
+     * @return the original text of the expression.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Calculates the value of the expression following the standard operator precedence
+     * (multiplication and division before addition and subtraction).
+     * The operations are reduced in a single pass, so the cost grows linearly with the number of operations.
+     *
+     * @return the result of the expression as an integer.
+     * @throws ArithmeticException if the expression divides by zero.
+     */
+    public int evaluate() {
+        return evaluate(null);
+    }
+
+    /**
+     * Calculates the value of the expression like {@link #evaluate()}, within a budget: its operations are spent
+     * before starting, and the deadline is checked every {@value Budget#checkInterval} operations.
+     *
+     * @param budget the budget of the calculation, or null for none.
+     * @return the result of the expression as an integer.
+     * @throws ArithmeticException if the expression divides by zero.
+     * @throws BudgetExceededException if the expression has more operations than the budget has left, or the deadline passes.
+     */
+    public int evaluate(Budget budget) {
+        if (budget != null)
+            budget.spend(operations.length);
+
+        //we walk over the operations only once, keeping the sum of the terms we have already finished and the term we are currently building.
+        // '*' and '/' have a higher priority, so they are applied straight to the current term, while a '+' closes the current term and adds it to the sum
+        // ('-' never gets here, because formater folds it into a '+' followed by a negative number)
+        // ex.: 2+3*4-5 -> numbers: 2,3,4,-5 operations: +,*,+ -> term = 2, sum = 2, term = 3*4 = 12, sum = 14, term = -5, result = 9
+        int sum = 0, term = operand(0);
+        for (int i = 0; i < operations.length; i++) {
+            if (budget != null && (i & (Budget.checkInterval - 1)) == Budget.checkInterval - 1)
+                budget.checkTime();
+            if (operations[i] == '*')
+                term = term * operand(i + 1);
+            else if (operations[i] == '/') {
+                //we throw the division by zero ourselves, so that the exception always carries its message
+                // (the JVM can throw a shared exception without a message once the code is hot)
+                int divisor = operand(i + 1);
+                if (divisor == 0)
+                    throw new ArithmeticException("/ by zero");
+                term = term / divisor;
+            } else {
+                //a '+' closes the current term, so we add it to the sum and start a new term with the next number
+                sum = sum + term;
+                term = operand(i + 1);
+            }
+        }
+
+        return sum + term;
+    }
+
+    /**
+     * Calculates the exact value of the expression, with the same operator precedence as {@link #evaluate()}.
+     * When the numbers are small enough for no value to reach the limits of an int, the calculation is the int one;
+     * otherwise it is done with longs like {@link #evaluateLong()}, carrying on with BigInteger from the operation
+     * that would overflow a long.
+     *
+     * @return the result of the expression, a Long when it fits in a long and a BigInteger otherwise.
+     * @throws ArithmeticException if the expression divides by zero.
+     */
+    public Number evaluateExact() {
+        return evaluateExact(null);
+    }
+
+    /**
+     * Calculates the exact value of the expression like {@link #evaluateExact()}, within a budget: its operations are
+     * spent before starting, and the deadline is checked every {@value Budget#checkInterval} operations,
+     * and before every operation on numbers that don't fit in a long, which can take much longer.
+     *
+     * @param budget the budget of the calculation, or null for none.
+     * @return the result of the expression, a Long when it fits in a long and a BigInteger otherwise.
+     * @throws ArithmeticException if the expression divides by zero.
+     * @throws BudgetExceededException if the expression has more operations than the budget has left, or the deadline passes.
+     */
+    public Number evaluateExact(Budget budget) {
+        if (intExact)
+            return (long) evaluate(budget);
+        if (budget != null)
+            budget.spend(operations.length);
+        return evaluateWide(budget);
+    }
+
+    /**
+     * Calculates the exact value of the expression as a long, with the same operator precedence as {@link #evaluate()}.
+     *
+     * When the numbers are small enough for no value to reach the limits of an int, the calculation is the int one.
+     * Otherwise it is done with longs, checking every operation for overflow the same way Math.addExact and
+     * Math.multiplyExact do, but without throwing, so it allocates nothing and only costs a few comparisons more than
+     * the int evaluation. Only when a value would overflow a long (or a number of the expression
+     * doesn't fit in one) does the calculation move to BigInteger, carrying on from the operation that overflowed,
+     * so a result that fits in a long is always returned even if the values in between don't.
+     * The divisions are rounded toward zero, like the int ones.
+     *
+     * @return the result of the expression.
+     * @throws ArithmeticException if the expression divides by zero, or its result doesn't fit in a long.
+     */
+    public long evaluateLong() {
+        if (intExact)
+            return evaluate();
+        Number result = evaluateWide(null);
+        return result instanceof BigInteger big ? big.longValueExact() : result.longValue();
+    }
+
+    /**
+     * Calculates the exact value of the expression with longs, moving to BigInteger from the operation that would
+     * overflow a long, and checking the deadline of a budget whose operations were already spent.
+     *
+     * @return the result of the expression, a Long when it fits in a long and a BigInteger otherwise.
+     */
+    private Number evaluateWide(Budget budget) {
+        if (bigNumbers != null)
+            return narrow(evaluateBig(0, BigInteger.ZERO, bigOperand(0), budget));
+
+        long sum = 0, term = longOperand(0);
+        int i = 0;
+        for (; i < operations.length; i++) {
+            if (budget != null && (i & (Budget.checkInterval - 1)) == Budget.checkInterval - 1)
+                budget.checkTime();
+            long operand = longOperand(i + 1);
+            if (operations[i] == '*') {
+                long product = term * operand;
+                if (Math.multiplyHigh(term, operand) != (product >> 63))
+                    break;
+                term = product;
+            } else if (operations[i] == '/') {
+                //a 64-bit division is a lot slower than a 32-bit one on most processors, so we use the int one when we can
+                // (-1 and 0 are left out: Integer.MIN_VALUE / -1 doesn't fit in an int, and the division by zero is thrown by evaluateBig)
+                if ((int) term == term && (int) operand == operand && operand != -1 && operand != 0)
+                    term = (int) term / (int) operand;
+                else if (operand == 0 || (term == Long.MIN_VALUE && operand == -1))
+                    break;
+                else
+                    term = term / operand;
+            } else {
+                long total = sum + term;
+                if (((sum ^ total) & (term ^ total)) < 0)
+                    break;
+                sum = total;
+                term = operand;
+            }
+        }
+        long total = sum + term;
+        if (i == operations.length && ((sum ^ total) & (term ^ total)) >= 0)
+            return total;
+
+        //the operation at i overflowed (or divided by zero) without changing sum and term, so BigInteger carries on from it
+        return narrow(evaluateBig(i, BigInteger.valueOf(sum), BigInteger.valueOf(term), budget));
+    }
+
+    /**
+     * Returns a result of {@link #evaluateBig} as a Long when it fits in one, since the values in between can overflow a long
+     * while the result doesn't.
+     */
+    private static Number narrow(BigInteger result) {
+        return result.bitLength() < 64 ? (Number) result.longValue() : result;
+    }
+
+    /**
+     * Carries on the exact evaluation with BigInteger, from the operation at the given position.
+     *
+     * @param from   the position of the first operation left to apply.
+     * @param sum    the sum of the terms already finished.
+     * @param term   the term being built.
+     * @param budget the budget whose deadline is checked before every operation, or null for none.
+     * @return the result of the expression.
+     */
+    private BigInteger evaluateBig(int from, BigInteger sum, BigInteger term, Budget budget) {
+        for (int i = from; i < operations.length; i++) {
+            //the numbers can grow with every operation, so even a single one can take long
+            if (budget != null)
+                budget.checkTime();
+            if (operations[i] == '*')
+                term = term.multiply(bigOperand(i + 1));
+            else if (operations[i] == '/') {
+                BigInteger divisor = bigOperand(i + 1);
+                if (divisor.signum() == 0)
+                    throw new ArithmeticException("/ by zero");
+                term = term.divide(divisor);
+            } else {
+                sum = sum.add(term);
+                term = bigOperand(i + 1);
+            }
+        }
+
+        return sum.add(term);
+    }
+
+    /**
+     * Returns the exact number found at the given position as a long, or 0 if the expression does not have that many numbers.
+     * It must not be used when a number doesn't fit in a long.
+     */
+    private long longOperand(int i) {
+        return i < longNumbers.length ? longNumbers[i] : 0;
+    }
+
+    /**
+     * Returns the exact number found at the given position as a BigInteger, or 0 if the expression does not have that many numbers.
+     */
+    private BigInteger bigOperand(int i) {
+        if (i < numbers.length && bigNumbers != null && bigNumbers[i] != null)
+            return bigNumbers[i];
+        return BigInteger.valueOf(longOperand(i));
+    }
+
+    /**
+     * Returns the number found at the given position of the expression.
+     *
+     * An operation that has no number after it (ex.: "5*" or a leading "*5") is paired with 0,
+     * which is the value the original array-shifting evaluation used to read from the unused slots.
+     *
+     * @param i the position of the number, starting from 0.
+     * @return the number at position i, or 0 if the expression does not have that many numbers.
+     */
+    private int operand(int i) {
+        return i < numbers.length ? numbers[i] : 0;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,189 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ExpressionCache class keeps the most recently used parsed expressions, keyed by their text.
+ *
+ * When the same expression text is evaluated again, its {@link Expression} is taken from the cache and
+ * formater does not have to run at all. The cache is bounded: once it holds its maximum number of
+ * expressions, the least recently used one is evicted to make room for the new one.
+ * All methods are safe to call from multiple threads at the same time.
+ */
+public class ExpressionCache {
+
+    /**
+     * The maximum number of expressions the cache can hold before it starts evicting.
+     * A value of 0 or less disables caching, so every lookup parses the expression again.
+     */
+    private final int maximumSize;
+
+    /**
+     * The length of the longest expression text the cache keeps. A parsed expression takes about 8 bytes per character,
+     * so without this bound a few thousand long expressions could fill the heap while the cache is within its size.
+     */
+    private final int maximumLength;
+
+    /**
+     * The cached expressions, ordered from the least recently used to the most recently used.
+     *
+     * A LinkedHashMap in access order moves an entry to its end every time it is read, so its eldest entry
+     * is always the one to evict. Every access to the map is guarded by synchronizing on it.
+     */
+    private final LinkedHashMap<String, Expression> expressions;
+
+    /**
+     * Counts the lookups that found their expression in the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Counts the lookups that had to parse their expression.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Counts the expressions that were removed to keep the cache within its maximum size.
+     */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache that holds at most the given number of expressions, none of them longer than the given length.
+     *
+     * @param maximumSize   the maximum number of expressions to keep, 0 or less disables caching.
+     * @param maximumLength the number of characters of the longest expression to keep; longer ones are parsed every time.
+     */
+    public ExpressionCache(int maximumSize, int maximumLength) {
+        this.maximumSize = maximumSize;
+        this.maximumLength = maximumLength;
+        this.expressions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+                //evict the least recently used expression once we have gone over the maximum size
+                if (size() > ExpressionCache.this.maximumSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the parsed form of the given expression, parsing it with the calling thread's Evaluator
+     * and storing it in the cache if it is not there yet.
+     *
+     * Two threads that miss on the same text at the same time may both parse it, but only one of the
+     * results is kept, which is harmless since expressions are immutable.
+     * An expression longer than the maximum length is parsed without being looked up or kept, and counts as a miss.
+     *
+     * @param text the text of the expression.
+     * @return the parsed expression.
+     */
+    public Expression get(String text) {
+        if (text.length() > maximumLength) {
+            misses.increment();
+            return Evaluator.compileExpression(text);
+        }
+
+        Expression expression;
+        synchronized (expressions) {
+            expression = expressions.get(text);
+        }
+        if (expression != null) {
+            hits.increment();
+            return expression;
+        }
+
+        //parse the expression outside the lock, so other threads can keep using the cache meanwhile
+        misses.increment();
+        expression = Evaluator.compileExpression(text);
+        if (maximumSize > 0)
+            synchronized (expressions) {
+                Expression existing = expressions.putIfAbsent(text, expression);
+                if (existing != null)
+                    expression = existing;
+            }
+        return expression;
+    }
+
+    /**
+     * Removes every expression from the cache. The statistics are kept.
+     */
+    public void clear() {
+        synchronized (expressions) {
+            expressions.clear();
+        }
+    }
+
+    /**
+     * Returns the number of expressions currently held by the cache.
+     *
+     * @return the current size of the cache.
+     */
+    public int size() {
+        synchronized (expressions) {
+            return expressions.size();
+        }
+    }
+
+    /**
+     * Returns the maximum number of expressions the cache can hold.
+     *
+     * @return the maximum size of the cache.
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the number of characters of the longest expression the cache keeps.
+     *
+     * @return the maximum length of a cached expression.
+     */
+    public int getMaximumLength() {
+        return maximumLength;
+    }
+
+    /**
+     * Returns the number of lookups that found their expression in the cache.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to parse their expression.
+     *
+     * @return the number of cache misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of expressions removed to keep the cache within its maximum size.
+     *
+     * @return the number of evictions.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the fraction of lookups that were served from the cache.
+     *
+     * @return the hit ratio between 0 and 1, or 0 if there were no lookups yet.
+     */
+    public double getHitRatio() {
+        long hitCount = hits.sum(), total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionCache[size=" + size() + "/" + maximumSize + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+}
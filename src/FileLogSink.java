@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The FileLogSink class appends log entries to a text file, in the form "[yyyy-MM-dd HH:mm:ss] [Class: name] message".
+ *
+ * The file is opened the first time something is written to it, creating its folder if needed, and it stays open
+ * until the sink is closed. Written entries are collected in memory and appended to the file with a single write
+ * when the sink is flushed.
+ */
+public class FileLogSink implements LogSink {
+
+    /**
+     * The file the entries are appended to.
+     */
+    private final Path path;
+
+    /**
+     * The entries written since the last flush.
+     */
+    private final StringBuilder pending = new StringBuilder();
+
+    /**
+     * The channel of the file, or null if the file has not been opened yet.
+     */
+    private FileChannel channel;
+
+    /**
+     * Creates a sink that appends its entries to the given file.
+     *
+     * @param path the file the entries are appended to.
+     */
+    public FileLogSink(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Returns the file the entries are appended to.
+     *
+     * @return the path of the logs file.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized void write(LogEvent event) {
+        Logger.formatEntry(event, pending);
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (pending.isEmpty())
+            return;
+
+        ByteBuffer bytes = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8));
+        pending.setLength(0);
+        try {
+            if (channel == null) {
+                //open the file the first time we write to it
+                if (path.getParent() != null)
+                    Files.createDirectories(path.getParent());
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        if (channel == null)
+            return;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+}
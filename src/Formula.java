@@ -0,0 +1,297 @@
+import com.sun.jna.platform.win32.WinNT;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * The Formula class holds an arithmetic expression with named variables (ex.: "price*quantity-discount"),
+ * compiled once so that it can then be calculated any number of times with different values for its variables.
+ *
+ * A formula is made of whole numbers, variables (a letter or '_' followed by letters, digits or '_'), the operations
+ * +, -, *, / with the usual precedence, and signs in front of the numbers and variables (ex.: "a*-b"). Spaces are ignored.
+ * It is calculated with longs, and an operation that overflows a long throws an ArithmeticException instead of
+ * wrapping around, the same way Math.addExact does.
+ *
+ * Compiling a formula turns it into bytecode: a hidden class is generated whose only method does the formula's
+ * arithmetic directly on the array of values, so once the JIT compiles it, calculating the formula costs
+ * as much as the same arithmetic written in Java, with no parsing or interpretation left.
+ * Formulas are immutable and can be calculated by many threads at once.
+ */
+public final class Formula {
+
+    /**
+     * The text the formula was compiled from.
+     */
+    private final String text;
+
+    /**
+     * The names of the variables, in the order they first appear in the text. This is also the order their values are given in.
+     */
+    private final String[] variables;
+
+    /**
+     * The parsed terms of the formula, kept for the other ways of calculating it (see {@link ColumnFormula}).
+     */
+    private final List<Term> terms;
+
+    /**
+     * The generated code of the formula, which calculates it from the values of the variables.
+     */
+    private final ToLongFunction<long[]> function;
+
+    private Formula(String text, String[] variables, List<Term> terms, ToLongFunction<long[]> function) {
+        this.text = text;
+        this.variables = variables;
+        this.terms = terms;
+        this.function = function;
+    }
+
+    /**
+     * Parses a formula and compiles it to bytecode.
+     *
+     * @param text the formula, ex.: "2*x+y/3".
+     * @return the compiled formula.
+     * @throws IllegalArgumentException if the text is not a valid formula, or a number doesn't fit in a long.
+     */
+    public static Formula compile(String text) {
+        Parser parser = new Parser(text);
+        List<Term> terms = parser.parse();
+        String[] variables = parser.variables.keySet().toArray(new String[0]);
+        Formula formula = new Formula(text, variables, terms, FormulaCompiler.compile(terms));
+
+        Logger.log(() -> "Compiled formula " + text + " with variables " + Arrays.toString(variables), (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+        return formula;
+    }
+
+    /**
+     * Calculates the formula with the given values of its variables.
+     *
+     * @param values the values of the variables, in the order of {@link #getVariables()}.
+     * @return the result of the formula.
+     * @throws IllegalArgumentException if the number of values is not the number of variables.
+     * @throws ArithmeticException      if the formula divides by zero or overflows a long.
+     */
+    public long evaluate(long... values) {
+        if (values.length != variables.length)
+            throw new IllegalArgumentException("The formula " + text + " has " + variables.length + " variables, but " + values.length + " values were given");
+        return function.applyAsLong(values);
+    }
+
+    /**
+     * Calculates the formula with the values of its variables given by name.
+     *
+     * @param bindings the value of every variable of the formula (other names are ignored).
+     * @return the result of the formula.
+     * @throws IllegalArgumentException if a variable has no value.
+     * @throws ArithmeticException      if the formula divides by zero or overflows a long.
+     */
+    public long evaluate(Map<String, ? extends Number> bindings) {
+        long[] values = new long[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            Number value = bindings.get(variables[i]);
+            if (value == null)
+                throw new IllegalArgumentException("The variable " + variables[i] + " of the formula " + text + " has no value");
+            values[i] = value.longValue();
+        }
+        return function.applyAsLong(values);
+    }
+
+    /**
+     * Returns the generated code of the formula as a function of the values of its variables.
+     *
+     * Calling it skips the checks of {@link #evaluate(long...)}, and a call site that only ever calls the same formula
+     * lets the JIT inline the arithmetic of the formula into the caller.
+     * The array must hold at least as many values as the formula has variables.
+     *
+     * @return the function calculating the formula.
+     */
+    public ToLongFunction<long[]> asFunction() {
+        return function;
+    }
+
+    /**
+     * Returns the generated code of the formula as a method handle of type (long[])long.
+     *
+     * @return a method handle calculating the formula.
+     */
+    public MethodHandle asMethodHandle() {
+        try {
+            MethodHandle apply = MethodHandles.publicLookup().findVirtual(ToLongFunction.class, "applyAsLong", MethodType.methodType(long.class, Object.class));
+            return apply.bindTo(function).asType(MethodType.methodType(long.class, long[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the names of the variables of the formula, in the order their values are given to {@link #evaluate(long...)}.
+     *
+     * @return a copy of the names of the variables.
+     */
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+    /**
+     * Returns the parsed terms of the formula. They must not be modified.
+     *
+     * @return the terms of the formula, in order.
+     */
+    List<Term> getTerms() {
+        return terms;
+    }
+
+    /**
+     * Returns the text the formula was compiled from.
+     *
+     * @return the text of the formula.
+     */
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Divides two numbers for the generated code, throwing the division by zero with its message
+     * (the JVM can throw a shared exception without a message once the code is hot) and failing on overflow.
+     */
+    static long divide(long dividend, long divisor) {
+        if (divisor == 0)
+            throw new ArithmeticException("/ by zero");
+        return Math.divideExact(dividend, divisor);
+    }
+
+    /**
+     * A term of the formula: numbers and variables multiplied and divided together, added to or subtracted from the result.
+     */
+    static final class Term {
+        final boolean subtract;
+        final List<Factor> factors = new ArrayList<>();
+
+        Term(boolean subtract) {
+            this.subtract = subtract;
+        }
+    }
+
+    /**
+     * A number or variable of a term, with the operation that applies it to the term ('*' or '/', and '*' for the first one).
+     */
+    static final class Factor {
+        final char operation;
+        final boolean negate;
+        final int variable;
+        final long constant;
+
+        /**
+         * @param operation the operation applying the factor to the term.
+         * @param negate    whether the factor has a '-' sign.
+         * @param variable  the index of the variable, or -1 if the factor is a number.
+         * @param constant  the number, when the factor is not a variable.
+         */
+        Factor(char operation, boolean negate, int variable, long constant) {
+            this.operation = operation;
+            this.negate = negate;
+            this.variable = variable;
+            this.constant = constant;
+        }
+    }
+
+    /**
+     * Reads the text of a formula into its terms, giving every variable an index the first time it is seen.
+     */
+    private static final class Parser {
+        private final String text;
+        private final Map<String, Integer> variables = new LinkedHashMap<>();
+        private int position;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        List<Term> parse() {
+            List<Term> terms = new ArrayList<>();
+            //the sign in front of the first term decides whether it is subtracted
+            Term term = new Term(skipSigns());
+            term.factors.add(factor('*'));
+            terms.add(term);
+
+            while (skipSpaces()) {
+                char operation = text.charAt(position++);
+                if (operation == '*' || operation == '/')
+                    term.factors.add(factor(operation));
+                else if (operation == '+' || operation == '-') {
+                    //a '-' followed by more signs still subtracts, ex.: "a--b" is a + b
+                    boolean subtract = (operation == '-') != skipSigns();
+                    term = new Term(subtract);
+                    term.factors.add(factor('*'));
+                    terms.add(term);
+                } else
+                    throw error("Unexpected character '" + operation + "'");
+            }
+            return terms;
+        }
+
+        /**
+         * Reads a number or a variable, with its signs.
+         */
+        private Factor factor(char operation) {
+            boolean negate = skipSigns();
+            if (!skipSpaces())
+                throw error("Missing a number or variable at the end");
+
+            int start = position;
+            char first = text.charAt(position);
+            if (first >= '0' && first <= '9') {
+                while (position < text.length() && text.charAt(position) >= '0' && text.charAt(position) <= '9')
+                    position++;
+                try {
+                    return new Factor(operation, negate, -1, BaseConverter.parseLong(text.substring(start, position), 10));
+                } catch (NumberFormatException e) {
+                    throw error("The number " + text.substring(start, position) + " doesn't fit in a long");
+                }
+            }
+            if (Character.isLetter(first) || first == '_') {
+                while (position < text.length() && (Character.isLetterOrDigit(text.charAt(position)) || text.charAt(position) == '_'))
+                    position++;
+                String name = text.substring(start, position);
+                Integer index = variables.computeIfAbsent(name, k -> variables.size());
+                return new Factor(operation, negate, index, 0);
+            }
+            throw error("Expected a number or variable but found '" + first + "'");
+        }
+
+        /**
+         * Skips the '+' and '-' signs, returning whether there was an odd number of '-'.
+         */
+        private boolean skipSigns() {
+            boolean negative = false;
+            while (skipSpaces() && (text.charAt(position) == '-' || text.charAt(position) == '+'))
+                negative ^= text.charAt(position++) == '-';
+            return negative;
+        }
+
+        /**
+         * Skips the spaces, returning whether there is anything left to read.
+         */
+        private boolean skipSpaces() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+                position++;
+            return position < text.length();
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position + " of the formula " + text);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * The FormulaCompiler class turns the terms of a {@link Formula} into a hidden class implementing ToLongFunction&lt;long[]&gt;.
+ *
+ * The generated applyAsLong method reads the variables straight from the array and does the arithmetic with
+ * the overflow-checked methods of Math (which the JIT turns into single instructions), so it is the bytecode
+ * javac would produce for the same formula written by hand:
+ *
+ *     long[] v = (long[]) values;
+ *     return Math.addExact(Math.addExact(0, Math.multiplyExact(2, v[0])), Formula.divide(v[1], 3)); // 2*x+y/3
+ *
+ * The method has no branches, so the class file needs no stack map frames, and it only has to write
+ * the few constant pool entries the method uses.
+ */
+final class FormulaCompiler {
+
+    private static final int ACC_PUBLIC = 0x0001, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    //the opcodes used by the generated code
+    private static final int ICONST_0 = 0x03, LCONST_0 = 0x09, LCONST_1 = 0x0a, BIPUSH = 0x10, SIPUSH = 0x11, LDC2_W = 0x14,
+            LALOAD = 0x2f, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ASTORE_1 = 0x4c, LRETURN = 0xad, RETURN = 0xb1,
+            INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, CHECKCAST = 0xc0;
+
+    /**
+     * The most values on the operand stack: the sum, the term and the array with the index of the next variable (2 + 2 + 1 + 1).
+     */
+    private static final int maxStack = 6;
+
+    private FormulaCompiler() {
+    }
+
+    /**
+     * Generates and loads the code calculating the given terms.
+     *
+     * @param terms the terms of the formula.
+     * @return an instance of the generated class.
+     * @throws IllegalArgumentException if the formula is too long to fit in a method.
+     */
+    @SuppressWarnings("unchecked")
+    static ToLongFunction<long[]> compile(List<Formula.Term> terms) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(generate(terms), true);
+            return (ToLongFunction<long[]>) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not load the generated code of the formula", e);
+        }
+    }
+
+    /**
+     * Writes the class file of the generated class.
+     */
+    private static byte[] generate(List<Formula.Term> terms) throws IOException {
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classEntry("Formula$Generated");
+        int superClass = pool.classEntry("java/lang/Object");
+        int function = pool.classEntry("java/util/function/ToLongFunction");
+        int code = pool.utf8("Code");
+
+        //the constructor only calls the one of Object
+        ByteArrayOutputStream constructor = new ByteArrayOutputStream();
+        constructor.write(ALOAD_0);
+        writeInstruction(constructor, INVOKESPECIAL, pool.method("java/lang/Object", "<init>", "()V"));
+        constructor.write(RETURN);
+
+        ByteArrayOutputStream apply = new ByteArrayOutputStream();
+        apply.write(ALOAD_1);
+        writeInstruction(apply, CHECKCAST, pool.classEntry("[J"));
+        apply.write(ASTORE_1);
+        //the sum of the terms starts at 0, and every term is added to it (or subtracted from it) once it is complete
+        apply.write(LCONST_0);
+        for (Formula.Term term : terms) {
+            for (int i = 0; i < term.factors.size(); i++) {
+                Formula.Factor factor = term.factors.get(i);
+                if (factor.variable >= 0) {
+                    apply.write(ALOAD_1);
+                    writeIndex(apply, factor.variable);
+                    apply.write(LALOAD);
+                    if (factor.negate)
+                        writeInstruction(apply, INVOKESTATIC, pool.method("java/lang/Math", "negateExact", "(J)J"));
+                } else
+                    writeConstant(apply, pool, factor.negate ? -factor.constant : factor.constant);
+
+                if (i > 0 && factor.operation == '*')
+                    writeInstruction(apply, INVOKESTATIC, pool.method("java/lang/Math", "multiplyExact", "(JJ)J"));
+                else if (i > 0)
+                    writeInstruction(apply, INVOKESTATIC, pool.method("Formula", "divide", "(JJ)J"));
+            }
+            writeInstruction(apply, INVOKESTATIC, pool.method("java/lang/Math", term.subtract ? "subtractExact" : "addExact", "(JJ)J"));
+        }
+        apply.write(LRETURN);
+        if (apply.size() > 65535)
+            throw new IllegalArgumentException("The formula is too long to be compiled");
+
+        int constructorName = pool.utf8("<init>"), constructorType = pool.utf8("()V");
+        int applyName = pool.utf8("applyAsLong"), applyType = pool.utf8("(Ljava/lang/Object;)J");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(61); //Java 17
+        pool.writeTo(out);
+        out.writeShort(ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(function);
+        out.writeShort(0); //fields
+        out.writeShort(2); //methods
+        writeMethod(out, constructorName, constructorType, code, 1, 1, constructor.toByteArray());
+        writeMethod(out, applyName, applyType, code, maxStack, 2, apply.toByteArray());
+        out.writeShort(0); //attributes
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a public method with its Code attribute.
+     */
+    private static void writeMethod(DataOutputStream out, int name, int type, int codeAttribute, int stack, int locals, byte[] code) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + code.length);
+        out.writeShort(stack);
+        out.writeShort(locals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); //exception table
+        out.writeShort(0); //attributes
+    }
+
+    /**
+     * Writes an instruction taking a constant pool index.
+     */
+    private static void writeInstruction(ByteArrayOutputStream code, int opcode, int index) {
+        code.write(opcode);
+        code.write(index >> 8);
+        code.write(index);
+    }
+
+    /**
+     * Pushes an int with the shortest instruction.
+     */
+    private static void writeIndex(ByteArrayOutputStream code, int value) {
+        if (value <= 5)
+            code.write(ICONST_0 + value);
+        else if (value <= Byte.MAX_VALUE) {
+            code.write(BIPUSH);
+            code.write(value);
+        } else if (value <= Short.MAX_VALUE) {
+            code.write(SIPUSH);
+            code.write(value >> 8);
+            code.write(value);
+        } else
+            throw new IllegalArgumentException("The formula has too many variables to be compiled");
+    }
+
+    /**
+     * Pushes a long with the shortest instruction.
+     */
+    private static void writeConstant(ByteArrayOutputStream code, ConstantPool pool, long value) {
+        if (value == 0 || value == 1)
+            code.write(LCONST_0 + (int) value);
+        else
+            writeInstruction(code, LDC2_W, pool.longEntry(value));
+    }
+
+    /**
+     * The constant pool of the generated class, which reuses an entry when the same one is asked for again.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, 1, () -> out.writeUTF(value));
+        }
+
+        int classEntry(String name) {
+            int nameIndex = utf8(name);
+            return entry("C" + name, 1, () -> {
+                out.writeByte(7);
+                out.writeShort(nameIndex);
+            });
+        }
+
+        int method(String owner, String name, String type) {
+            int ownerIndex = classEntry(owner);
+            int nameIndex = utf8(name), typeIndex = utf8(type);
+            int nameAndType = entry("N" + name + type, 1, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(typeIndex);
+            });
+            return entry("M" + owner + "." + name + type, 1, () -> {
+                out.writeByte(10);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        int longEntry(long value) {
+            //a long takes two slots of the constant pool
+            return entry("J" + value, 2, () -> {
+                out.writeByte(5);
+                out.writeLong(value);
+            });
+        }
+
+        private int entry(String key, int slots, EntryWriter writer) {
+            Integer index = entries.get(key);
+            if (index != null)
+                return index;
+            try {
+                //a Utf8 entry starts with its tag, which writeUTF doesn't write
+                if (key.charAt(0) == 'U')
+                    out.writeByte(1);
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            if (count + slots > 65535)
+                throw new IllegalArgumentException("The formula is too long to be compiled");
+            entries.put(key, count);
+            count += slots;
+            return count - slots;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+    }
+
+    /**
+     * Writes one entry of the constant pool.
+     */
+    private interface EntryWriter {
+        void write() throws IOException;
+    }
+}
@@ -6,11 +6,23 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The GUI class provides a graphical user interface for a calculator application.
  * This interface allows users to input equations, interact with buttons for base conversions,
  * and displays the results. It also handles various user inputs such as key presses and button clicks.
+ *
+ * The evaluations, the conversions and the history are handled by a background worker thread, together with the logs
+ * they write, so that a slow disk or a long expression never freezes the window. Every change of the equation
+ * makes the work asked for before it stale: the work that hasn't started yet is cancelled, and the results of the
+ * work that had already started are thrown away instead of being shown.
  */
 public class GUI {
 
@@ -27,6 +39,53 @@ public class GUI {
     private byte lastInput = -1;
     // lastInput will be -1 for initialisation,0 if last input was an operation and -1 if last input was a digit
 
+    /**
+     * The calculations made so far, which the up and down arrows go through,
+     * or null if the history files could not be opened.
+     */
+    private History history;
+
+    /**
+     * The position in the history of the expression recalled with the arrows.
+     * It is the size of the history while the user types a new expression.
+     * Once the window is shown, only the worker thread uses it.
+     */
+    private long recallPosition;
+
+    /**
+     * The thread the evaluations, the conversions and the history run on, so that the event dispatch thread never waits for them.
+     */
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "Calculator worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The last task given to the worker, which is cancelled if it hasn't started when a newer one is given.
+     * It is not interrupted once started, since an interrupt would close the files it might be writing.
+     */
+    private Future<?> pendingTask;
+
+    /**
+     * Counts the changes of the equation and the tasks given to the worker. A result of the worker is only shown if
+     * neither happened since it was asked for. Only the event dispatch thread changes it (see {@link #invalidate()}).
+     */
+    private volatile long generation;
+
+    /**
+     * The budget of the last evaluation or conversion given to the worker. It is cancelled as soon as the equation changes,
+     * so that a calculation whose result won't be shown stops at its next check instead of delaying the next one.
+     * Only the event dispatch thread uses it.
+     */
+    private Budget pendingBudget;
+
+    /**
+     * The latest result of the worker waiting to be shown. When several results are ready before the event dispatch
+     * thread gets to them, only the latest one is shown, with a single event.
+     */
+    private final AtomicReference<Runnable> pendingUpdate = new AtomicReference<>();
+
 
     /**
      * Launches the graphical user interface (GUI) for user interaction and input processing.
@@ -57,6 +116,14 @@ public class GUI {
         frame.setSize(350,500);
         frame.setLayout(null);
 
+        //open the history of the calculations, but the calculator still works without it
+        try {
+            history = History.open(Main.getAppDirectory());
+            recallPosition = history.size();
+        } catch (IOException e) {
+            Logger.log("Could not open the history: " + e.getMessage(), (byte) WinNT.EVENTLOG_WARNING_TYPE);
+        }
+
         //generated the label in witch the user can type the equation
         JLabel label = new JLabel("Type an equation here");
         label.setHorizontalAlignment(JLabel.CENTER);
@@ -100,43 +167,28 @@ public class GUI {
             }
         });
 
-        convertToBase2Button.addActionListener(e -> {
-            //trying to convert the string in the label/text to a number, but it might fail if the user has simbols (ex.: "5+8" or "3*")
-            try {
-                int equation = Integer.parseInt(text.toString());
-                if(equation < 0)
-                    equation *= -1;
-                text.setLength(0);
-                text.append(Evaluator.convertToBaseN(equation, 10, 2));
-                label.setText(text.toString());
-            } catch (NumberFormatException ex) {
-                //throw and error message and log the error
-                JOptionPane.showMessageDialog(null, "Please enter a valid number!", "Error", JOptionPane.ERROR_MESSAGE);
-                Logger.log("Tried to convert " + text + " to base 2!" , (byte) WinNT.EVENTLOG_ERROR_TYPE);
-            }
-        });
+        convertToBase2Button.addActionListener(e -> convert(10, 2, label, text));
 
-        convertToBase10Button.addActionListener(e -> {
-            //trying to convert the string in the label/text to a number, but it might fail if the user has simbols (ex.: "5+8" or "3*")
-            try {
-                int equation = Integer.parseInt(text.toString());
-                if(equation < 0)
-                    equation *= -1;
-                text.setLength(0);
-                text.append(Evaluator.convertToBaseN(equation, 2, 10));
-                label.setText(text.toString());
-            } catch (NumberFormatException ex) {
-                //throw and error message and log the error
-                JOptionPane.showMessageDialog(null, "Please enter a valid number!", "Error", JOptionPane.ERROR_MESSAGE);
-                Logger.log("Tried to convert " + text + " to base 10!" , (byte) WinNT.EVENTLOG_ERROR_TYPE);
-            }
-        });
+        convertToBase10Button.addActionListener(e -> convert(2, 10, label, text));
 
         frame.addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
                 //log the closing of the current window and closing it
                 Logger.log("Calculator closed", (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+                //let the worker finish what it started, such as adding the last calculation to the history
+                worker.shutdown();
+                try {
+                    worker.awaitTermination(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                if (history != null)
+                    try {
+                        history.close();
+                    } catch (IOException ex) {
+                        Logger.log("Could not close the history: " + ex.getMessage(), (byte) WinNT.EVENTLOG_WARNING_TYPE);
+                    }
                 frame.dispose();
             }
         });
@@ -150,13 +202,19 @@ public class GUI {
      * Updates the input displayed on a JLabel based on the provided character or key code.
      * This method handles various user input scenarios for constructing or modifying
      * a mathematical expression, evaluating the expression, or resetting the input.
+     * The evaluations and the history are handled on the worker thread, and their results are shown later,
+     * so the method returns quickly whatever the key. It must be called from the event dispatch thread.
      *
      * @param keyChar the character input from the user, such as numbers or symbols
      * @param keyCode the code of the key pressed, such as enter, backspace, or clear
      * @param label the JLabel that displays the current input or result
      * @param text the StringBuilder object holding the current mathematical expression
      */
-    private void updateInput(char keyChar, int keyCode, JLabel label,StringBuilder text) {
+    void updateInput(char keyChar, int keyCode, JLabel label,StringBuilder text) {
+        //the keys only append to the equation, shorten it or clear it, so its length tells whether it changed
+        // (keys like Shift or Ctrl change nothing, and must not throw away the result being worked on)
+        int length = text.length();
+
         //check if the key pressed is allowed
         if(isCharAllowed(keyChar)){
             //check if the key is a number, also, we dont need to check for last input because we want to let the user be able to type multiple digits numbers (ex.: 234)
@@ -190,16 +248,49 @@ public class GUI {
         }
         //if the char is not an allowed char, then it is either enter,'c',or backspace, or an random char, so we check for each one
         else if(keyCode == KeyEvent.VK_ENTER){
-            //evaluate the current expression that we have in text
-            int a = Evaluator.evaluateExpression(text.toString());
-            //reset text
-            text.setLength(0);
-            //set text to the result of the equation
-            text.append(a);
-            //update label to the updated text
-            label.setText(String.valueOf(a));
-            //reset lastInput
-            lastInput = -1;
+            //evaluate the current expression that we have in text, exactly, so that big results don't wrap around
+            String expression = text.toString();
+            invalidate();
+            Budget budget = pendingBudget = Budget.fromSettings();
+            runInBackground(() -> {
+                Number a;
+                try {
+                    a = Evaluator.evaluateExactExpression(expression, budget);
+                } catch (ArithmeticException ex) {
+                    Logger.log("Tried to evaluate " + expression + ": " + ex.getMessage(), (byte) WinNT.EVENTLOG_ERROR_TYPE);
+                    return () -> JOptionPane.showMessageDialog(null, "Cannot divide by zero!", "Error", JOptionPane.ERROR_MESSAGE);
+                } catch (BudgetExceededException ex) {
+                    return tooBig(ex);
+                }
+                //keep the calculation in the history
+                remember(expression, a);
+                return () -> {
+                    //reset text
+                    text.setLength(0);
+                    //set text to the result of the equation
+                    text.append(a);
+                    //update label to the updated text
+                    label.setText(String.valueOf(a));
+                    //reset lastInput
+                    lastInput = -1;
+                };
+            });
+        }
+        else if((keyCode == KeyEvent.VK_UP || keyCode == KeyEvent.VK_DOWN) && history != null) {
+            //show the previous or next expression of the history
+            int step = keyCode == KeyEvent.VK_UP ? -1 : 1;
+            invalidate();
+            runInBackground(() -> {
+                String expression = recall(step);
+                if (expression == null)
+                    return null;
+                return () -> {
+                    text.setLength(0);
+                    text.append(expression);
+                    label.setText(text.toString());
+                    updateLastInput(text);
+                };
+            });
         }
         else if(keyCode == KeyEvent.VK_C) {
             //clear the equation/text and reset lastInput
@@ -213,10 +304,7 @@ public class GUI {
             label.setText(text.toString());
 
             //make sure that the lastInput is set correctly so no wrong char can be inputted (ex.: 4+5 (press backspace) -> 4+ (press '+') -> 4++)
-            if(!text.isEmpty() && text.charAt(text.length() - 1) >= 48 && text.charAt(text.length() - 1) <= 57)
-                lastInput = -1;
-            else if(!text.isEmpty())
-                lastInput = 0;
+            updateLastInput(text);
         }
 
         //if the equation is empty, we reset the lastInput and set the label to 0
@@ -224,6 +312,164 @@ public class GUI {
             label.setText("0");
             lastInput = -1;
         }
+
+        //a changed equation makes the results still being worked on stale
+        if (text.length() != length)
+            invalidate();
+    }
+
+    /**
+     * Converts the number of the equation from a base to another on the worker, and shows it if the equation didn't change.
+     *
+     * @param base       the base of the number in the equation.
+     * @param targetBase the base the number is converted to.
+     * @param label      the JLabel that displays the current input or result
+     * @param text       the StringBuilder object holding the current mathematical expression
+     */
+    private void convert(int base, int targetBase, JLabel label, StringBuilder text) {
+        invalidate();
+        //the sign is dropped, and the number can be longer than an int
+        String equation = text.toString();
+        String number = equation.startsWith("-") ? equation.substring(1) : equation;
+        Budget budget = pendingBudget = Budget.fromSettings();
+        runInBackground(() -> {
+            //trying to convert the string in the label/text to a number, but it might fail if the user has simbols (ex.: "5+8" or "3*")
+            try {
+                String converted = Evaluator.convertToBaseN(number, base, targetBase, budget);
+                return () -> {
+                    text.setLength(0);
+                    text.append(converted);
+                    label.setText(text.toString());
+                };
+            } catch (NumberFormatException ex) {
+                //log the error and throw and error message
+                Logger.log("Tried to convert " + equation + " to base " + targetBase + "!" , (byte) WinNT.EVENTLOG_ERROR_TYPE);
+                return () -> JOptionPane.showMessageDialog(null, "Please enter a valid number!", "Error", JOptionPane.ERROR_MESSAGE);
+            } catch (BudgetExceededException ex) {
+                return tooBig(ex);
+            }
+        });
+    }
+
+    /**
+     * Makes the results still being worked on stale, and cancels the budget of the last calculation so that it stops
+     * at its next check. It is called when the equation changes and before a new task is given to the worker.
+     */
+    private void invalidate() {
+        generation++;
+        if (pendingBudget != null)
+            pendingBudget.cancel();
+    }
+
+    /**
+     * Returns what to show when a calculation was stopped by its budget: nothing if it was cancelled because
+     * the equation changed, and an error message otherwise.
+     *
+     * @param exception the reason the calculation was stopped.
+     * @return the error message to show, or null.
+     */
+    private static Runnable tooBig(BudgetExceededException exception) {
+        if (exception.getLimit() == BudgetExceededException.Limit.CANCELLED)
+            return null;
+        return () -> JOptionPane.showMessageDialog(null, "The calculation is too big!", "Error", JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * Runs a task on the worker thread, cancelling the previous task if it hasn't started yet.
+     * The task returns what must be done on the event dispatch thread with its result (or null for nothing),
+     * which is only done if the equation didn't change while the task was running.
+     *
+     * Must be called from the event dispatch thread, after the change of the equation that asked for the task.
+     *
+     * @param task the work to be done in the background.
+     */
+    private void runInBackground(Callable<Runnable> task) {
+        long requested = generation;
+        if (pendingTask != null)
+            pendingTask.cancel(false);
+        pendingTask = worker.submit(() -> {
+            //a task that became stale while it was waiting is not worth running
+            if (requested != generation)
+                return;
+            try {
+                Runnable update = task.call();
+                if (update != null)
+                    show(requested, update);
+            } catch (Exception e) {
+                Logger.log("A background task of the GUI failed: " + e, (byte) WinNT.EVENTLOG_ERROR_TYPE);
+            }
+        });
+    }
+
+    /**
+     * Hands a result of the worker to the event dispatch thread. If a result is already waiting there, it is replaced,
+     * so that a burst of results only costs one event and one repaint.
+     *
+     * @param requested the generation of the equation the result was asked for.
+     * @param update    what must be done on the event dispatch thread to show the result.
+     */
+    private void show(long requested, Runnable update) {
+        Runnable guarded = () -> {
+            if (requested == generation)
+                update.run();
+        };
+        if (pendingUpdate.getAndSet(guarded) == null)
+            SwingUtilities.invokeLater(() -> pendingUpdate.getAndSet(null).run());
+    }
+
+    /**
+     * Sets the lastInput to match the end of the equation, like after a backspace.
+     *
+     * @param text the StringBuilder object holding the current mathematical expression
+     */
+    private void updateLastInput(StringBuilder text) {
+        if(!text.isEmpty() && text.charAt(text.length() - 1) >= 48 && text.charAt(text.length() - 1) <= 57)
+            lastInput = -1;
+        else if(!text.isEmpty())
+            lastInput = 0;
+    }
+
+    /**
+     * Appends a calculation to the history, and goes back to the end of the history for the arrows.
+     * It runs on the worker thread, like everything else that uses the history.
+     *
+     * @param expression the expression that was evaluated.
+     * @param result     the result of the expression.
+     */
+    private void remember(String expression, Number result) {
+        if (history == null || expression.isEmpty())
+            return;
+        try {
+            history.append(expression, result.toString());
+            recallPosition = history.size();
+        } catch (IOException e) {
+            Logger.log("Could not add " + expression + " to the history: " + e.getMessage(), (byte) WinNT.EVENTLOG_WARNING_TYPE);
+        }
+    }
+
+    /**
+     * Reads the expression of the history that replaces the equation, moving from the one shown by the given step.
+     * Moving past the newest expression gives an empty equation, to type a new one.
+     * It runs on the worker thread, like everything else that uses the history.
+     *
+     * @param step -1 for the previous expression, 1 for the next one.
+     * @return the expression, or null if there is none in that direction or it can't be read.
+     */
+    private String recall(int step) {
+        long position = recallPosition + step;
+        if (position < 0 || position > history.size())
+            return null;
+
+        String expression = "";
+        if (position < history.size())
+            try {
+                expression = history.get(position).expression;
+            } catch (IOException e) {
+                Logger.log("Could not read the history: " + e.getMessage(), (byte) WinNT.EVENTLOG_WARNING_TYPE);
+                return null;
+            }
+        recallPosition = position;
+        return expression;
     }
 
     /**
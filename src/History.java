@@ -0,0 +1,345 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * The History class keeps every calculation (expression, result and time) in two files of the application folder,
+ * so that they can be recalled later, even after the application was restarted.
+ *
+ * The calculations are appended to a binary journal, history.journal, one record after the other:
+ *
+ *     int length | long time | int expression length | expression (UTF-8) | result (UTF-8) | int CRC32
+ *
+ * where the length and the CRC32 cover everything between them. Next to it, history.index is a memory-mapped array
+ * with the offset and the time of every record (16 bytes each), after a header holding the number of entries.
+ * Reading entry N is one lookup in the index and one read in the journal, and since the times only grow,
+ * the entries of a time range are found with a binary search over the index, without reading the journal.
+ *
+ * The files are not forced to the disk after every entry. If the application stops in the middle of an append,
+ * the torn record fails its checksum and is dropped the next time the history is opened, and the entries that
+ * reached the journal but not the index are indexed again, so the files never disagree.
+ * The methods are synchronized, so a history can be shared between threads.
+ */
+public final class History implements Closeable {
+
+    /**
+     * The first 4 bytes of the journal, "SCJ1".
+     */
+    private static final int journalMagic = 0x53434A31;
+
+    /**
+     * The first 4 bytes of the index, "SCI1".
+     */
+    private static final int indexMagic = 0x53434931;
+
+    /**
+     * The size of the header of the index: the magic number, 4 unused bytes and the number of entries.
+     */
+    private static final int indexHeaderSize = 16;
+
+    /**
+     * The size of one entry of the index: the offset of the record in the journal and its time.
+     */
+    private static final int indexEntrySize = 16;
+
+    /**
+     * The number of entries the index has room for when it is created. It doubles every time it is full.
+     */
+    private static final long initialIndexEntries = 1 << 16;
+
+    /**
+     * The largest record accepted when the journal is read, to stop at garbage instead of allocating a huge buffer.
+     */
+    private static final int maxRecordSize = 1 << 24;
+
+    /**
+     * The number of bytes read at once when reading a record, enough for the whole record most of the time.
+     */
+    private static final int readAhead = 256;
+
+    private final FileChannel journal;
+    private final FileChannel indexChannel;
+
+    /**
+     * The mapped index, with room for `indexCapacity` entries.
+     */
+    private MappedByteBuffer index;
+    private long indexCapacity;
+
+    /**
+     * The number of entries in the history.
+     */
+    private long count;
+
+    /**
+     * The offset in the journal the next record is written at.
+     */
+    private long journalEnd;
+
+    /**
+     * The time of the newest entry. A new entry never gets an older time, even if the clock of the system goes back,
+     * so that the times in the index stay sorted.
+     */
+    private long lastTime;
+
+    /**
+     * Opens the history kept in a folder, creating its files if they don't exist yet.
+     *
+     * @param folder the folder of the history files, ex.: {@link Main#getAppDirectory()}.
+     * @return the history, which must be closed once it isn't used anymore.
+     * @throws IOException if the files can't be opened, or the journal is not a history journal.
+     */
+    public static History open(Path folder) throws IOException {
+        Files.createDirectories(folder);
+        return new History(folder.resolve("history.journal"), folder.resolve("history.index"));
+    }
+
+    private History(Path journalPath, Path indexPath) throws IOException {
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        try {
+            recover();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the state of the files: checks the journal, maps the index, and indexes the records that are missing from it.
+     */
+    private void recover() throws IOException {
+        //a new journal only has its magic number
+        if (journal.size() == 0)
+            writeFully(ByteBuffer.allocate(4).putInt(0, journalMagic), 0);
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        if (journal.read(magic, 0) != 4 || magic.getInt(0) != journalMagic)
+            throw new IOException("The file is not a history journal");
+
+        long indexedEntries = Math.max(0, (indexChannel.size() - indexHeaderSize) / indexEntrySize);
+        mapIndex(Math.max(initialIndexEntries, indexedEntries));
+        if (index.getInt(0) == indexMagic)
+            count = Math.min(index.getLong(8), indexedEntries);
+        else {
+            index.putInt(0, indexMagic);
+            count = 0;
+        }
+
+        //the last indexed record must be complete, otherwise the index is built again from the journal
+        journalEnd = 4;
+        if (count > 0) {
+            long offset = offset(count - 1);
+            ByteBuffer last = readRecord(offset);
+            if (last == null) {
+                count = 0;
+            } else {
+                journalEnd = offset + last.limit() + 8;
+                lastTime = time(count - 1);
+            }
+        }
+
+        //index the records written after the last indexed one, and drop what is left of a torn record
+        ByteBuffer record;
+        while ((record = readRecord(journalEnd)) != null) {
+            lastTime = Math.max(lastTime, record.getLong(0));
+            addToIndex(journalEnd, lastTime);
+            journalEnd += record.limit() + 8;
+        }
+        if (journal.size() > journalEnd)
+            journal.truncate(journalEnd);
+        index.putLong(8, count);
+    }
+
+    /**
+     * Appends a calculation to the history, with the current time.
+     *
+     * @param expression the expression that was evaluated.
+     * @param result     the result of the expression.
+     * @return the new entry.
+     * @throws IOException if the journal or the index can't be written.
+     */
+    public synchronized HistoryEntry append(String expression, String result) throws IOException {
+        byte[] expressionBytes = expression.getBytes(StandardCharsets.UTF_8);
+        byte[] resultBytes = result.getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 4 + expressionBytes.length + resultBytes.length;
+        if (length + 8 > maxRecordSize)
+            throw new IOException("The calculation is too long to be kept in the history");
+        long time = Math.max(System.currentTimeMillis(), lastTime);
+
+        ByteBuffer record = ByteBuffer.allocate(length + 8);
+        record.putInt(length).putLong(time).putInt(expressionBytes.length).put(expressionBytes).put(resultBytes);
+        CRC32 checksum = new CRC32();
+        checksum.update(record.array(), 4, length);
+        record.putInt((int) checksum.getValue()).flip();
+
+        //the record is written before it is indexed, so the index never points to a record that isn't there
+        writeFully(record, journalEnd);
+        addToIndex(journalEnd, time);
+        index.putLong(8, count);
+        journalEnd += record.limit();
+        lastTime = time;
+        return new HistoryEntry(count - 1, time, expression, result);
+    }
+
+    /**
+     * Returns the number of calculations in the history.
+     *
+     * @return the number of entries.
+     */
+    public synchronized long size() {
+        return count;
+    }
+
+    /**
+     * Reads one calculation of the history.
+     *
+     * @param number the position of the entry, from 0 for the oldest one to size() - 1 for the newest one.
+     * @return the entry.
+     * @throws IndexOutOfBoundsException if there is no such entry.
+     * @throws IOException               if the journal can't be read, or the record is damaged.
+     */
+    public synchronized HistoryEntry get(long number) throws IOException {
+        Objects.checkIndex(number, count);
+        ByteBuffer record = readRecord(offset(number));
+        if (record == null)
+            throw new IOException("The entry " + number + " of the history is damaged");
+        long time = record.getLong(0);
+        int expressionLength = record.getInt(8);
+        int start = record.arrayOffset() + 12;
+        String expression = new String(record.array(), start, expressionLength, StandardCharsets.UTF_8);
+        String result = new String(record.array(), start + expressionLength, record.limit() - 12 - expressionLength, StandardCharsets.UTF_8);
+        return new HistoryEntry(number, time, expression, result);
+    }
+
+    /**
+     * Finds the first calculation made at or after a time, with a binary search over the index.
+     *
+     * @param timeMillis the time, in milliseconds since the epoch.
+     * @return the position of the first entry at or after the time, or size() if there is none.
+     */
+    public synchronized long firstAtOrAfter(long timeMillis) {
+        long low = 0, high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (time(middle) < timeMillis)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Reads the calculations made in a time range.
+     *
+     * @param fromMillis the start of the range, included, in milliseconds since the epoch.
+     * @param toMillis   the end of the range, excluded.
+     * @return the entries of the range, oldest first.
+     * @throws IOException if the journal can't be read.
+     */
+    public synchronized List<HistoryEntry> between(long fromMillis, long toMillis) throws IOException {
+        long from = firstAtOrAfter(fromMillis), to = Math.max(from, firstAtOrAfter(toMillis));
+        List<HistoryEntry> entries = new ArrayList<>((int) Math.min(to - from, 1 << 16));
+        for (long number = from; number < to; number++)
+            entries.add(get(number));
+        return entries;
+    }
+
+    /**
+     * Writes the index and the journal to the disk and closes them.
+     *
+     * @throws IOException if the files can't be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try (journal; indexChannel) {
+            if (index != null && journal.isOpen()) {
+                index.force();
+                journal.force(false);
+            }
+        }
+    }
+
+    /**
+     * Adds an entry at the end of the index, mapping a bigger index first if it is full.
+     */
+    private void addToIndex(long offset, long time) throws IOException {
+        if (count == indexCapacity)
+            mapIndex(indexCapacity * 2);
+        int position = indexHeaderSize + Math.toIntExact(count * indexEntrySize);
+        index.putLong(position, offset);
+        index.putLong(position + 8, time);
+        count++;
+    }
+
+    /**
+     * Maps the index with room for the given number of entries, which makes the file that big.
+     */
+    private void mapIndex(long entries) throws IOException {
+        long size = indexHeaderSize + entries * indexEntrySize;
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("The history is full");
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        indexCapacity = entries;
+    }
+
+    private long offset(long number) {
+        return index.getLong(indexHeaderSize + Math.toIntExact(number * indexEntrySize));
+    }
+
+    private long time(long number) {
+        return index.getLong(indexHeaderSize + Math.toIntExact(number * indexEntrySize) + 8);
+    }
+
+    /**
+     * Reads the record at an offset of the journal.
+     *
+     * @return the part of the record between its length and its CRC32 (time, expression length, expression and result),
+     * or null if there is no complete record with a valid checksum at the offset.
+     */
+    private ByteBuffer readRecord(long offset) throws IOException {
+        //most records are short, so a single read usually gets the whole record along with its length
+        ByteBuffer record = ByteBuffer.allocate(readAhead);
+        int read = Math.max(0, journal.read(record, offset));
+        if (read < 4)
+            return null;
+        int length = record.getInt(0);
+        if (length < 12 || length > maxRecordSize)
+            return null;
+        if (length + 8 > read) {
+            ByteBuffer bigger = ByteBuffer.allocate(length + 8);
+            bigger.put(record.flip());
+            while (bigger.hasRemaining())
+                if (journal.read(bigger, offset + bigger.position()) < 0)
+                    return null;
+            record = bigger;
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(record.array(), 4, length);
+        int expressionLength = record.getInt(12);
+        if (record.getInt(4 + length) != (int) checksum.getValue() || expressionLength < 0 || expressionLength > length - 12)
+            return null;
+        return record.position(4).limit(4 + length).slice();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += journal.write(buffer, position);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * The HistoryEntry class holds one calculation of the {@link History}: the expression, its result and when it was made.
+ */
+public class HistoryEntry {
+
+    /**
+     * The position of the entry in the history, 0 for the oldest one.
+     */
+    final long number;
+
+    /**
+     * The time of the calculation, in milliseconds since the epoch.
+     */
+    final long timeMillis;
+
+    /**
+     * The expression that was evaluated.
+     */
+    final String expression;
+
+    /**
+     * The result of the expression, as it was shown.
+     */
+    final String result;
+
+    /**
+     * Creates a history entry.
+     *
+     * @param number     the position of the entry in the history.
+     * @param timeMillis the time of the calculation, in milliseconds since the epoch.
+     * @param expression the expression that was evaluated.
+     * @param result     the result of the expression.
+     */
+    HistoryEntry(long number, long timeMillis, String expression, String result) {
+        this.number = number;
+        this.timeMillis = timeMillis;
+        this.expression = expression;
+        this.result = result;
+    }
+
+    /**
+     * @return the position of the entry in the history, 0 for the oldest one.
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    /**
+     * @return the time of the calculation, in milliseconds since the epoch.
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return the expression that was evaluated.
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return the result of the expression.
+     */
+    public String getResult() {
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return expression + " = " + result;
+    }
+}
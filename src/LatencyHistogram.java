@@ -0,0 +1,133 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyHistogram class counts how many times an operation took each duration, so that its percentiles can be read.
+ *
+ * The durations are counted in buckets that are 1/8 of a power of two wide (0-15 ns exactly, then 16-17, 18-19, ... 32-35, ...),
+ * so a percentile is never off by more than 12.5%, whatever the duration, and every possible duration
+ * fits in 488 buckets. Recording a duration is a single atomic increment, without any lock.
+ * The counts are spread over several stripes picked by the recording thread, so threads recording at the same time
+ * rarely write to the same memory; reading the histogram adds the stripes together.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The number of buckets every power of two is split into, as a power of two.
+     */
+    private static final int subBucketBits = 3;
+
+    /**
+     * The number of buckets every power of two is split into.
+     */
+    private static final int subBuckets = 1 << subBucketBits;
+
+    /**
+     * The number of buckets needed for every positive long.
+     */
+    static final int bucketCount = (64 - subBucketBits) * subBuckets;
+
+    /**
+     * The number of stripes, a power of two at least as big as the number of processors.
+     */
+    private static final int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    /**
+     * The counts of every bucket of every stripe, stripe after stripe.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(stripes * bucketCount);
+
+    /**
+     * The sum of the durations recorded, to calculate their mean.
+     */
+    private final LongAdder total = new LongAdder();
+
+    /**
+     * The longest duration recorded.
+     */
+    private final LongAccumulator maximum = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Counts one duration.
+     *
+     * @param nanos the duration in nanoseconds. A negative duration counts as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        //mixing the thread id spreads consecutive ids over the stripes
+        int stripe = (int) ((Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L) >>> 40) & (stripes - 1);
+        counts.getAndIncrement(stripe * bucketCount + bucketIndex(nanos));
+        total.add(nanos);
+        maximum.accumulate(nanos);
+    }
+
+    /**
+     * Returns the bucket a duration is counted in.
+     */
+    static int bucketIndex(long nanos) {
+        if (nanos < subBuckets)
+            return (int) nanos;
+        //the position of the highest bit picks the power of two, and the next bits pick the bucket inside it
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - subBucketBits)) & (subBuckets - 1);
+        return (exponent - subBucketBits + 1) * subBuckets + subBucket;
+    }
+
+    /**
+     * Returns the smallest duration counted in a bucket.
+     */
+    static long bucketStart(int index) {
+        if (index < subBuckets)
+            return index;
+        int exponent = index / subBuckets + subBucketBits - 1;
+        return (long) (subBuckets + index % subBuckets) << (exponent - subBucketBits);
+    }
+
+    /**
+     * Takes a snapshot of the counts, adding the stripes together.
+     *
+     * @return the percentiles, mean and maximum of the durations recorded so far.
+     */
+    public LatencySnapshot snapshot() {
+        long[] buckets = new long[bucketCount];
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long value = counts.get(i);
+            buckets[i % bucketCount] += value;
+            count += value;
+        }
+
+        long max = maximum.get();
+        return new LatencySnapshot(count, count == 0 ? 0 : total.sum() / count,
+                percentile(buckets, count, 0.50, max), percentile(buckets, count, 0.90, max),
+                percentile(buckets, count, 0.99, max), percentile(buckets, count, 0.999, max), max);
+    }
+
+    /**
+     * Returns the duration under which the given fraction of the durations are, as the last duration of its bucket
+     * (so it is never below the real percentile), but never above the longest duration recorded.
+     */
+    private static long percentile(long[] buckets, long count, double fraction, long max) {
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(fraction * count), seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return i + 1 < buckets.length ? Math.min(bucketStart(i + 1) - 1, max) : max;
+        }
+        return max;
+    }
+
+    /**
+     * Forgets every duration recorded. Durations recorded at the same time might be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+        total.reset();
+        maximum.reset();
+    }
+}
@@ -0,0 +1,86 @@
+import java.beans.ConstructorProperties;
+
+/**
+ * The LatencySnapshot class holds the statistics of a {@link LatencyHistogram} at one moment: how many durations
+ * were recorded, their mean, some percentiles and the longest one, all in nanoseconds.
+ *
+ * It is shown as a composite value by JMX clients such as JConsole (see {@link MetricsMXBean}).
+ */
+public final class LatencySnapshot {
+
+    private final long count;
+    private final long mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    /**
+     * Creates a snapshot from its statistics.
+     */
+    @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "p999", "max"})
+    public LatencySnapshot(long count, long mean, long p50, long p90, long p99, long p999, long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    /**
+     * @return the number of durations recorded.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the mean duration, in nanoseconds.
+     */
+    public long getMean() {
+        return mean;
+    }
+
+    /**
+     * @return the median duration, in nanoseconds.
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * @return the duration 90% of the durations are under, in nanoseconds.
+     */
+    public long getP90() {
+        return p90;
+    }
+
+    /**
+     * @return the duration 99% of the durations are under, in nanoseconds.
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * @return the duration 99.9% of the durations are under, in nanoseconds.
+     */
+    public long getP999() {
+        return p999;
+    }
+
+    /**
+     * @return the longest duration, in nanoseconds.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + mean + "ns p50=" + p50 + "ns p90=" + p90 + "ns p99=" + p99 + "ns p99.9=" + p999 + "ns max=" + max + "ns";
+    }
+}
@@ -0,0 +1,71 @@
+import java.time.Instant;
+
+/**
+ * The LogEvent class holds everything needed to write one log entry after the call to {@link Logger} has returned.
+ *
+ * The entry is only formatted when it is written, so creating an event costs no more than
+ * capturing the time, the calling class and the message.
+ */
+public class LogEvent {
+
+    /**
+     * The time the event was logged at, in nanoseconds since the epoch, as precise as the system clock is.
+     */
+    final long timeNanos;
+
+    /**
+     * The time the event was logged at, in milliseconds since the epoch (timeNanos rounded down).
+     */
+    final long timeMillis;
+
+    /**
+     * The name of the class that logged the event.
+     */
+    final String className;
+
+    /**
+     * The message of the event.
+     */
+    final String message;
+
+    /**
+     * The severity level of the event, using the Windows Event Viewer types (ex.: WinNT.EVENTLOG_ERROR_TYPE).
+     */
+    final byte eventLevel;
+
+    /**
+     * Whether the event should also be sent to the Windows Event Viewer, or only written to the logs file.
+     */
+    final boolean toEventViewer;
+
+    /**
+     * Creates a log event.
+     *
+     * @param timeNanos     the time the event was logged at, in nanoseconds since the epoch (see {@link #now()}).
+     * @param className     the name of the class that logged the event.
+     * @param message       the message of the event.
+     * @param eventLevel    the severity level of the event.
+     * @param toEventViewer whether the event should also be sent to the Windows Event Viewer.
+     */
+    LogEvent(long timeNanos, String className, String message, byte eventLevel, boolean toEventViewer) {
+        this.timeNanos = timeNanos;
+        this.timeMillis = Math.floorDiv(timeNanos, 1_000_000);
+        this.className = className;
+        this.message = message;
+        this.eventLevel = eventLevel;
+        this.toEventViewer = toEventViewer;
+    }
+
+    /**
+     * Gets the current time in nanoseconds since the epoch, to create an event with.
+     *
+     * System.currentTimeMillis only has milliseconds, while the clock of Instant.now() has the precision of the system
+     * clock (usually microseconds), so the events logged in the same millisecond keep their order in the binary logs.
+     *
+     * @return the current time, in nanoseconds since the epoch.
+     */
+    static long now() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The LogQuery class reads the log entries of a time range from the segments written by a {@link RotatingLogSink}.
+ *
+ * Instead of reading every segment from its start, it goes through their indexes and only reads the blocks
+ * whose time range overlaps the one asked for, so finding the entries of an hour among gigabytes of logs
+ * only reads the few blocks of that hour (plus what follows the last indexed block of the current segment,
+ * which hasn't been indexed yet). Compressed and uncompressed segments, text and binary, can be mixed.
+ *
+ * The numbers of blocks read and skipped are kept, to see how much the indexes saved.
+ */
+public class LogQuery {
+
+    private final Path folder;
+    private final String name;
+
+    //what the queries read
+    private long blocksRead;
+    private long blocksSkipped;
+    private long bytesRead;
+
+    /**
+     * Creates a query over the segments of a folder.
+     *
+     * @param folder the folder of the segments.
+     * @param name   the name of the segments, ex.: "logs" for logs.txt and logs-[time].txt.gz.
+     */
+    public LogQuery(Path folder, String name) {
+        this.folder = folder;
+        this.name = name;
+    }
+
+    /**
+     * Reads the entries logged in a time range, from the oldest segment to the current one.
+     *
+     * The times of the text entries only have whole seconds, so an entry logged during the second `fromMillis`
+     * falls in might come before it.
+     *
+     * @param fromMillis the start of the range, included, in milliseconds since the epoch.
+     * @param toMillis   the end of the range, excluded.
+     * @param action     what to do with every entry of the range.
+     * @return the number of entries of the range.
+     * @throws IOException if a segment or an index can't be read.
+     */
+    public long query(long fromMillis, long toMillis, Consumer<LogEvent> action) throws IOException {
+        List<Path> segments = RotatingLogSink.closedSegments(folder, name);
+        for (boolean binary : new boolean[]{false, true}) {
+            Path current = folder.resolve(name + RotatingLogSink.extension(binary));
+            if (Files.exists(current))
+                segments.add(current);
+        }
+
+        long found = 0;
+        for (Path segment : segments)
+            try {
+                //a segment that was just compressed is only read once, from its compressed file
+                if (Files.exists(segment.resolveSibling(segment.getFileName() + ".gz")))
+                    continue;
+                found += query(segment, fromMillis, toMillis, action);
+            } catch (NoSuchFileException e) {
+                //the segment was compressed or deleted while we were reading the others
+            }
+        return found;
+    }
+
+    /**
+     * Reads the entries of one segment logged in a time range.
+     */
+    private long query(Path segment, long fromMillis, long toMillis, Consumer<LogEvent> action) throws IOException {
+        String fileName = segment.getFileName().toString();
+        boolean compressed = fileName.endsWith(".gz");
+        boolean binary = fileName.endsWith(".bin") || fileName.endsWith(".bin.gz");
+        long fromNanos = fromMillis * 1_000_000, toNanos = toMillis * 1_000_000;
+
+        long found = 0;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            //a block is read if its time range overlaps the one asked for
+            List<long[]> blocks = readIndex(RotatingLogSink.indexOf(segment));
+            long end = binary && !compressed ? 4 : 0;
+            for (long[] block : blocks) {
+                end = block[0] + block[1];
+                if (block[3] < fromNanos || block[2] >= toNanos) {
+                    blocksSkipped++;
+                    continue;
+                }
+                found += readBlock(channel, block[0], block[1], compressed, binary, fromMillis, toMillis, action);
+            }
+
+            //what follows the last indexed block of an uncompressed segment has no index yet, so it is always read
+            if (!compressed && channel.size() > end)
+                found += readBlock(channel, end, channel.size() - end, false, binary, fromMillis, toMillis, action);
+        }
+        return found;
+    }
+
+    private long readBlock(FileChannel channel, long offset, long length, boolean compressed, boolean binary,
+                           long fromMillis, long toMillis, Consumer<LogEvent> action) throws IOException {
+        blocksRead++;
+        bytesRead += length;
+        InputStream in = new BufferedInputStream(new RangeInputStream(channel, offset, length), 1 << 16);
+        if (compressed)
+            in = new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16);
+
+        LogSegmentReader reader = new LogSegmentReader(in, binary);
+        long found = 0;
+        LogEvent event;
+        while ((event = reader.next()) != null)
+            if (event.timeMillis >= fromMillis && event.timeMillis < toMillis) {
+                action.accept(event);
+                found++;
+            }
+        return found;
+    }
+
+    /**
+     * Reads the index of a segment.
+     *
+     * @param index the index file.
+     * @return the blocks of the segment, each as {offset, length, oldest time, newest time}, the times in nanoseconds since the epoch,
+     * or no block if there is no index.
+     * @throws IOException if the index can't be read.
+     */
+    static List<long[]> readIndex(Path index) throws IOException {
+        List<long[]> blocks = new ArrayList<>();
+        ByteBuffer bytes;
+        try {
+            bytes = ByteBuffer.wrap(Files.readAllBytes(index));
+        } catch (NoSuchFileException e) {
+            return blocks;
+        }
+        if (bytes.remaining() < 4 || bytes.getInt() != RotatingLogSink.indexMagic)
+            return blocks;
+        //an entry cut short at the end is ignored, its block is then read like the rest of an unindexed segment
+        while (bytes.remaining() >= RotatingLogSink.indexEntrySize)
+            blocks.add(new long[]{bytes.getLong(), bytes.getLong(), bytes.getLong(), bytes.getLong()});
+        return blocks;
+    }
+
+    /**
+     * Returns the number of blocks read by the queries so far.
+     *
+     * @return the number of blocks read.
+     */
+    public long getBlocksRead() {
+        return blocksRead;
+    }
+
+    /**
+     * Returns the number of blocks the queries so far didn't have to read, thanks to the indexes.
+     *
+     * @return the number of blocks skipped.
+     */
+    public long getBlocksSkipped() {
+        return blocksSkipped;
+    }
+
+    /**
+     * Returns the number of bytes of segments read by the queries so far, compressed or not.
+     *
+     * @return the number of bytes read.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * A stream reading a range of a channel with positional reads, without closing the channel.
+     */
+    private static final class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RangeInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end)
+                return -1;
+            int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (read > 0)
+                position += read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+import com.sun.jna.platform.win32.WinNT;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The LogSegmentReader class reads back the entries written by a {@link RotatingLogSink}, one after the other,
+ * from a stream holding a whole segment or one of its blocks.
+ *
+ * Text entries have the form "[yyyy-MM-dd HH:mm:ss] [Class: name] message", and the lines that don't start like
+ * an entry belong to the message of the entry before them. Their level isn't written, so they are read back as
+ * information, with the time rounded down to the second. Binary entries are read back exactly, except that their
+ * time is rounded down to the millisecond.
+ *
+ * A record cut short, like the last one of a segment whose application was killed while writing it, ends the reading.
+ */
+class LogSegmentReader {
+
+    /**
+     * The formatter of the time of the text entries, the same as the one of the Logger.
+     */
+    private static final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * The length of "[yyyy-MM-dd HH:mm:ss] [Class: ", which starts every text entry.
+     */
+    private static final int textHeaderLength = 30;
+
+    private final InputStream in;
+    private final boolean binary;
+
+    /**
+     * The number of bytes of the stream taken by the entries read so far.
+     */
+    private long position;
+
+    /**
+     * The names of the sources defined so far in the block, by their id (binary only).
+     */
+    private final List<String> sources = new ArrayList<>();
+
+    /**
+     * The time of the last entry read, in nanoseconds since the epoch.
+     */
+    private long lastNanos;
+
+    /**
+     * The last time text that was parsed, with its value, since most entries are written within the same second as the previous one.
+     */
+    private String lastTimeText;
+    private long lastTimeMillis;
+
+    /**
+     * A text line read ahead to know where the message of the entry before it ends, or null.
+     */
+    private byte[] nextLine;
+
+    /**
+     * The bytes of the text read from the stream but not yet split into lines.
+     */
+    private final byte[] buffer;
+    private int bufferStart, bufferEnd;
+
+    /**
+     * Creates a reader of the entries of a stream.
+     *
+     * @param in     the stream, positioned at the start of an entry, preferably buffered for binary entries (text is read in chunks).
+     *               It isn't closed by the reader.
+     * @param binary whether the entries are in the binary format, or in the text format.
+     */
+    LogSegmentReader(InputStream in, boolean binary) {
+        this.in = in;
+        this.binary = binary;
+        this.buffer = binary ? null : new byte[1 << 13];
+    }
+
+    /**
+     * Reads the next entry.
+     *
+     * @return the entry, or null at the end of the stream or at a record cut short.
+     * @throws IOException if the stream can't be read.
+     */
+    LogEvent next() throws IOException {
+        return binary ? nextBinary() : nextText();
+    }
+
+    /**
+     * Returns the number of bytes of the stream taken by the entries read so far, which is where the next entry starts.
+     *
+     * @return the position after the last entry read.
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the time of the last entry read, in nanoseconds since the epoch.
+     *
+     * @return the time of the last entry.
+     */
+    long getLastNanos() {
+        return lastNanos;
+    }
+
+    private LogEvent nextBinary() throws IOException {
+        while (true) {
+            byte[] lengthBytes = in.readNBytes(4);
+            if (lengthBytes.length < 4)
+                return null;
+            int length = ByteBuffer.wrap(lengthBytes).getInt();
+            if (length < RotatingLogSink.binaryHeaderSize - 4 || length > RotatingLogSink.maxBinaryRecordSize)
+                return null;
+            byte[] record = in.readNBytes(length);
+            if (record.length < length)
+                return null;
+            position += 4 + length;
+
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            long nanos = buffer.getLong();
+            byte level = buffer.get();
+            int sourceId = Short.toUnsignedInt(buffer.getShort());
+            String text = new String(record, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+
+            //a source definition gives the name of the class of the id, for the entries after it
+            if (level == RotatingLogSink.sourceDefinition) {
+                while (sources.size() <= sourceId)
+                    sources.add(null);
+                sources.set(sourceId, text);
+                continue;
+            }
+            String className = sourceId < sources.size() && sources.get(sourceId) != null ? sources.get(sourceId) : "#" + sourceId;
+            lastNanos = nanos;
+            return new LogEvent(nanos, className, text, level, false);
+        }
+    }
+
+    private LogEvent nextText() throws IOException {
+        //skip whatever isn't the start of an entry, which can only happen at the start of a damaged stream
+        byte[] line;
+        long millis;
+        while (true) {
+            line = nextLine != null ? nextLine : readLine();
+            nextLine = null;
+            if (line == null)
+                return null;
+            position += line.length;
+            millis = entryTime(line);
+            if (millis != Long.MIN_VALUE)
+                break;
+        }
+
+        String entry = new String(line, 0, lineLength(line), StandardCharsets.UTF_8);
+        int classEnd = entry.indexOf("] ", textHeaderLength);
+        if (classEnd < 0)
+            classEnd = entry.length();
+        StringBuilder message = new StringBuilder().append(entry, Math.min(entry.length(), classEnd + 2), entry.length());
+
+        //the next lines belong to the message until a line starts like an entry
+        while ((nextLine = readLine()) != null && entryTime(nextLine) == Long.MIN_VALUE) {
+            position += nextLine.length;
+            message.append('\n').append(new String(nextLine, 0, lineLength(nextLine), StandardCharsets.UTF_8));
+        }
+
+        lastNanos = millis * 1_000_000;
+        return new LogEvent(lastNanos, entry.substring(textHeaderLength, classEnd), message.toString(), (byte) WinNT.EVENTLOG_INFORMATION_TYPE, false);
+    }
+
+    /**
+     * Reads a line with its line separator.
+     *
+     * @return the bytes of the line, or null at the end of the stream or at a line cut short.
+     */
+    private byte[] readLine() throws IOException {
+        byte[] line = null;
+        int length = 0;
+        while (true) {
+            if (bufferStart == bufferEnd) {
+                bufferStart = 0;
+                bufferEnd = Math.max(0, in.read(buffer));
+                //a last line without its separator was cut short
+                if (bufferEnd == 0)
+                    return null;
+            }
+
+            //the line is copied out of the buffer once its end is found, or in pieces when it goes past the buffer
+            int end = bufferStart;
+            while (end < bufferEnd && buffer[end] != '\n')
+                end++;
+            boolean complete = end < bufferEnd;
+            if (complete)
+                end++;
+            int piece = end - bufferStart;
+            if (line == null)
+                line = Arrays.copyOfRange(buffer, bufferStart, end);
+            else {
+                line = Arrays.copyOf(line, length + piece);
+                System.arraycopy(buffer, bufferStart, line, length, piece);
+            }
+            length += piece;
+            bufferStart = end;
+            if (complete)
+                return line;
+        }
+    }
+
+    /**
+     * Returns the length of a line without its line separator.
+     */
+    private static int lineLength(byte[] line) {
+        int length = line.length;
+        if (length > 0 && line[length - 1] == '\n')
+            length--;
+        if (length > 0 && line[length - 1] == '\r')
+            length--;
+        return length;
+    }
+
+    /**
+     * Reads the time of a line that starts like an entry.
+     *
+     * @return the time, in milliseconds since the epoch, or Long.MIN_VALUE if the line doesn't start like an entry.
+     */
+    private long entryTime(byte[] line) {
+        if (line.length < textHeaderLength || line[0] != '[' || line[20] != ']' || line[22] != '[')
+            return Long.MIN_VALUE;
+        String time = new String(line, 1, 19, StandardCharsets.US_ASCII);
+        if (time.equals(lastTimeText))
+            return lastTimeMillis;
+        try {
+            long millis = LocalDateTime.parse(time, timeFormatter).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            lastTimeText = time;
+            lastTimeMillis = millis;
+            return millis;
+        } catch (DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * The LogSink interface is a destination the {@link Logger} sends its log events to,
+ * such as the logs file, the Windows Event Viewer or memory.
+ *
+ * The Logger calls {@link #write(LogEvent)} for every event that passes the sink's level threshold, and then
+ * {@link #flush()} once the events of a batch have been written (after every event when logging synchronously).
+ * A sink can be called from several threads when logging synchronously, so implementations must be thread-safe.
+ */
+public interface LogSink {
+
+    /**
+     * Writes or buffers a log event.
+     *
+     * @param event the event to be written.
+     */
+    void write(LogEvent event);
+
+    /**
+     * Makes sure the events written so far have reached their destination.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Releases the resources held by the sink, after flushing it. The sink is not used afterwards.
+     */
+    default void close() {
+        flush();
+    }
+}
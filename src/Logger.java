@@ -1,11 +1,10 @@
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import com.sun.jna.platform.win32.Advapi32;
+import java.util.Arrays;
+import java.util.function.Supplier;
 import com.sun.jna.platform.win32.WinNT;
-import com.sun.jna.platform.win32.Kernel32;
 
 /**
  * The Logger class provides functionality to log messages to a local file and the Windows Event Viewer.
@@ -14,155 +13,375 @@ import com.sun.jna.platform.win32.Kernel32;
  * Logs include timestamps, class context information, and message details. Messages can also be routed
  * to the Windows Event Viewer with specified severity levels, ensuring robust logging for system analysis
  * and troubleshooting.
+ *
+ * Every message is handed to the registered {@link LogSink}s whose level threshold it passes. By default these are
+ * a {@link RotatingLogSink} writing to logs.txt in the application's folder, which is closed and compressed once it is full,
+ * and, on Windows, an {@link EventViewerLogSink}.
+ * Messages below every threshold are discarded before they are even built when they are logged with a supplier.
+ *
+ * By default every message is written before the call returns. After {@link #enableAsync(int, OverflowPolicy)},
+ * messages are only queued by the calling thread and written in batches by a background thread.
  */
 public class Logger {
 
     /**
-     * Defines the file path for logging application events locally.
-     *
-     * This variable represents the absolute path to a log file where all application logs
-     * will be stored. The path is constructed dynamically using the current user's
-     * home directory and the application name, ensuring that logs are stored in a
-     * user-specific directory within their AppData folder. The directory structure
-     * follows the pattern:
-     * C:\Users\[username]\AppData\Local\[application name]\logs.txt
-     *
-     * This ensures that logs are organized and stored in a secure, application-specific
-     * location. The log file serves as a persistent storage for tracking application behavior
-     * and debugging purposes.
+     * Decides what happens to a message logged while the asynchronous queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The logging thread waits until the background writer has made room for the message.
+         */
+        BLOCK,
+        /**
+         * The message is dropped. The number of dropped messages is written to the logs file later.
+         */
+        DROP,
+        /**
+         * One out of every {@value AsyncLogWriter#sampleEvery} messages waits for room like with BLOCK, the others are dropped.
+         */
+        SAMPLE
+    }
+
+    /**
+     * A sink together with the lowest severity it accepts.
+     */
+    private static final class Registration {
+        final LogSink sink;
+        final int minimumSeverity;
+
+        Registration(LogSink sink, int minimumSeverity) {
+            this.sink = sink;
+            this.minimumSeverity = minimumSeverity;
+        }
+    }
+
+    /**
+     * A second since the epoch together with its formatted text.
+     */
+    private static final class FormattedSecond {
+        final long second;
+        final String text;
+
+        FormattedSecond(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The formatter used for the timestamp of every log entry.
+     * It is created once, since building a formatter from its pattern is expensive.
+     */
+    private static final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * The last second that was formatted, since most entries are logged within the same second as the previous one.
+     */
+    private static volatile FormattedSecond lastFormattedSecond;
+
+    /**
+     * Finds the class that called the logger, without capturing the whole stack trace like Thread.getStackTrace does.
+     */
+    private static final StackWalker stackWalker = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    /**
+     * The registered sinks. The array is replaced, never modified, so it can be read without locking.
+     */
+    private static volatile Registration[] sinks = new Registration[0];
+
+    /**
+     * The lowest severity accepted by the logger as a whole, whatever the sinks accept.
      */
-    //initialize the file in witch we will be writing logs, witch is in user\appdata\Main.getName\logs.txt
-    private static final String logsFilePath = "C:\\Users\\" +  System.getProperty("user.name") + "\\AppData\\Local\\" + Main.name + "\\logs.txt";
+    private static volatile int threshold = severity((byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+
+    /**
+     * The lowest severity a message must have to reach at least one sink.
+     * It is checked before anything else, so disabled messages cost a single comparison.
+     */
+    private static volatile int enabledSeverity = Integer.MAX_VALUE;
+
+    /**
+     * The background writer used when asynchronous logging is enabled, or null when messages are written right away.
+     */
+    private static volatile AsyncLogWriter asyncWriter;
+
+    static {
+        //initialize the files in witch we will be writing logs, witch are in user\appdata\Main.getName\logs.txt,
+        // and logs-[time].txt.gz once they are full
+        addSink(new RotatingLogSink(Main.getAppDirectory(), "logs", Main.binaryLogs, Main.logSegmentSize, Main.logSegmentSeconds * 1000,
+                Main.logSegmentsKept, Main.compressLogs), (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+        //the Event Viewer only exists on Windows
+        if (System.getProperty("os.name", "").startsWith("Windows"))
+            addSink(new EventViewerLogSink(), (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+    }
 
     /**
      * Logs the specified message to a file with timestamp, class context information,
      * and forwards it to the Windows Event Viewer with the specified severity level.
      *
      * This method constructs a log entry containing the current timestamp, the class
-     * that invoked the method, and the provided message. It appends the log entry
-     * to a specified log file. Additionally, it sends the log message to the Event Viewer
-     * based on the provided severity level. If an error occurs during the file writing
-     * process, the exception is printed to the standard error stream.
+     * that invoked the method, and the provided message, and hands it to every sink
+     * whose threshold the severity level passes. When asynchronous logging is enabled,
+     * the entry is only queued and the sinks are called by the background writer.
      *
      * @param message The message to be logged.
      * @param eventLevel The severity level of the log message (e.g., informational, warning, or error).
      */
     public static void log(String message, byte eventLevel){
-        //construct the final log message
-        String logEntry = "[" + getTime() + "] [Class: " + Thread.currentThread().getStackTrace()[2].getClassName() + "] " + message;
-
-        //try to log the message
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(logsFilePath, true))) {
-            //log the message
-            writer.write(logEntry);
-            writer.newLine();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        if (severity(eventLevel) < enabledSeverity)
+            return;
 
-        //log in the event viewer
-        logInEventViewer(message, eventLevel);
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+        submit(new LogEvent(LogEvent.now(), stackWalker.getCallerClass().getName(), message, eventLevel, true), start);
+    }
 
+    /**
+     * Logs a message with the specified severity level, building the message only if it will be logged.
+     *
+     * This is meant for messages built from several parts, ex.: {@code Logger.log(() -> "Evaluated " + expression, level)},
+     * so that no string is built when the level is disabled.
+     *
+     * @param message the supplier of the message to be logged.
+     * @param eventLevel the severity level of the log message (e.g., informational, warning, or error).
+     */
+    public static void log(Supplier<String> message, byte eventLevel){
+        if (severity(eventLevel) < enabledSeverity)
+            return;
+
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+        submit(new LogEvent(LogEvent.now(), stackWalker.getCallerClass().getName(), message.get(), eventLevel, true), start);
     }
 
     /**
      * Logs the specified message to a file with timestamp and class context information.
      *
      * This method constructs a log entry containing the current timestamp, the class
-     * that invoked the method, and the provided message. It appends the log entry to a
-     * specified log file. If an error occurs during the file writing process, the exception
-     * is printed to the standard error stream.
+     * that invoked the method, and the provided message, as an informational message
+     * that is not sent to the Windows Event Viewer.
      *
      * @param message The message to be logged.
      */
     public static void log(String message){
-        //construct the final log message
-        String logEntry = "[" + getTime() + "] [Class: " + Thread.currentThread().getStackTrace()[2].getClassName() + "] " + message;
-
-        //try to log the message
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(logsFilePath, true))) {
-            //log the message
-            writer.write(logEntry);
-            writer.newLine();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        if (severity((byte) WinNT.EVENTLOG_INFORMATION_TYPE) < enabledSeverity)
+            return;
 
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+        submit(new LogEvent(LogEvent.now(), stackWalker.getCallerClass().getName(), message, (byte) WinNT.EVENTLOG_INFORMATION_TYPE, false), start);
     }
 
     /**
-     * Gets the current date and time in the format "yyyy-MM-dd HH:mm:ss".
+     * Logs an informational message that is not sent to the Windows Event Viewer, building it only if it will be logged.
      *
-     * This method uses the system's current local date and time,
-     * formats it using a predefined pattern, and returns the formatted
-     * date-time as a string.
+     * @param message the supplier of the message to be logged.
+     */
+    public static void log(Supplier<String> message){
+        if (severity((byte) WinNT.EVENTLOG_INFORMATION_TYPE) < enabledSeverity)
+            return;
+
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+        submit(new LogEvent(LogEvent.now(), stackWalker.getCallerClass().getName(), message.get(), (byte) WinNT.EVENTLOG_INFORMATION_TYPE, false), start);
+    }
+
+    /**
+     * Checks if a message with the given severity level would reach at least one sink.
      *
-     * @return A string representing the current date and time in the "yyyy-MM-dd HH:mm:ss" format.
+     * @param eventLevel the severity level (e.g., WinNT.EVENTLOG_WARNING_TYPE).
+     * @return true if such a message would be logged.
      */
-    //basic function that gets the time
-    private static String getTime(){
-        //gets the formater
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    public static boolean isEnabled(byte eventLevel) {
+        return severity(eventLevel) >= enabledSeverity;
+    }
 
-        //returns the time in a format type as formatter
-        return LocalDateTime.now().format(formatter);
+    /**
+     * Sets the lowest severity level logged at all, whatever the sinks accept.
+     * For example, WinNT.EVENTLOG_WARNING_TYPE keeps only warnings and errors.
+     *
+     * @param eventLevel the lowest severity level to be logged.
+     */
+    public static synchronized void setThreshold(byte eventLevel) {
+        threshold = severity(eventLevel);
+        updateEnabledSeverity();
+    }
+
+    /**
+     * Adds a sink that receives every message with at least the given severity level.
+     *
+     * @param sink       the sink to be added.
+     * @param eventLevel the lowest severity level the sink receives.
+     */
+    public static synchronized void addSink(LogSink sink, byte eventLevel) {
+        Registration[] updated = Arrays.copyOf(sinks, sinks.length + 1);
+        updated[sinks.length] = new Registration(sink, severity(eventLevel));
+        sinks = updated;
+        updateEnabledSeverity();
     }
 
+    /**
+     * Replaces all the sinks with the given ones, each receiving every message that passes the threshold of the logger.
+     * The sinks that are replaced are closed. Calling it with {@link NoOpLogSink#INSTANCE}, or with no sinks, turns logging off.
+     *
+     * @param newSinks the sinks that will receive the messages from now on.
+     */
+    public static synchronized void setSinks(LogSink... newSinks) {
+        Registration[] previous = sinks;
+        Registration[] updated = new Registration[newSinks.length];
+        for (int i = 0; i < newSinks.length; i++)
+            updated[i] = new Registration(newSinks[i], severity((byte) WinNT.EVENTLOG_INFORMATION_TYPE));
+        sinks = updated;
+        updateEnabledSeverity();
+
+        for (Registration registration : previous)
+            if (!Arrays.asList(newSinks).contains(registration.sink))
+                registration.sink.close();
+    }
 
     /**
-     * Sends a log message to the Windows Event Viewer with the specified severity level.
+     * Switches the logger to asynchronous mode: from now on, logging a message only puts it into a bounded lock-free queue,
+     * and a background thread hands the queued messages to the sinks in batches.
      *
-     * This method registers the application as an event source, sends the provided message
-     * to the Event Viewer, and cleans up the event source handle after logging. If sending
-     * the log fails, it retrieves the Windows error code and logs it using the local logging system.
+     * The messages still in the queue are written when the application exits. Calling this method again has no effect.
      *
-     * @param message The log message to be sent to the Event Viewer.
-     * @param eventLevel The severity level of the log message (e.g., information, warning, or error).
+     * @param capacity the number of messages the queue can hold, rounded up to a power of two.
+     * @param policy   what to do with a message logged while the queue is full.
      */
-    private static void logInEventViewer(String message, byte eventLevel) {
-        // Register the event source (usually your application name).
-        // This tells Windows you're sending a log from "Main.name".
-        WinNT.HANDLE hEventLog = Advapi32.INSTANCE.RegisterEventSource(null, Main.name);
+    public static synchronized void enableAsync(int capacity, OverflowPolicy policy) {
+        if (asyncWriter != null)
+            return;
+
+        asyncWriter = new AsyncLogWriter(capacity, policy);
+
+        //write what is left in the queue before the application exits
+        Runtime.getRuntime().addShutdownHook(new Thread(Logger::disableAsync, Main.name + " log flush"));
+    }
+
+    /**
+     * Switches the logger back to writing every message right away, after writing all the messages still in the queue.
+     */
+    public static synchronized void disableAsync() {
+        AsyncLogWriter writer = asyncWriter;
+        if (writer == null)
+            return;
+
+        asyncWriter = null;
+        writer.shutdown();
+    }
+
+    /**
+     * Returns the number of messages dropped because the asynchronous queue was full.
+     *
+     * @return the number of dropped messages, 0 if asynchronous logging is not enabled.
+     */
+    public static long getDroppedCount() {
+        AsyncLogWriter writer = asyncWriter;
+        return writer == null ? 0 : writer.getDropped();
+    }
+
+    /**
+     * Appends the log entry of an event, followed by a new line, to the given text.
+     * The entry has the form "[yyyy-MM-dd HH:mm:ss] [Class: name] message".
+     *
+     * @param event the event to be formatted.
+     * @param text  the text the entry is appended to.
+     */
+    static void formatEntry(LogEvent event, StringBuilder text) {
+        text.append('[').append(getTime(event.timeMillis)).append("] [Class: ").append(event.className).append("] ")
+                .append(event.message).append(System.lineSeparator());
+    }
 
-        // If the handle couldn't be created, log an error and return.
-        if (hEventLog == null) {
-            log("Failed to register event source"); // try to at least log in the logs.txt file
+    /**
+     * Hands an event to every sink whose threshold it passes. The sinks are not flushed.
+     *
+     * @param event the event to be written.
+     */
+    static void dispatch(LogEvent event) {
+        int eventSeverity = severity(event.eventLevel);
+        if (eventSeverity < threshold)
             return;
+
+        for (Registration registration : sinks)
+            if (eventSeverity >= registration.minimumSeverity)
+                registration.sink.write(event);
+    }
+
+    /**
+     * Flushes every sink.
+     */
+    static void flushSinks() {
+        for (Registration registration : sinks)
+            registration.sink.flush();
+    }
+
+    /**
+     * Hands an event to the background writer, or to the sinks right away when logging synchronously.
+     *
+     * @param event the event to be logged.
+     * @param start the System.nanoTime() when the call to log started, to record how long it took when the metrics are enabled.
+     */
+    private static void submit(LogEvent event, long start) {
+        //hand the message to the background writer if there is one
+        AsyncLogWriter writer = asyncWriter;
+        if (writer != null)
+            writer.enqueue(event);
+        else {
+            //log the message in every sink right away
+            dispatch(event);
+            flushSinks();
         }
 
-        // The message to send. You can send multiple lines by using more strings in this array.
-        String[] messages = {message};
-
-        // Send the event to Windows Event Viewer.
-        // Parameters:
-        // - hEventLog: the handle to the event source
-        // - eventLevel: severity type (INFO, WARNING, ERROR)
-        // - 0: event category (custom if needed, 0 is fine)
-        // - 0x1000: event ID (any number you assign)
-        // - null: no specific user SID (security ID)
-        // - messages.length: number of message strings
-        // - 0: no binary data
-        // - messages: the message strings array
-        // - null: no binary data attached
-        boolean success = Advapi32.INSTANCE.ReportEvent(
-                hEventLog,
-                eventLevel,
-                0,
-                0x1000,
-                null,
-                messages.length,
-                0,
-                messages,
-                null
-        );
-
-        // If logging failed, retrieve the Windows error code and use your own logger to record it
-        if (!success) {
-            int errorCode = Kernel32.INSTANCE.GetLastError(); // Get the Windows error code
-            log("Failed to report event. Error code: " + errorCode, eventLevel);
+        if (Metrics.enabled) {
+            Metrics.logMessages.increment();
+            Metrics.logLatency.record(System.nanoTime() - start);
         }
+    }
 
-        // Always release the event source handle to free resources
-        Advapi32.INSTANCE.DeregisterEventSource(hEventLog);
+    /**
+     * Turns a Windows Event Viewer type into a severity that grows with the importance of the message:
+     * errors are the most severe, then warnings, then everything else (information, success and audit success).
+     *
+     * @param eventLevel the Event Viewer type of the message.
+     * @return 3 for errors, 2 for warnings and 1 for everything else.
+     */
+    private static int severity(byte eventLevel) {
+        return switch (eventLevel) {
+            case WinNT.EVENTLOG_ERROR_TYPE, WinNT.EVENTLOG_AUDIT_FAILURE -> 3;
+            case WinNT.EVENTLOG_WARNING_TYPE -> 2;
+            default -> 1;
+        };
+    }
+
+    /**
+     * Recomputes the lowest severity that reaches at least one sink, after the sinks or the threshold changed.
+     * A NoOpLogSink does not count, so that a logger with only no-op sinks never builds its messages.
+     */
+    private static void updateEnabledSeverity() {
+        int lowest = Integer.MAX_VALUE;
+        for (Registration registration : sinks)
+            if (!(registration.sink instanceof NoOpLogSink))
+                lowest = Math.min(lowest, registration.minimumSeverity);
+        enabledSeverity = Math.max(lowest, threshold);
+    }
+
+    /**
+     * Gets the given time in the format "yyyy-MM-dd HH:mm:ss".
+     *
+     * This method converts the time to the system's local date and time,
+     * formats it using a predefined pattern, and returns the formatted
+     * date-time as a string.
+     *
+     * @param timeMillis the time to be formatted, in milliseconds since the epoch.
+     * @return A string representing the time in the "yyyy-MM-dd HH:mm:ss" format.
+     */
+    //basic function that formats the time
+    private static String getTime(long timeMillis){
+        //the entries only show whole seconds, so we reuse the last formatted time while we are still in the same second
+        long second = Math.floorDiv(timeMillis, 1000);
+        FormattedSecond last = lastFormattedSecond;
+        if (last != null && last.second == second)
+            return last.text;
+
+        //returns the time in a format type as formatter
+        String text = LocalDateTime.ofInstant(Instant.ofEpochMilli(timeMillis), ZoneId.systemDefault()).format(timeFormatter);
+        lastFormattedSecond = new FormattedSecond(second, text);
+        return text;
     }
 }
@@ -1,6 +1,28 @@
 import com.sun.jna.platform.win32.WinNT;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * The Main class serves as the entry point for the SimpleCalculator application.
@@ -31,16 +53,147 @@ public class Main {
      * maintaining operational consistency and preventing overly complex calculations.
      */
     public static int maxEquationLength = 500;
+    /**
+     * Represents the maximum number of parsed expressions kept by the Evaluator's expression cache.
+     * Repeated expressions are served from the cache without being parsed again, and once the cache is full
+     * the least recently used expression is evicted. A value of 0 disables the cache.
+     * It must be set before the first expression is evaluated.
+     */
+    public static int expressionCacheSize = 4096;
+    /**
+     * Represents the number of characters of the longest expression kept by the expression cache. A parsed expression
+     * takes about 8 bytes per character, so the longer ones are parsed again every time rather than filling the heap.
+     * It must be set before the first expression is evaluated.
+     */
+    public static int expressionCacheMaxLength = 1024;
+    /**
+     * Represents the size in bytes the current logs file is closed at, to start a new one (see {@link RotatingLogSink}).
+     * Like the other logs settings, it must be set before the first message is logged.
+     */
+    public static long logSegmentSize = 16 << 20;
+    /**
+     * Represents the number of seconds after which the current logs file is closed, even if it is not full. 0 means never.
+     */
+    public static long logSegmentSeconds = 24 * 60 * 60;
+    /**
+     * Represents the number of closed logs files kept, the oldest ones being deleted, which bounds the disk space of the logs.
+     */
+    public static int logSegmentsKept = 20;
+    /**
+     * Decides whether the closed logs files are compressed with gzip.
+     */
+    public static boolean compressLogs = true;
+    /**
+     * Decides whether the logs are written in the compact binary format (logs.bin) instead of as text (logs.txt).
+     * The binary logs are read with "--logs".
+     */
+    public static boolean binaryLogs = false;
+    /**
+     * Represents the number of log messages that can wait to be written when logging asynchronously,
+     * which the headless modes do. Messages logged while the queue is full are handled by `logOverflowPolicy`.
+     */
+    public static int logQueueCapacity = 1 << 16;
+    /**
+     * Decides what happens to a log message when the asynchronous logging queue is full:
+     * the logging thread can wait for room, drop the message, or drop all but a sample of the messages.
+     */
+    public static Logger.OverflowPolicy logOverflowPolicy = Logger.OverflowPolicy.BLOCK;
+    /**
+     * The TCP port the server mode listens on when no port is given.
+     */
+    public static final int defaultServerPort = 7171;
+    /**
+     * Represents the number of characters from which an expression is split at its '+' and '-' and evaluated on
+     * several threads (see {@link ParallelEvaluator}). The streaming mode evaluates files at least this long in parallel,
+     * and the parts of the expression are not split further once they are shorter than this.
+     */
+    public static int parallelEvaluationThreshold = 1 << 20;
+    /**
+     * Represents whether the expressions of the batch, coordinator and server modes are evaluated within a {@link Budget},
+     * as they are with the --budget option. It is off by default, so that those modes give the same results as the
+     * --mmap and --stream modes whatever the length of the expressions and however busy the machine is.
+     */
+    public static boolean headlessBudgets = false;
+    /**
+     * Represents the maximum number of characters of an expression given a budget by {@link Budget#fromSettings()}.
+     * Longer expressions give an error right away instead of holding a thread.
+     */
+    public static int budgetMaxLength = 1 << 20;
+    /**
+     * Represents the maximum number of operations of a calculation given a budget by {@link Budget#fromSettings()}.
+     */
+    public static long budgetMaxOperations = 1 << 20;
+    /**
+     * Represents the number of milliseconds after which a calculation given a budget is stopped, 0 for no deadline.
+     */
+    public static long budgetMillis = 1000;
+    /**
+     * Represents the maximum number of results kept by the result cache of the batch and server modes
+     * (see {@link ResultCache}). The cache is saved to result-cache.bin in the application's folder and loaded back
+     * at the next start, so repeated expressions are served from it right away. A value of 0 disables it.
+     */
+    public static int resultCacheSize = 1 << 16;
+    /**
+     * Represents the number of characters of the longest expression kept by the result cache. The results are keyed by
+     * the text of their expression, which is also written to the snapshot, so the longer ones are evaluated every time
+     * rather than filling the heap and result-cache.bin.
+     */
+    public static int resultCacheMaxLength = 1024;
+    /**
+     * Represents the number of seconds between two snapshots of the result cache to the disk.
+     */
+    public static long resultCacheSnapshotSeconds = 60;
 
     /**
      * The main method serves as the entry point of the SimpleCalculator application.
      * It initializes the application's configuration and launches the graphical
      * user interface for user interaction.
      *
-     * @param args Command-line arguments passed to the application. These arguments
-     *             are not utilized in this implementation.
+     * @param args Command-line arguments passed to the application. When the first argument is
+     *             "--eval", "--batch", "--mmap", "--stream", "--server" or "--coordinator", the expressions are evaluated
+     *             without a GUI (see {@link #runEval(String[])}, {@link #runBatch(String[])}, {@link #runMapped(String[])},
+     *             {@link #runStream(String[])}, {@link #runServer(String[])} and {@link #runCoordinator(String[])}),
+     *             "--worker" is how the coordinator starts its worker processes (see {@link #runWorker(String[])}),
+     *             and with "--logs" the logs of a time range are printed (see {@link #runLogs(String[])}).
+     *             Any other first argument starting with "--" is refused with a usage message, instead of opening the window.
      */
     public static void main(String[] args) {
+        //a one-shot evaluation only logs a line or two, which is quicker than starting the background log writer
+        if (args.length > 0 && args[0].equals("--eval")) {
+            runEval(args);
+            return;
+        }
+        //reading the logs doesn't write any
+        if (args.length > 0 && args[0].equals("--logs")) {
+            runLogs(args);
+            return;
+        }
+
+        //check if we were asked to run without a window
+        if (args.length > 0) {
+            Consumer<String[]> mode = switch (args[0]) {
+                case "--batch" -> Main::runBatch;
+                case "--mmap" -> Main::runMapped;
+                case "--stream" -> Main::runStream;
+                case "--server" -> Main::runServer;
+                case "--coordinator" -> Main::runCoordinator;
+                case "--worker" -> Main::runWorker;
+                default -> null;
+            };
+            if (mode != null) {
+                //the headless modes log every evaluation, so their logs are written in the background
+                Logger.enableAsync(logQueueCapacity, logOverflowPolicy);
+                mode.accept(args);
+                return;
+            }
+            //a mistyped option shouldn't quietly open the window instead
+            if (args[0].startsWith("--")) {
+                System.err.println("Unknown option " + args[0]);
+                System.err.println("Usage: [--eval|--batch|--mmap|--stream|--server|--coordinator|--logs] [options...]");
+                System.exit(2);
+            }
+        }
+
         //Call the base functions to start the program
 
         Initialize();
@@ -51,6 +204,20 @@ public class Main {
         calculator.Launch();
     }
 
+    /**
+     * Returns the folder the application keeps its files in, such as the logs file.
+     *
+     * On Windows this is C:\Users\[username]\AppData\Local\[application name],
+     * and on other systems it is the hidden folder .[application name] in the user's home directory.
+     *
+     * @return the path of the application's folder, which might not exist yet.
+     */
+    public static Path getAppDirectory() {
+        if (System.getProperty("os.name", "").startsWith("Windows"))
+            return Path.of("C:\\Users\\" + System.getProperty("user.name") + "\\AppData\\Local\\" + name);
+        return Path.of(System.getProperty("user.home"), "." + name);
+    }
+
     /**
      * Initializes the application by creating necessary local directories and logging the startup process.
      *
@@ -61,8 +228,8 @@ public class Main {
      * 3. Outputs a welcome message with the application name and version to the console.
      */
     private static void Initialize(){
-        //check if we have a dedicated folder in <username>\appdata to write essential fiels to
-        File folder = new File("C:\\Users\\" +  System.getProperty("user.name") + "\\AppData\\Local\\" + name);
+        //check if we have a dedicated folder in <username>\appdata (or ~/.SimpleCalculator outside Windows) to write essential fiels to
+        File folder = getAppDirectory().toFile();
         if (!folder.exists())
             //create the folder if it dosent exist
             folder.mkdirs();
@@ -72,4 +239,353 @@ public class Main {
         System.out.println("Welcome to " + name + " v." + version);
     }
 
-}
\ No newline at end of file
+    /**
+     * Runs the one-shot mode, which evaluates the expressions given after "--eval" and prints their results,
+     * one per line, with the same lines as the batch mode.
+     *
+     * It is the quickest way to get a result from a script: nothing but the evaluation and the logger is loaded
+     * (no Swing, no JNA), and the application folder is only created when the logs are first written.
+     * The application exits with the status 1 if an expression could not be evaluated.
+     *
+     * @param args the command-line arguments, starting with "--eval".
+     */
+    private static void runEval(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: --eval expression [expression...]");
+            System.exit(2);
+        }
+
+        boolean failed = false;
+        for (int i = 1; i < args.length; i++) {
+            String result = BatchEvaluator.evaluateLine(args[i]);
+            failed |= result.startsWith("Error");
+            System.out.println(result);
+        }
+        if (failed)
+            System.exit(1);
+    }
+
+    /**
+     * Prints the log entries of a time range, read from the logs files of the application's folder with a {@link LogQuery},
+     * and reports on the standard error how much of the logs had to be read.
+     *
+     * The arguments after "--logs" are the start and the end of the range, as "yyyy-MM-dd HH:mm:ss" in the local time.
+     * Without an end the range goes to now, and without a start it is the last hour.
+     *
+     * @param args the command-line arguments, starting with "--logs".
+     */
+    private static void runLogs(String[] args) {
+        long to = System.currentTimeMillis() + 1000, from = to - 60 * 60 * 1000;
+        try {
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+            if (args.length > 1)
+                from = LocalDateTime.parse(args[1], formatter).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            if (args.length > 2)
+                to = LocalDateTime.parse(args[2], formatter).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            System.err.println("Usage: --logs [\"yyyy-MM-dd HH:mm:ss\" [\"yyyy-MM-dd HH:mm:ss\"]]");
+            System.exit(2);
+        }
+
+        LogQuery query = new LogQuery(getAppDirectory(), "logs");
+        StringBuilder entry = new StringBuilder();
+        try (PrintWriter output = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16))) {
+            long start = System.nanoTime();
+            long found = query.query(from, to, event -> {
+                entry.setLength(0);
+                Logger.formatEntry(event, entry);
+                output.print(entry);
+            });
+            output.flush();
+            System.err.printf("%d entries in %.1f ms, %d blocks read (%d bytes), %d blocks skipped%n", found, (System.nanoTime() - start) / 1e6,
+                    query.getBlocksRead(), query.getBytesRead(), query.getBlocksSkipped());
+        } catch (IOException e) {
+            System.err.println("Could not read the logs: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the headless batch mode, which evaluates one expression per line and writes the results in the input order.
+     *
+     * The arguments after "--batch" are:
+     * - an optional input file, if it is missing or "-" the expressions are read from the standard input;
+     * - "--output file" to write the results to a file instead of the standard output;
+     * - "--parallelism n" to evaluate on n threads instead of one thread per available processor;
+     * - "--budget" to evaluate every expression within a budget (see {@link #headlessBudgets}).
+     *
+     * @param args the command-line arguments, starting with "--batch".
+     */
+    private static void runBatch(String[] args) {
+        String inputPath = "-", outputPath = "-";
+        int parallelism = Runtime.getRuntime().availableProcessors();
+
+        //read the options of the batch mode
+        try {
+            for (int i = 1; i < args.length; i++)
+                if (args[i].equals("--output"))
+                    outputPath = args[++i];
+                else if (args[i].equals("--parallelism"))
+                    parallelism = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--budget"))
+                    headlessBudgets = true;
+                else
+                    inputPath = args[i];
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.err.println("Usage: --batch [input file|-] [--output file] [--parallelism n] [--budget]");
+            System.exit(2);
+        }
+
+        Logger.log("Batch mode launched with parallelism " + parallelism, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+        startResultCache();
+        BatchEvaluator batch = new BatchEvaluator(parallelism);
+        try (BufferedReader input = new BufferedReader(inputPath.equals("-") ? new InputStreamReader(System.in) : new FileReader(inputPath), 1 << 16);
+             Writer output = new BufferedWriter(outputPath.equals("-") ? new OutputStreamWriter(System.out) : new FileWriter(outputPath), 1 << 16)) {
+            long start = System.nanoTime();
+            long count = batch.run(input, output);
+            reportThroughput("Batch mode", count, inputPath.equals("-") ? 0 : new File(inputPath).length(), System.nanoTime() - start);
+            if (Evaluator.getResultCache() != null)
+                System.err.println(Evaluator.getResultCache());
+        } catch (IOException e) {
+            System.err.println("Batch mode failed: " + e.getMessage());
+            Logger.log("Batch mode failed: " + e.getMessage(), (byte) WinNT.EVENTLOG_ERROR_TYPE);
+            System.exit(1);
+        } finally {
+            batch.shutdown();
+        }
+    }
+
+    /**
+     * Runs the coordinator mode, which evaluates one expression per line on several worker processes started from
+     * the same class path, and writes the results in the input order, with the same lines as the batch mode
+     * (see {@link WorkerPool}). A worker that crashes is started again, and the number of restarts is reported at the end.
+     *
+     * The arguments after "--coordinator" are:
+     * - an optional input file, if it is missing or "-" the expressions are read from the standard input;
+     * - "--output file" to write the results to a file instead of the standard output;
+     * - "--workers n" to start n workers instead of one per available processor;
+     * - "--chunk n" to hand the workers n lines at once instead of 16384;
+     * - "--worker-options "..."" for the options of the JVMs of the workers, separated by spaces, ex.: "-Xmx256m -XX:+UseSerialGC";
+     * - "--budget" for the workers to evaluate every expression within a budget (see {@link #headlessBudgets}).
+     *
+     * @param args the command-line arguments, starting with "--coordinator".
+     */
+    private static void runCoordinator(String[] args) {
+        String inputPath = "-", outputPath = "-";
+        int workers = Runtime.getRuntime().availableProcessors(), chunkSize = 1 << 14;
+        List<String> jvmOptions = List.of();
+
+        //read the options of the coordinator mode
+        try {
+            for (int i = 1; i < args.length; i++)
+                switch (args[i]) {
+                    case "--output" -> outputPath = args[++i];
+                    case "--workers" -> workers = Integer.parseInt(args[++i]);
+                    case "--chunk" -> chunkSize = Integer.parseInt(args[++i]);
+                    case "--worker-options" -> jvmOptions = args[++i].isBlank() ? List.of() : List.of(args[i].trim().split("\\s+"));
+                    case "--budget" -> headlessBudgets = true;
+                    default -> inputPath = args[i];
+                }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.err.println("Usage: --coordinator [input file|-] [--output file] [--workers n] [--chunk n] [--worker-options \"...\"] [--budget]");
+            System.exit(2);
+        }
+
+        Logger.log("Coordinator mode launched with " + workers + " workers", (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+        try (WorkerPool pool = new WorkerPool(workers, chunkSize, jvmOptions);
+             BufferedReader input = new BufferedReader(inputPath.equals("-") ? new InputStreamReader(System.in) : new FileReader(inputPath), 1 << 16);
+             Writer output = new BufferedWriter(outputPath.equals("-") ? new OutputStreamWriter(System.out) : new FileWriter(outputPath), 1 << 16)) {
+            long start = System.nanoTime();
+            long count = pool.run(input, output);
+            reportThroughput("Coordinator mode", count, inputPath.equals("-") ? 0 : new File(inputPath).length(), System.nanoTime() - start);
+            System.err.println(pool.getRestarts() + " worker restarts");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Coordinator mode failed: " + e.getMessage());
+            Logger.log("Coordinator mode failed: " + e.getMessage(), (byte) WinNT.EVENTLOG_ERROR_TYPE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs a worker process of the coordinator mode, which connects to the socket given after "--worker" and evaluates
+     * the chunks of lines it is given, until the coordinator stops it (see {@link WorkerPool#serve(Path, int)}).
+     *
+     * A worker logs to its own files, worker[id].txt in the application's folder, since the segments of the logs
+     * can't be appended to by several processes at once.
+     *
+     * @param args the command-line arguments: "--worker", the path of the socket, the id of the worker,
+     *             and "--budget" when the coordinator was given it.
+     */
+    private static void runWorker(String[] args) {
+        if (args.length != 3 && !(args.length == 4 && args[3].equals("--budget"))) {
+            System.err.println("Usage: --worker socket id [--budget]");
+            System.exit(2);
+        }
+        headlessBudgets = args.length == 4;
+        int id = Integer.parseInt(args[2]);
+        Logger.setSinks(new RotatingLogSink(getAppDirectory(), "worker" + id, binaryLogs, logSegmentSize, logSegmentSeconds * 1000,
+                logSegmentsKept, compressLogs));
+        try {
+            WorkerPool.serve(Path.of(args[1]), id);
+        } catch (IOException e) {
+            System.err.println("Worker " + id + " failed: " + e.getMessage());
+            Logger.log("Worker " + id + " failed: " + e.getMessage(), (byte) WinNT.EVENTLOG_ERROR_TYPE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the streaming mode, which evaluates a single expression of any length and prints its result.
+     *
+     * The expression is read from the file given after "--stream", or from the standard input if the file is
+     * missing or "-". It is evaluated while it is being read, so the memory used does not depend on its length.
+     * A file of at least `parallelEvaluationThreshold` characters (and under 2 GB) is instead mapped in memory
+     * and evaluated on several threads by a {@link ParallelEvaluator}.
+     *
+     * @param args the command-line arguments, starting with "--stream".
+     */
+    private static void runStream(String[] args) {
+        String inputPath = args.length > 1 ? args[1] : "-";
+
+        //a long file is mapped in memory and its terms are evaluated on every processor
+        if (!inputPath.equals("-") && new File(inputPath).length() >= parallelEvaluationThreshold) {
+            try (FileChannel input = FileChannel.open(Path.of(inputPath), StandardOpenOption.READ)) {
+                if (input.size() <= Integer.MAX_VALUE) {
+                    System.out.println(new ParallelEvaluator().evaluate(input.map(FileChannel.MapMode.READ_ONLY, 0, input.size())));
+                    return;
+                }
+            } catch (IOException | ArithmeticException e) {
+                System.err.println("Error: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        try (ReadableByteChannel input = inputPath.equals("-") ? Channels.newChannel(System.in) : new FileInputStream(inputPath).getChannel()) {
+            System.out.println(StreamingEvaluator.evaluate(input));
+        } catch (IOException | ArithmeticException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the memory-mapped batch mode, which evaluates a file with one expression per line
+     * straight from its bytes (see {@link MappedBatchEvaluator}).
+     *
+     * The arguments after "--mmap" are the input file and, optionally, "--output file" to write the results
+     * to a file instead of the standard output.
+     *
+     * @param args the command-line arguments, starting with "--mmap".
+     */
+    private static void runMapped(String[] args) {
+        String inputPath = null, outputPath = "-";
+
+        //read the options of the memory-mapped mode
+        try {
+            for (int i = 1; i < args.length; i++)
+                if (args[i].equals("--output"))
+                    outputPath = args[++i];
+                else
+                    inputPath = args[i];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            inputPath = null;
+        }
+        if (inputPath == null) {
+            System.err.println("Usage: --mmap input file [--output file]");
+            System.exit(2);
+        }
+
+        MappedBatchEvaluator batch = new MappedBatchEvaluator();
+        try (WritableByteChannel output = outputPath.equals("-") ? Channels.newChannel(System.out)
+                : FileChannel.open(Path.of(outputPath), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long start = System.nanoTime();
+            long count = batch.run(Path.of(inputPath), output);
+            reportThroughput("Memory-mapped batch mode", count, batch.getBytes(), System.nanoTime() - start);
+        } catch (IOException e) {
+            System.err.println("Memory-mapped batch mode failed: " + e.getMessage());
+            Logger.log("Memory-mapped batch mode failed: " + e.getMessage(), (byte) WinNT.EVENTLOG_ERROR_TYPE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the server mode, which evaluates the expressions sent by other processes of the machine
+     * until the application is stopped (see {@link EvaluationServer}).
+     *
+     * The arguments after "--server" are either "--port n" to listen on a TCP port of the loopback interface
+     * (port {@value #defaultServerPort} if nothing is given), or "--unix path" to listen on a Unix domain socket,
+     * and "--budget" to evaluate every expression within a budget (see {@link #headlessBudgets}).
+     *
+     * @param args the command-line arguments, starting with "--server".
+     */
+    private static void runServer(String[] args) {
+        int port = defaultServerPort;
+        String socketPath = null;
+
+        //read the options of the server mode
+        try {
+            for (int i = 1; i < args.length; i++)
+                if (args[i].equals("--port"))
+                    port = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--unix"))
+                    socketPath = args[++i];
+                else if (args[i].equals("--budget"))
+                    headlessBudgets = true;
+                else
+                    throw new IllegalArgumentException(args[i]);
+        } catch (RuntimeException e) {
+            System.err.println("Usage: --server [--port n | --unix path] [--budget]");
+            System.exit(2);
+        }
+
+        startResultCache();
+        try (EvaluationServer server = socketPath != null ? EvaluationServer.openUnix(Path.of(socketPath)) : EvaluationServer.openTcp(port)) {
+            //close the server when the application is stopped, so that a Unix domain socket file doesn't stay behind
+            // (through another variable, since closing a resource of the try by hand is flagged by javac)
+            EvaluationServer stopped = server;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    stopped.close();
+                } catch (IOException ignored) {
+                }
+            }, name + " server shutdown"));
+            System.err.println("Evaluation server listening on " + server.getAddress());
+            server.serve();
+        } catch (IOException e) {
+            System.err.println("Server mode failed: " + e.getMessage());
+            Logger.log("Server mode failed: " + e.getMessage(), (byte) WinNT.EVENTLOG_ERROR_TYPE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Creates the result cache of the batch and server modes, filled with the snapshot of the previous run,
+     * and saves it regularly and when the application exits. It reports how long the snapshot took to load.
+     */
+    private static void startResultCache() {
+        if (resultCacheSize <= 0)
+            return;
+        ResultCache cache = new ResultCache(resultCacheSize, resultCacheMaxLength);
+        cache.persist(getAppDirectory().resolve("result-cache.bin"), resultCacheSnapshotSeconds);
+        System.err.printf("Loaded %d results into the result cache in %.1f ms%n", cache.size(), cache.getLoadNanos() / 1e6);
+        Evaluator.setResultCache(cache);
+    }
+
+    /**
+     * Reports how fast a batch was evaluated, both on the standard error and in the logs,
+     * so that the String-based and the memory-mapped batch modes can be compared.
+     *
+     * @param mode        the name of the batch mode.
+     * @param expressions the number of expressions evaluated.
+     * @param bytes       the size of the input in bytes, or 0 if it is not known.
+     * @param nanos       the time the batch took, in nanoseconds.
+     */
+    private static void reportThroughput(String mode, long expressions, long bytes, long nanos) {
+        double seconds = nanos / 1e9;
+        String report = String.format("%s evaluated %d expressions in %.3f s (%.0f expressions/s, %.3f GB/s)",
+                mode, expressions, seconds, expressions / seconds, bytes / seconds / 1e9);
+        System.err.println(report);
+        Logger.log(report, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+    }
+
+}
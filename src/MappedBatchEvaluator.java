@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The MappedBatchEvaluator class evaluates a file of expressions, one per line, by reading the bytes of the file directly.
+ *
+ * The input file is memory-mapped in large windows and its bytes are fed one by one to a {@link StreamingEvaluator},
+ * so no line is ever turned into a String: line boundaries are found while scanning, and a line that crosses
+ * the end of a window simply continues in the next one. The results are written as ASCII digits into a direct
+ * buffer that is flushed to the output channel whenever it fills up.
+ *
+ * An instance keeps its buffers between runs, so it must only be used by one thread at a time.
+ */
+public class MappedBatchEvaluator {
+
+    /**
+     * The number of bytes of the input file mapped at a time.
+     * A MappedByteBuffer can't be larger than 2GB, so bigger files are read window by window.
+     */
+    private static final long windowSize = 1L << 30;
+
+    /**
+     * The size of the buffer the results are collected in before they are written to the output channel.
+     */
+    private static final int outputBufferSize = 1 << 20;
+
+    /**
+     * The evaluator every line is fed to. It is reset at the end of every line.
+     */
+    private final StreamingEvaluator evaluator = new StreamingEvaluator();
+
+    /**
+     * The buffer the results are collected in before being written.
+     */
+    private final ByteBuffer output = ByteBuffer.allocateDirect(outputBufferSize);
+
+    /**
+     * Scratch space used to write the digits of a result from the last one to the first one.
+     */
+    private final byte[] digits = new byte[11];
+
+    /**
+     * The number of expressions evaluated by the last run.
+     */
+    private long expressions;
+
+    /**
+     * The number of bytes read by the last run.
+     */
+    private long bytes;
+
+    /**
+     * Evaluates every line of the input file and writes the results to the output channel in the input order.
+     * The output channel is not closed.
+     *
+     * @param inputPath the file the expressions are read from, one expression per line.
+     * @param out       the channel the results are written to, one result per line.
+     * @return the number of expressions evaluated.
+     * @throws IOException if reading the input or writing the output fails.
+     */
+    public long run(Path inputPath, WritableByteChannel out) throws IOException {
+        expressions = 0;
+        bytes = 0;
+        evaluator.reset();
+        output.clear();
+
+        //the message of the error found on the current line, or null if the line has no error so far
+        String error = null;
+
+        try (FileChannel input = FileChannel.open(inputPath, StandardOpenOption.READ)) {
+            long size = input.size();
+
+            //map the file window by window, the evaluator keeps its state from one window to the next
+            for (long position = 0; position < size; position += windowSize) {
+                MappedByteBuffer window = input.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+                int limit = window.limit();
+
+                for (int i = 0; i < limit; i++) {
+                    byte currentByte = window.get(i);
+
+                    if (currentByte == '\n') {
+                        //the line is over, so we write its result and get ready for the next one
+                        error = endLine(error, out);
+                    } else if (error == null) {
+                        try {
+                            evaluator.accept((char) (currentByte & 0xFF));
+                        } catch (ArithmeticException e) {
+                            //remember the error and skip the rest of the line
+                            error = e.getMessage();
+                        }
+                    }
+                }
+            }
+            bytes = size;
+
+            //the last line might not end with a new line
+            if (evaluator.getLength() > 0 || error != null)
+                endLine(error, out);
+        }
+
+        //write whatever is left in the output buffer
+        flush(out);
+        return expressions;
+    }
+
+    /**
+     * Returns the number of expressions evaluated by the last run.
+     *
+     * @return the number of expressions.
+     */
+    public long getExpressions() {
+        return expressions;
+    }
+
+    /**
+     * Returns the number of bytes read by the last run.
+     *
+     * @return the size of the input file.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Ends the current line, writing either its result or its error to the output buffer.
+     *
+     * @param error the error found on the line, or null if there was none.
+     * @param out   the channel the output buffer is flushed to when it fills up.
+     * @return null, which is the error state of the next line.
+     * @throws IOException if writing the output fails.
+     */
+    private String endLine(String error, WritableByteChannel out) throws IOException {
+        if (error == null) {
+            try {
+                writeInt(evaluator.finish(), out);
+            } catch (ArithmeticException e) {
+                error = e.getMessage();
+            }
+        }
+        if (error != null) {
+            evaluator.reset();
+            byte[] message = ("Error: " + error).getBytes(StandardCharsets.US_ASCII);
+            ensureSpace(message.length + 1, out);
+            output.put(message);
+        }
+        output.put((byte) '\n');
+        expressions++;
+        return null;
+    }
+
+    /**
+     * Writes an integer as ASCII digits to the output buffer, without going through a String.
+     *
+     * @param value the integer to be written.
+     * @param out   the channel the output buffer is flushed to when it fills up.
+     * @throws IOException if writing the output fails.
+     */
+    private void writeInt(int value, WritableByteChannel out) throws IOException {
+        ensureSpace(digits.length + 2, out);
+        if (value < 0)
+            output.put((byte) '-');
+
+        //we take the digits from the last one to the first one, working with negative numbers so that Integer.MIN_VALUE fits
+        int negative = value < 0 ? value : -value, count = 0;
+        do {
+            digits[count++] = (byte) ('0' - negative % 10);
+            negative /= 10;
+        } while (negative != 0);
+
+        //and write them back in the right order
+        while (count > 0)
+            output.put(digits[--count]);
+    }
+
+    /**
+     * Makes sure the output buffer has room for the given number of bytes, flushing it if it does not.
+     *
+     * @param length the number of bytes that are about to be written.
+     * @param out    the channel the output buffer is flushed to.
+     * @throws IOException if writing the output fails.
+     */
+    private void ensureSpace(int length, WritableByteChannel out) throws IOException {
+        if (output.remaining() < length)
+            flush(out);
+    }
+
+    /**
+     * Writes the content of the output buffer to the output channel and empties the buffer.
+     *
+     * @param out the channel the output buffer is written to.
+     * @throws IOException if writing the output fails.
+     */
+    private void flush(WritableByteChannel out) throws IOException {
+        output.flip();
+        while (output.hasRemaining())
+            out.write(output);
+        output.clear();
+    }
+}
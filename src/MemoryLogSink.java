@@ -0,0 +1,72 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The MemoryLogSink class keeps the most recent log events in memory instead of writing them anywhere.
+ *
+ * It is useful to look at the logs of a running application, or to check what was logged without touching the disk.
+ * Once it holds its maximum number of events, the oldest one is forgotten for every new one.
+ */
+public class MemoryLogSink implements LogSink {
+
+    /**
+     * The maximum number of events kept.
+     */
+    private final int capacity;
+
+    /**
+     * The events kept, from the oldest to the newest.
+     */
+    private final ArrayDeque<LogEvent> events = new ArrayDeque<>();
+
+    /**
+     * Creates a sink that keeps at most the given number of events.
+     *
+     * @param capacity the maximum number of events kept, at least 1.
+     */
+    public MemoryLogSink(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity must be at least 1, but was " + capacity);
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized void write(LogEvent event) {
+        if (events.size() == capacity)
+            events.removeFirst();
+        events.addLast(event);
+    }
+
+    /**
+     * Returns the events kept, from the oldest to the newest.
+     *
+     * @return a copy of the events kept.
+     */
+    public synchronized List<LogEvent> getEvents() {
+        return new ArrayList<>(events);
+    }
+
+    /**
+     * Returns the events kept formatted like the entries of the logs file, from the oldest to the newest.
+     *
+     * @return the formatted entries, without their line separators.
+     */
+    public synchronized List<String> getEntries() {
+        List<String> entries = new ArrayList<>(events.size());
+        StringBuilder entry = new StringBuilder();
+        for (LogEvent event : events) {
+            entry.setLength(0);
+            Logger.formatEntry(event, entry);
+            entries.add(entry.toString().strip());
+        }
+        return entries;
+    }
+
+    /**
+     * Forgets every event kept.
+     */
+    public synchronized void clear() {
+        events.clear();
+    }
+}
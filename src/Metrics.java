@@ -0,0 +1,182 @@
+import com.sun.jna.platform.win32.WinNT;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Metrics class counts the evaluations, base conversions and log messages of the application and how long they take,
+ * so that they can be watched while it runs.
+ *
+ * The metrics are only collected when the JVM is started with -Dcalculator.metrics=true. They are then published as
+ * the MBean "SimpleCalculator:type=Metrics" of the platform MBean server (see {@link MetricsMXBean}), which JConsole
+ * or VisualVM can read, and with -Dcalculator.metrics.dumpSeconds=n a snapshot of them is also written to the logs every n seconds.
+ *
+ * The counters are LongAdders and the durations go to {@link LatencyHistogram}s, so recording never takes a lock
+ * and threads recording at the same time don't slow each other down. When the metrics are disabled,
+ * {@link #enabled} is a constant false for the JIT, which removes the instrumented code altogether.
+ */
+public final class Metrics implements MetricsMXBean {
+
+    /**
+     * Whether the metrics are collected. The instrumented code checks it before reading the clock.
+     */
+    public static final boolean enabled = Boolean.getBoolean("calculator.metrics");
+
+    /**
+     * The name the metrics are registered under in the platform MBean server.
+     */
+    public static final String objectName = Main.name + ":type=Metrics";
+
+    //the counters
+    static final LongAdder evaluations = new LongAdder();
+    static final LongAdder evaluationErrors = new LongAdder();
+    static final LongAdder conversions = new LongAdder();
+    static final LongAdder conversionErrors = new LongAdder();
+    static final LongAdder logMessages = new LongAdder();
+    static final LongAdder budgetsExceeded = new LongAdder();
+
+    //the durations
+    static final LatencyHistogram evaluateLatency = new LatencyHistogram();
+    static final LatencyHistogram formaterLatency = new LatencyHistogram();
+    static final LatencyHistogram convertLatency = new LatencyHistogram();
+    static final LatencyHistogram logLatency = new LatencyHistogram();
+
+    /**
+     * The only instance, the one registered as the MBean.
+     */
+    private static final Metrics instance = new Metrics();
+
+    static {
+        if (enabled)
+            start();
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Registers the MBean and starts the periodic dump if one was asked for.
+     * Nothing is logged from here, since the first use of the metrics can come from the Logger itself.
+     */
+    private static void start() {
+        Publisher.register();
+
+        long dumpSeconds = Long.getLong("calculator.metrics.dumpSeconds", 0);
+        if (dumpSeconds > 0) {
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "Metrics dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleAtFixedRate(() -> Logger.log(Metrics::summary, (byte) WinNT.EVENTLOG_INFORMATION_TYPE), dumpSeconds, dumpSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Registers the MBean. It is a class of its own so that the JMX classes are only loaded when the metrics are enabled,
+     * which keeps them out of the startup of the application otherwise.
+     */
+    private static final class Publisher {
+        static void register() {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName(objectName));
+            } catch (JMException e) {
+                System.err.println("Could not register the metrics MBean: " + e);
+            }
+        }
+    }
+
+    /**
+     * Returns the metrics registered as the MBean, to read them without JMX.
+     *
+     * @return the metrics of the application.
+     */
+    public static MetricsMXBean get() {
+        return instance;
+    }
+
+    /**
+     * Writes every counter and the statistics of every histogram in one line.
+     *
+     * @return the snapshot of the metrics as text.
+     */
+    public static String summary() {
+        return "Metrics: evaluations=" + evaluations.sum() + " (errors=" + evaluationErrors.sum() + ")"
+                + " conversions=" + conversions.sum() + " (errors=" + conversionErrors.sum() + ")"
+                + " logMessages=" + logMessages.sum()
+                + " budgetsExceeded=" + budgetsExceeded.sum()
+                + " | evaluate: " + evaluateLatency.snapshot()
+                + " | formater: " + formaterLatency.snapshot()
+                + " | convert: " + convertLatency.snapshot()
+                + " | log: " + logLatency.snapshot();
+    }
+
+    @Override
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    @Override
+    public long getEvaluationErrors() {
+        return evaluationErrors.sum();
+    }
+
+    @Override
+    public long getConversions() {
+        return conversions.sum();
+    }
+
+    @Override
+    public long getConversionErrors() {
+        return conversionErrors.sum();
+    }
+
+    @Override
+    public long getLogMessages() {
+        return logMessages.sum();
+    }
+
+    @Override
+    public long getBudgetsExceeded() {
+        return budgetsExceeded.sum();
+    }
+
+    @Override
+    public LatencySnapshot getEvaluateLatency() {
+        return evaluateLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getFormaterLatency() {
+        return formaterLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getConvertLatency() {
+        return convertLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getLogLatency() {
+        return logLatency.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        evaluations.reset();
+        evaluationErrors.reset();
+        conversions.reset();
+        conversionErrors.reset();
+        logMessages.reset();
+        budgetsExceeded.reset();
+        evaluateLatency.reset();
+        formaterLatency.reset();
+        convertLatency.reset();
+        logLatency.reset();
+    }
+}
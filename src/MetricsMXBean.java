@@ -0,0 +1,61 @@
+/**
+ * The MetricsMXBean interface is the management interface of the {@link Metrics}, registered in the platform
+ * MBean server as "SimpleCalculator:type=Metrics" so that JConsole, VisualVM or any JMX client can read it.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return the number of expressions evaluated, successfully or not.
+     */
+    long getEvaluations();
+
+    /**
+     * @return the number of evaluations that failed, such as divisions by zero.
+     */
+    long getEvaluationErrors();
+
+    /**
+     * @return the number of base conversions, successful or not.
+     */
+    long getConversions();
+
+    /**
+     * @return the number of base conversions that failed, such as invalid digits.
+     */
+    long getConversionErrors();
+
+    /**
+     * @return the number of messages logged (not counting the ones below the level threshold).
+     */
+    long getLogMessages();
+
+    /**
+     * @return the number of evaluations and conversions stopped because they went over their {@link Budget}, cancellations included.
+     */
+    long getBudgetsExceeded();
+
+    /**
+     * @return how long the evaluations took, including the expression cache lookups.
+     */
+    LatencySnapshot getEvaluateLatency();
+
+    /**
+     * @return how long formater took to parse the expressions that were not cached.
+     */
+    LatencySnapshot getFormaterLatency();
+
+    /**
+     * @return how long the base conversions took.
+     */
+    LatencySnapshot getConvertLatency();
+
+    /**
+     * @return how long the calls to Logger.log took.
+     */
+    LatencySnapshot getLogLatency();
+
+    /**
+     * Sets every counter and histogram back to zero.
+     */
+    void reset();
+}
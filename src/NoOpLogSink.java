@@ -0,0 +1,20 @@
+/**
+ * The NoOpLogSink class discards every log event.
+ *
+ * Using it as the only sink turns logging off. Together with the level threshold of the {@link Logger},
+ * this also means the messages logged with a supplier are never built.
+ */
+public class NoOpLogSink implements LogSink {
+
+    /**
+     * The shared instance, since the sink has no state.
+     */
+    public static final NoOpLogSink INSTANCE = new NoOpLogSink();
+
+    private NoOpLogSink() {
+    }
+
+    @Override
+    public void write(LogEvent event) {
+    }
+}
@@ -0,0 +1,210 @@
+import com.sun.jna.platform.win32.WinNT;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The ParallelEvaluator class evaluates one very long expression on several threads.
+ *
+ * Since '*' and '/' are applied before '+' and '-', an expression is the sum of its top-level terms
+ * (ex.: "2*3+4/2-5" is 2*3 + 4/2 + -5), and every term can be calculated on its own. The expression is split
+ * in two at a '+' or a '-' near its middle, again and again, until the parts are shorter than the threshold;
+ * the parts are then evaluated by {@link StreamingEvaluator}s on the threads of a {@link ForkJoinPool},
+ * and their results are added up. The int additions overflow the same way in any order,
+ * so the result is always the one evaluateExpression gives.
+ *
+ * An expression is only split between a digit and a '+' or a '-' followed by a digit, where the parts can't
+ * change each other's meaning. If a malformed part leaves operations or numbers waiting for the next part
+ * (ex.: "*5+3"), the expression is evaluated again on a single thread, which gives the sequential result for any input.
+ *
+ * The expression can be a CharSequence or a ByteBuffer of ASCII characters, such as a memory-mapped file.
+ */
+public class ParallelEvaluator {
+
+    /**
+     * The pool the parts of the expressions are evaluated in.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The number of characters below which a part of an expression is not split anymore.
+     */
+    private final int threshold;
+
+    /**
+     * Creates an evaluator running in the common ForkJoinPool, with `Main.parallelEvaluationThreshold` as its threshold.
+     */
+    public ParallelEvaluator() {
+        this(ForkJoinPool.commonPool(), Main.parallelEvaluationThreshold);
+    }
+
+    /**
+     * Creates an evaluator.
+     *
+     * @param pool      the pool the parts of the expressions are evaluated in.
+     * @param threshold the number of characters below which an expression, or a part of it, is evaluated sequentially.
+     * @throws IllegalArgumentException if the threshold is smaller than 1.
+     */
+    public ParallelEvaluator(ForkJoinPool pool, int threshold) {
+        if (threshold < 1)
+            throw new IllegalArgumentException("The threshold must be at least 1: " + threshold);
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Evaluates an expression, in parallel if it is longer than the threshold, and logs its result.
+     *
+     * @param expression the expression to be evaluated.
+     * @return the result of the expression as an integer.
+     * @throws ArithmeticException if the expression divides by zero.
+     */
+    public int evaluate(CharSequence expression) {
+        return evaluate(new Source(expression, null, expression.length()));
+    }
+
+    /**
+     * Evaluates an expression written as ASCII characters between the position and the limit of a buffer,
+     * in parallel if it is longer than the threshold, and logs its result. The position of the buffer is not changed.
+     *
+     * @param expression the buffer holding the expression, ex.: a memory-mapped file.
+     * @return the result of the expression as an integer.
+     * @throws ArithmeticException if the expression divides by zero.
+     */
+    public int evaluate(ByteBuffer expression) {
+        return evaluate(new Source(null, expression.slice(), expression.remaining()));
+    }
+
+    private int evaluate(Source source) {
+        int length = source.length;
+        int result;
+        if (length <= threshold)
+            result = evaluatePart(source, 0, length, true);
+        else {
+            try {
+                result = pool.invoke(new Part(source, 0, length, threshold));
+            } catch (ArithmeticException e) {
+                //the division by zero might come from a part that follows a malformed one, so it is checked in one go below
+                source.unbalanced = true;
+                result = 0;
+            }
+            //a malformed part can't be evaluated on its own, so the expression is evaluated again in one go
+            if (source.unbalanced)
+                result = evaluatePart(source, 0, length, true);
+        }
+
+        //we log the result, but not the expression itself, since it can be many megabytes long
+        int loggedResult = result;
+        Logger.log(() -> "Evaluated an expression of " + length + " characters in parallel to be " + loggedResult, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+
+        return result;
+    }
+
+    /**
+     * Evaluates a part of an expression on the calling thread.
+     *
+     * @param last whether the part ends the expression. Any other part must not leave operations or numbers
+     *             waiting for the next part, otherwise the source is marked as unbalanced.
+     * @return the sum of the terms of the part.
+     */
+    private static int evaluatePart(Source source, int from, int to, boolean last) {
+        StreamingEvaluator evaluator = new StreamingEvaluator();
+        //one loop for each kind of source, so that the loop that runs doesn't check the kind for every character
+        if (source.chars != null)
+            evaluator.accept(source.chars, from, to);
+        else
+            for (int i = from; i < to; i++)
+                evaluator.accept((char) (source.bytes.get(i) & 0xFF));
+        if (!last && !evaluator.isBalanced()) {
+            //its waiting operations would be paired with 0 by finish, which could even divide by zero
+            source.unbalanced = true;
+            return 0;
+        }
+        return evaluator.finish();
+    }
+
+    /**
+     * The characters of an expression, read from a CharSequence or from the bytes of a buffer.
+     */
+    private static final class Source {
+        private final CharSequence chars;
+        private final ByteBuffer bytes;
+        private final int length;
+
+        /**
+         * Set when a part that isn't the last one is malformed, so that the result of the parts can't be trusted.
+         */
+        volatile boolean unbalanced;
+
+        Source(CharSequence chars, ByteBuffer bytes, int length) {
+            this.chars = chars;
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        char charAt(int index) {
+            return chars != null ? chars.charAt(index) : (char) (bytes.get(index) & 0xFF);
+        }
+
+        boolean isDigit(int index) {
+            char c = charAt(index);
+            return c >= 48 && c <= 57;
+        }
+    }
+
+    /**
+     * The task evaluating a part of an expression: it splits the part in two at a '+' or a '-' if the part is too long,
+     * or evaluates it otherwise.
+     */
+    private static final class Part extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        //tasks are never serialized, and the Source can't be
+        private final transient Source source;
+        private final int from, to, threshold;
+
+        Part(Source source, int from, int to, int threshold) {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected Integer compute() {
+            boolean last = to == source.length;
+            int split = to - from > threshold ? findSplit() : -1;
+            if (split < 0)
+                return evaluatePart(source, from, to, last);
+
+            //a '+' is dropped, while a '-' starts the right part, where it makes the first number negative
+            Part left = new Part(source, from, split, threshold);
+            Part right = new Part(source, source.charAt(split) == '+' ? split + 1 : split, to, threshold);
+            right.fork();
+            int sum = left.compute();
+            return sum + right.join();
+        }
+
+        /**
+         * Finds the '+' or '-' closest to the middle of the part that is between a digit and another digit.
+         *
+         * @return the index of the operation, or -1 if the part has none.
+         */
+        private int findSplit() {
+            int middle = (from + to) >>> 1;
+            for (int i = middle; i < to - 1; i++)
+                if (isSplit(i))
+                    return i;
+            for (int i = middle - 1; i > from; i--)
+                if (isSplit(i))
+                    return i;
+            return -1;
+        }
+
+        private boolean isSplit(int index) {
+            char c = source.charAt(index);
+            return (c == '+' || c == '-') && source.isDigit(index - 1) && source.isDigit(index + 1);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+import com.sun.jna.platform.win32.WinNT;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ResultCache class keeps the results of the expressions evaluated most often, keyed by their text,
+ * so that evaluating them again costs a lookup instead of a parse and an evaluation.
+ *
+ * Which expressions stay in the cache is decided by how often they are used, not only how recently (TinyLFU):
+ * every lookup is counted in a small frequency sketch, and once the cache is full a new result only gets in if its
+ * expression was looked up more often than the least recently used expression of the cache, which is then evicted.
+ * So a burst of expressions that are only seen once can't push out the ones the workload keeps coming back to.
+ * The counts are halved regularly, so that expressions that were popular a long time ago are eventually forgotten.
+ *
+ * The cache can be saved to a file (see {@link #save(Path)}) and loaded back when the application starts
+ * (see {@link #load(Path)}), so that it starts with the expressions that were hot before the restart.
+ * Expressions longer than its maximum length are never cached, so neither the cache nor the snapshot grows with them.
+ * All methods are safe to call from multiple threads at the same time.
+ */
+public class ResultCache {
+
+    /**
+     * The value returned by {@link #get(String)} when the expression is not in the cache. No int result is equal to it.
+     */
+    public static final long missing = Long.MIN_VALUE;
+
+    /**
+     * The first 4 bytes of a snapshot file, "SCR1".
+     */
+    private static final int snapshotMagic = 0x53435231;
+
+    /**
+     * The maximum number of results the cache holds. A value of 0 or less disables caching.
+     */
+    private final int maximumSize;
+
+    /**
+     * The number of characters of the longest expression the cache keeps. The keys are the whole texts of the expressions,
+     * so without this bound a few long expressions would take more memory and snapshot space than all the others.
+     */
+    private final int maximumLength;
+
+    /**
+     * The cached results, ordered from the least recently used to the most recently used.
+     * Every access to the map is guarded by synchronizing on it, and so is the frequency sketch.
+     */
+    private final LinkedHashMap<String, Integer> results = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Estimates how many times every expression was looked up recently.
+     */
+    private final FrequencySketch sketch;
+
+    //the statistics of the cache
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * How long the last {@link #load(Path)} took, in nanoseconds.
+     */
+    private volatile long loadNanos;
+
+    /**
+     * Creates an empty cache that holds at most the given number of results.
+     *
+     * @param maximumSize   the maximum number of results to keep, 0 or less disables caching.
+     * @param maximumLength the number of characters of the longest expression to keep; longer ones are never cached.
+     */
+    public ResultCache(int maximumSize, int maximumLength) {
+        this.maximumSize = maximumSize;
+        this.maximumLength = maximumLength;
+        this.sketch = new FrequencySketch(Math.max(1, maximumSize));
+    }
+
+    /**
+     * Looks up the result of an expression, and counts the lookup in the frequency of the expression.
+     *
+     * @param expression the text of the expression.
+     * @return the cached result, or {@link #missing} if the expression is not in the cache.
+     */
+    public long get(String expression) {
+        if (expression.length() > maximumLength) {
+            misses.increment();
+            return missing;
+        }
+
+        Integer result;
+        synchronized (results) {
+            sketch.increment(expression.hashCode());
+            result = results.get(expression);
+        }
+        if (result == null) {
+            misses.increment();
+            return missing;
+        }
+        hits.increment();
+        return result;
+    }
+
+    /**
+     * Offers the result of an expression to the cache. Once the cache is full, the result is only kept if the
+     * expression is used more often than the least recently used one, which is evicted to make room.
+     * The result of an expression longer than the maximum length is not kept.
+     *
+     * @param expression the text of the expression.
+     * @param result     its result.
+     */
+    public void put(String expression, int result) {
+        if (maximumSize <= 0 || expression.length() > maximumLength)
+            return;
+        synchronized (results) {
+            if (results.size() >= maximumSize && !results.containsKey(expression)) {
+                //the least recently used expression is the first one of the map
+                Iterator<Map.Entry<String, Integer>> eldest = results.entrySet().iterator();
+                String victim = eldest.next().getKey();
+                if (sketch.frequency(expression.hashCode()) <= sketch.frequency(victim.hashCode())) {
+                    rejections.increment();
+                    return;
+                }
+                eldest.remove();
+                evictions.increment();
+            }
+            results.put(expression, result);
+        }
+    }
+
+    /**
+     * Writes the cached results to a file, the most frequently used first, along with their frequencies.
+     * The file is written next to the target and then moved over it, so a crash never leaves a partial snapshot.
+     *
+     * @param file the snapshot file.
+     * @return the number of results written.
+     * @throws IOException if the file can't be written.
+     */
+    public int save(Path file) throws IOException {
+        List<Map.Entry<String, Integer>> entries;
+        int[] frequencies;
+        synchronized (results) {
+            entries = new ArrayList<>(results.entrySet().size());
+            for (Map.Entry<String, Integer> entry : results.entrySet())
+                entries.add(Map.entry(entry.getKey(), entry.getValue()));
+            frequencies = new int[entries.size()];
+            for (int i = 0; i < frequencies.length; i++)
+                frequencies[i] = sketch.frequency(entries.get(i).getKey().hashCode());
+        }
+
+        //sort by frequency, so that a smaller cache loading the snapshot keeps the hottest results
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(frequencies[b], frequencies[a]));
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(snapshotMagic);
+            out.writeInt(order.length);
+            for (int i : order) {
+                byte[] text = entries.get(i).getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(frequencies[i]);
+                out.writeInt(entries.get(i).getValue());
+                out.writeInt(text.length);
+                out.write(text);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return order.length;
+    }
+
+    /**
+     * Fills the cache with the results of a snapshot, up to its maximum size, and gives their expressions
+     * at least the frequencies they had when it was saved. A missing file is not an error.
+     *
+     * @param file the snapshot file.
+     * @return the number of results loaded.
+     * @throws IOException if the file can't be read or is not a snapshot.
+     */
+    public int load(Path file) throws IOException {
+        long start = System.nanoTime();
+        List<String> expressions = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+        List<Integer> frequencies = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != snapshotMagic)
+                throw new IOException(file + " is not a result cache snapshot");
+            int count = in.readInt();
+            for (int i = 0; i < count && expressions.size() < maximumSize; i++) {
+                int frequency = in.readUnsignedByte();
+                int value = in.readInt();
+                int length = in.readInt();
+                if (length < 0 || length > 1 << 24)
+                    throw new IOException(file + " is damaged");
+                byte[] text = new byte[length];
+                in.readFully(text);
+                String expression = new String(text, StandardCharsets.UTF_8);
+                //a snapshot saved with a larger maximum length can hold longer expressions, which we skip
+                if (expression.length() > maximumLength)
+                    continue;
+                frequencies.add(frequency);
+                values.add(value);
+                expressions.add(expression);
+            }
+        } catch (NoSuchFileException e) {
+            //no snapshot yet, the cache starts empty
+        }
+
+        //the hottest results come first in the file, so they are put last to be the most recently used ones
+        synchronized (results) {
+            for (int i = expressions.size() - 1; i >= 0; i--) {
+                sketch.ensureAtLeast(expressions.get(i).hashCode(), frequencies.get(i));
+                results.put(expressions.get(i), values.get(i));
+            }
+            //a cache that already had results keeps only its most recently used ones
+            Iterator<Map.Entry<String, Integer>> eldest = results.entrySet().iterator();
+            while (results.size() > Math.max(0, maximumSize)) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        loadNanos = System.nanoTime() - start;
+        return expressions.size();
+    }
+
+    /**
+     * Loads the snapshot file if there is one, then saves the cache to it at a fixed interval from a background thread,
+     * and one last time when the application exits.
+     *
+     * @param file            the snapshot file.
+     * @param intervalSeconds the number of seconds between two snapshots.
+     */
+    public void persist(Path file, long intervalSeconds) {
+        try {
+            int loaded = load(file);
+            Logger.log("Loaded " + loaded + " results into the result cache in " + String.format("%.1f", loadNanos / 1e6) + " ms", (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+        } catch (IOException e) {
+            Logger.log("Could not load the result cache: " + e.getMessage(), (byte) WinNT.EVENTLOG_WARNING_TYPE);
+        }
+
+        ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "Result cache snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        saver.scheduleWithFixedDelay(() -> saveQuietly(file), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            saver.shutdownNow();
+            saveQuietly(file);
+        }, Main.name + " result cache snapshot"));
+    }
+
+    private void saveQuietly(Path file) {
+        try {
+            int saved = save(file);
+            Logger.log("Saved " + saved + " results of the result cache, " + this, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+        } catch (IOException e) {
+            Logger.log("Could not save the result cache: " + e.getMessage(), (byte) WinNT.EVENTLOG_WARNING_TYPE);
+        }
+    }
+
+    /**
+     * Returns the number of results currently held by the cache.
+     *
+     * @return the current size of the cache.
+     */
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found their result in the cache.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that didn't find their result in the cache.
+     *
+     * @return the number of cache misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the fraction of lookups that were served from the cache.
+     *
+     * @return the hit ratio between 0 and 1, or 0 if there were no lookups yet.
+     */
+    public double getHitRatio() {
+        long hitCount = hits.sum(), total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Returns how long loading the last snapshot took.
+     *
+     * @return the time of the last load in nanoseconds, 0 if nothing was loaded.
+     */
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResultCache[size=%d/%d, hits=%d, misses=%d, hitRatio=%.3f, rejections=%d, evictions=%d]",
+                size(), maximumSize, getHits(), getMisses(), getHitRatio(), rejections.sum(), evictions.sum());
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters estimating how many times an expression was looked up.
+     *
+     * Every hash is counted in 4 counters, each in a different long of the table, and its frequency is the smallest
+     * of the 4, which is never below the real count (up to 15). After 10 times as many increments as the cache
+     * has room for, every counter is halved, so that the frequencies follow the recent lookups.
+     */
+    private static final class FrequencySketch {
+        private static final long[] seeds = {0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+        private static final long halfMask = 0x7777_7777_7777_7777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            table = new long[Math.max(8, Integer.highestOneBit(Math.min(maximumSize, 1 << 28) - 1) << 1)];
+            sampleSize = 10 * Math.min(maximumSize, Integer.MAX_VALUE / 10);
+        }
+
+        int frequency(int hash) {
+            int frequency = 15;
+            for (int i = 0; i < 4; i++)
+                frequency = Math.min(frequency, (int) (table[index(hash, i)] >>> shift(hash, i)) & 0xF);
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = index(hash, i), shift = shift(hash, i);
+                if (((table[index] >>> shift) & 0xF) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                //halve every counter: shift the whole long and clear the bit each counter got from its neighbour
+                for (int i = 0; i < table.length; i++)
+                    table[i] = (table[i] >>> 1) & halfMask;
+                additions /= 2;
+            }
+        }
+
+        void ensureAtLeast(int hash, int frequency) {
+            frequency = Math.min(frequency, 15);
+            for (int i = 0; i < 4; i++) {
+                int index = index(hash, i), shift = shift(hash, i);
+                long counter = (table[index] >>> shift) & 0xF;
+                if (counter < frequency)
+                    table[index] += (frequency - counter) << shift;
+            }
+        }
+
+        private int index(int hash, int i) {
+            long mixed = (hash + seeds[i]) * seeds[i];
+            return (int) (mixed >>> 40) & (table.length - 1);
+        }
+
+        private int shift(int hash, int i) {
+            //each of the 4 hashes uses a different nibble of its long, picked by 2 bits of the hash
+            return ((((hash >>> (i * 2)) & 3) << 2) + i) << 2;
+        }
+    }
+}
@@ -0,0 +1,591 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The RotatingLogSink class writes the log entries to a series of files, called segments, so that the logs never take
+ * more than a fixed amount of disk space and a time range can be read without scanning all of them.
+ *
+ * The entries are appended to the current segment, [name].txt (or [name].bin), until it reaches its maximum size or age.
+ * It is then closed and renamed [name]-[yyyyMMdd-HHmmss-SSS].txt after the time it was started at, optionally
+ * compressed to [name]-[...].txt.gz by a background thread, and the oldest closed segments are deleted so that
+ * only the given number of them is kept.
+ *
+ * The entries are written either as text, in the same form as a {@link FileLogSink}, or in a compact binary form
+ * where every record has a fixed header followed by the message:
+ *
+ *     int length | long time (nanoseconds since the epoch) | byte level | short source id | message (UTF-8)
+ *
+ * where the source id stands for the name of the class that logged the entry, defined once by a record with the
+ * level {@link #sourceDefinition} and the class name as its message. Binary segments start with the magic number "SCL1".
+ *
+ * Every segment has an index next to it, [segment].idx, which splits it into blocks of about {@link #blockSize} bytes
+ * and gives the offset, the length and the time range of every block. The binary source ids are defined again
+ * in every block, and a compressed segment has a separate gzip member for every block, so every block can be read
+ * on its own, which is how {@link LogQuery} only reads the blocks of a time range.
+ *
+ * Like a FileLogSink, the entries are collected in memory and written with a single write when the sink is flushed.
+ */
+public class RotatingLogSink implements LogSink {
+
+    /**
+     * The first 4 bytes of a binary segment, "SCL1".
+     */
+    static final int binaryMagic = 0x53434C31;
+
+    /**
+     * The first 4 bytes of an index, "SCX1".
+     */
+    static final int indexMagic = 0x53435831;
+
+    /**
+     * The size of one entry of an index: the offset and the length of the block, and the oldest and newest times in it.
+     */
+    static final int indexEntrySize = 32;
+
+    /**
+     * The size of the header of a binary record, including its length.
+     */
+    static final int binaryHeaderSize = 4 + 8 + 1 + 2;
+
+    /**
+     * The largest binary record read back, to stop at garbage instead of allocating a huge buffer.
+     */
+    static final int maxBinaryRecordSize = 1 << 24;
+
+    /**
+     * The level of the binary records defining the class name of a source id.
+     */
+    static final byte sourceDefinition = -1;
+
+    /**
+     * The number of bytes after which a block of a segment is ended, at the end of the entry that crosses it.
+     */
+    static final int blockSize = 64 << 10;
+
+    /**
+     * The format of the time in the names of the closed segments, which sorts them from the oldest to the newest.
+     */
+    private static final DateTimeFormatter segmentTimeFormatter = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final Path folder;
+    private final String name;
+    private final boolean binary;
+    private final long maxSegmentBytes;
+    private final long maxSegmentMillis;
+    private final int segmentsKept;
+    private final boolean compress;
+
+    /**
+     * The entries written since the last flush, and the index entries of the blocks they ended.
+     */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream pendingIndex = new ByteArrayOutputStream();
+
+    /**
+     * The text of a text entry being encoded.
+     */
+    private final StringBuilder entry = new StringBuilder();
+
+    /**
+     * The current segment and its index, or null if they have not been opened yet.
+     */
+    private FileChannel channel;
+    private FileChannel indexChannel;
+
+    /**
+     * The size of the current segment, counting the pending entries, and the time it was started at.
+     */
+    private long segmentSize;
+    private long segmentStartMillis;
+
+    /**
+     * The offset of the block being written, and the oldest and newest times in it, or -1 if it is empty.
+     */
+    private long blockOffset = -1;
+    private long blockMinNanos, blockMaxNanos;
+
+    /**
+     * The source ids of the class names defined in the block being written (binary only).
+     */
+    private final Map<String, Integer> sourceIds = new HashMap<>();
+
+    /**
+     * The thread compressing the closed segments, created the first time a segment is compressed.
+     */
+    private ExecutorService compressor;
+
+    /**
+     * Whether the segments left by an earlier run have been handled, which is done when the first segment is opened.
+     */
+    private boolean recovered;
+
+    /**
+     * Creates a sink writing segments to a folder. Nothing is written until the first entry arrives.
+     *
+     * @param folder           the folder of the segments, created if needed.
+     * @param name             the name of the segments, ex.: "logs" for logs.txt and logs-[time].txt.
+     * @param binary           whether the entries are written in the binary format, or as text.
+     * @param maxSegmentBytes  the size a segment is closed at.
+     * @param maxSegmentMillis the age a segment is closed at, in milliseconds, or 0 to only close segments on their size.
+     * @param segmentsKept     the number of closed segments kept, the oldest ones being deleted.
+     * @param compress         whether the closed segments are compressed with gzip.
+     */
+    public RotatingLogSink(Path folder, String name, boolean binary, long maxSegmentBytes, long maxSegmentMillis, int segmentsKept, boolean compress) {
+        if (maxSegmentBytes < 1 || segmentsKept < 0)
+            throw new IllegalArgumentException("Invalid segment size " + maxSegmentBytes + " or number of segments " + segmentsKept);
+        this.folder = folder;
+        this.name = name;
+        this.binary = binary;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentMillis = maxSegmentMillis;
+        this.segmentsKept = segmentsKept;
+        this.compress = compress;
+    }
+
+    /**
+     * Returns the file the entries are currently appended to.
+     *
+     * @return the path of the current segment.
+     */
+    public Path getPath() {
+        return folder.resolve(name + extension(binary));
+    }
+
+    @Override
+    public synchronized void write(LogEvent event) {
+        try {
+            if (channel == null)
+                open();
+            else if (segmentSize >= maxSegmentBytes || (maxSegmentMillis > 0 && event.timeMillis - segmentStartMillis >= maxSegmentMillis))
+                rotate();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        long nanos = event.timeNanos;
+        if (blockOffset < 0) {
+            blockOffset = segmentSize;
+            blockMinNanos = blockMaxNanos = nanos;
+            sourceIds.clear();
+        }
+        blockMinNanos = Math.min(blockMinNanos, nanos);
+        blockMaxNanos = Math.max(blockMaxNanos, nanos);
+
+        int before = pending.size();
+        if (binary) {
+            Integer sourceId = sourceIds.get(event.className);
+            if (sourceId == null && sourceIds.size() > 0xFFFF) {
+                //the ids are shorts, so a block with that many classes is ended to start the ids again
+                endBlock();
+                blockOffset = segmentSize;
+                blockMinNanos = blockMaxNanos = nanos;
+                sourceIds.clear();
+            }
+            if (sourceId == null) {
+                sourceId = sourceIds.size();
+                sourceIds.put(event.className, sourceId);
+                writeBinaryRecord(nanos, sourceDefinition, sourceId, event.className);
+            }
+            writeBinaryRecord(nanos, event.eventLevel, sourceId, event.message);
+        } else {
+            entry.setLength(0);
+            Logger.formatEntry(event, entry);
+            pending.writeBytes(entry.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        segmentSize += pending.size() - before;
+
+        if (segmentSize - blockOffset >= blockSize)
+            endBlock();
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (pending.size() == 0 && pendingIndex.size() == 0)
+            return;
+        try {
+            if (channel == null)
+                open();
+            //the entries are written before the index, so the index never points past the end of the segment
+            writeFully(channel, pending);
+            writeFully(indexChannel, pendingIndex);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel != null) {
+            endBlock();
+            flush();
+            closeChannels();
+        }
+        if (compressor != null) {
+            //give the compression some time to finish, what isn't compressed by then is compressed the next time
+            compressor.shutdown();
+            try {
+                if (!compressor.awaitTermination(10, TimeUnit.SECONDS))
+                    compressor.shutdownNow();
+            } catch (InterruptedException e) {
+                compressor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            compressor = null;
+        }
+    }
+
+    /**
+     * Opens the current segment. The first time, the current segment left by an earlier run is carried on if possible,
+     * and the closed segments that were not compressed yet (ex.: because the application exited meanwhile) are compressed.
+     */
+    private void open() throws IOException {
+        Files.createDirectories(folder);
+        Path path = getPath();
+        if (!recovered) {
+            recovered = true;
+            if (compress)
+                for (Path segment : closedSegments(folder, name))
+                    if (!segment.getFileName().toString().endsWith(".gz"))
+                        scheduleCompression(segment);
+            if (Files.exists(path) && Files.size(path) > 0) {
+                if (resume(path))
+                    return;
+                close(path, Files.getLastModifiedTime(path).toMillis());
+            }
+        }
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        indexChannel = FileChannel.open(indexOf(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        pendingIndex.writeBytes(ByteBuffer.allocate(4).putInt(indexMagic).array());
+        segmentSize = 0;
+        if (binary) {
+            pending.writeBytes(ByteBuffer.allocate(4).putInt(binaryMagic).array());
+            segmentSize = 4;
+        }
+        segmentStartMillis = System.currentTimeMillis();
+        blockOffset = -1;
+    }
+
+    /**
+     * Carries on with the current segment left by an earlier run, so that short runs (ex.: "--eval") don't each leave
+     * a segment of their own. What the earlier run wrote after its last indexed block is indexed as a block,
+     * and a record it left cut short is removed.
+     *
+     * @return false if the segment can't be carried on, because too much of it isn't indexed (ex.: a logs file
+     * written before the indexes existed) or, for a binary sink, it doesn't start with the binary magic number,
+     * in which case it must be closed. Text segments are carried on like binary ones.
+     */
+    private boolean resume(Path path) throws IOException {
+        List<long[]> blocks = LogQuery.readIndex(indexOf(path));
+        long end = blocks.isEmpty() ? (binary ? 4 : 0) : blocks.get(blocks.size() - 1)[0] + blocks.get(blocks.size() - 1)[1];
+        long size = Files.size(path);
+        if (size < end || size - end > 2L * blockSize)
+            return false;
+
+        FileChannel data = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            if (binary && (data.read(magic, 0) != 4 || magic.getInt(0) != binaryMagic)) {
+                data.close();
+                return false;
+            }
+
+            //index the rest, up to its last complete entry
+            LogSegmentReader reader = new LogSegmentReader(new BufferedInputStream(Channels.newInputStream(data.position(end)), 1 << 16), binary);
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            while (reader.next() != null) {
+                min = Math.min(min, reader.getLastNanos());
+                max = Math.max(max, reader.getLastNanos());
+            }
+            if (reader.getPosition() > 0)
+                blocks.add(new long[]{end, reader.getPosition(), min, max});
+            data.truncate(end + reader.getPosition());
+
+            //the index is written again, in case its last entry was cut short
+            ByteBuffer index = ByteBuffer.allocate(4 + blocks.size() * indexEntrySize).putInt(indexMagic);
+            for (long[] block : blocks)
+                index = addIndexEntry(index, block[0], block[2], block[3], block[1]);
+            indexChannel = FileChannel.open(indexOf(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            index.flip();
+            while (index.hasRemaining())
+                indexChannel.write(index);
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+
+        channel = data;
+        segmentSize = data.size();
+        channel.position(segmentSize);
+        //the segment was started at the time of its first entry
+        segmentStartMillis = blocks.isEmpty() ? System.currentTimeMillis() : Math.floorDiv(blocks.get(0)[2], 1_000_000);
+        blockOffset = -1;
+        return true;
+    }
+
+    /**
+     * Closes the current segment and opens a new one.
+     */
+    private void rotate() throws IOException {
+        endBlock();
+        flush();
+        closeChannels();
+        close(getPath(), segmentStartMillis);
+        open();
+    }
+
+    /**
+     * Renames a segment that was just closed after the time it was started at, schedules its compression,
+     * and deletes the oldest closed segments.
+     */
+    private void close(Path path, long startMillis) throws IOException {
+        String time = LocalDateTime.ofInstant(Instant.ofEpochMilli(startMillis), ZoneId.systemDefault()).format(segmentTimeFormatter);
+        Path closed = folder.resolve(name + "-" + time + extension(binary));
+        //two segments started in the same millisecond, ex.: after the clock of the system went back
+        for (int i = 1; Files.exists(closed) || Files.exists(closed.resolveSibling(closed.getFileName() + ".gz")); i++)
+            closed = folder.resolve(name + "-" + time + "-" + i + extension(binary));
+
+        //the index is moved first, so that a segment is never left with the index of another one
+        if (Files.exists(indexOf(path)))
+            Files.move(indexOf(path), indexOf(closed), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(path, closed);
+
+        List<Path> segments = closedSegments(folder, name);
+        for (int i = 0; i < segments.size() - segmentsKept; i++) {
+            Files.deleteIfExists(segments.get(i));
+            Files.deleteIfExists(indexOf(segments.get(i)));
+        }
+        if (compress && Files.exists(closed))
+            scheduleCompression(closed);
+    }
+
+    /**
+     * Returns the closed segments with the given name in a folder, of both formats and compressed or not,
+     * from the oldest to the newest.
+     */
+    static List<Path> closedSegments(Path folder, String name) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, name + "-*.{txt,bin,txt.gz,bin.gz}")) {
+            files.forEach(segments::add);
+        } catch (NoSuchFileException e) {
+            return segments;
+        }
+        segments.sort((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()));
+        return segments;
+    }
+
+    /**
+     * Returns the index of a segment.
+     */
+    static Path indexOf(Path segment) {
+        return segment.resolveSibling(segment.getFileName() + ".idx");
+    }
+
+    static String extension(boolean binary) {
+        return binary ? ".bin" : ".txt";
+    }
+
+    private void scheduleCompression(Path segment) {
+        if (compressor == null)
+            compressor = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "Log compression");
+                thread.setDaemon(true);
+                return thread;
+            });
+        compressor.execute(() -> {
+            try {
+                compress(segment);
+            } catch (NoSuchFileException e) {
+                //the segment was deleted meanwhile, because there were more segments than the ones kept
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Compresses a closed segment to [segment].gz, with a gzip member for every block so that the blocks can still
+     * be read on their own, and writes its index with the offsets of the members. The segment and its old index are
+     * deleted once the compressed ones are complete.
+     *
+     * The blocks come from the index of the segment. What follows the last indexed block, which is everything
+     * for a segment written before the indexes existed, is split into blocks again while it is compressed.
+     *
+     * @param segment the closed segment.
+     * @throws IOException if the segment can't be read or the compressed one can't be written.
+     */
+    static void compress(Path segment) throws IOException {
+        boolean binary = segment.getFileName().toString().endsWith(".bin");
+        Path compressed = segment.resolveSibling(segment.getFileName() + ".gz");
+        Path temporary = compressed.resolveSibling(compressed.getFileName() + ".tmp");
+        Path temporaryIndex = indexOf(temporary);
+
+        List<long[]> blocks = LogQuery.readIndex(indexOf(segment));
+        ByteBuffer index = ByteBuffer.allocate(4 + (blocks.size() + 16) * indexEntrySize).putInt(indexMagic);
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long end = binary ? 4 : 0;
+            for (long[] block : blocks) {
+                index = addIndexEntry(index, out.position(), block[2], block[3], compressMember(read(in, block[0], block[1]), out));
+                end = block[0] + block[1];
+            }
+
+            //split the rest of the segment into blocks, at the entries; the binary blocks can't be split, since they need their source definitions
+            InputStream rest = new BufferedInputStream(Channels.newInputStream(in.position(end)), 1 << 16);
+            LogSegmentReader reader = new LogSegmentReader(rest, binary);
+            long blockStart = end, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            boolean more = true;
+            while (more) {
+                more = reader.next() != null;
+                if (more) {
+                    min = Math.min(min, reader.getLastNanos());
+                    max = Math.max(max, reader.getLastNanos());
+                }
+                long blockEnd = end + reader.getPosition();
+                if (blockEnd > blockStart && ((!binary && blockEnd - blockStart >= blockSize) || !more)) {
+                    index = addIndexEntry(index, out.position(), min, max, compressMember(read(in, blockStart, blockEnd - blockStart), out));
+                    blockStart = blockEnd;
+                    min = Long.MAX_VALUE;
+                    max = Long.MIN_VALUE;
+                }
+            }
+            out.force(false);
+        }
+        try (FileChannel indexOut = FileChannel.open(temporaryIndex, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            indexOut.write(index.flip());
+        }
+
+        //the index is moved first, so that the compressed segment is never read with the offsets of the uncompressed one
+        Files.move(temporaryIndex, indexOf(compressed), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(temporary, compressed, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(segment);
+        Files.deleteIfExists(indexOf(segment));
+    }
+
+    /**
+     * Writes bytes as a gzip member of their own at the position of a channel.
+     *
+     * @return the length of the member.
+     */
+    private static long compressMember(byte[] bytes, FileChannel channel) throws IOException {
+        long start = channel.position();
+        //the member is finished without closing the channel
+        OutputStream member = new FilterOutputStream(Channels.newOutputStream(channel)) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        try (GZIPOutputStream gzip = new GZIPOutputStream(member, 1 << 16) {
+            {
+                //logs are very repetitive, so the fastest level already shrinks them about tenfold
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        }) {
+            gzip.write(bytes);
+        }
+        return channel.position() - start;
+    }
+
+    /**
+     * Reads a range of a channel.
+     */
+    private static byte[] read(FileChannel channel, long offset, long length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(Math.toIntExact(length));
+        while (bytes.hasRemaining())
+            if (channel.read(bytes, offset + bytes.position()) < 0)
+                throw new IOException("The segment is shorter than its index");
+        return bytes.array();
+    }
+
+    private static ByteBuffer addIndexEntry(ByteBuffer index, long offset, long minNanos, long maxNanos, long length) {
+        if (index.remaining() < indexEntrySize)
+            index = ByteBuffer.allocate(index.capacity() * 2).put(index.flip());
+        return index.putLong(offset).putLong(length).putLong(minNanos).putLong(maxNanos);
+    }
+
+    /**
+     * Ends the block being written, adding its entry to the pending index.
+     */
+    private void endBlock() {
+        if (blockOffset < 0)
+            return;
+        pendingIndex.writeBytes(ByteBuffer.allocate(indexEntrySize)
+                .putLong(blockOffset).putLong(segmentSize - blockOffset).putLong(blockMinNanos).putLong(blockMaxNanos).array());
+        blockOffset = -1;
+    }
+
+    private void writeBinaryRecord(long nanos, byte level, int sourceId, String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(binaryHeaderSize)
+                .putInt(binaryHeaderSize - 4 + text.length).putLong(nanos).put(level).putShort((short) sourceId);
+        pending.writeBytes(header.array());
+        pending.writeBytes(text);
+    }
+
+    private static void writeFully(FileChannel channel, ByteArrayOutputStream bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        bytes.reset();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    private void closeChannels() {
+        FileChannel data = channel, index = indexChannel;
+        channel = null;
+        indexChannel = null;
+
+        //the index is closed even if closing the data failed, and the first failure is the one reported
+        IOException failure = null;
+        if (data != null)
+            try {
+                data.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        if (index != null)
+            try {
+                index.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        if (failure != null)
+            failure.printStackTrace();
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * The ScalarColumnKernels class holds the loops a {@link ColumnFormula} runs over slices of columns,
+ * one row at a time. They are plain counted loops over arrays, which the JIT can unroll and often vectorize on its own.
+ *
+ * The multiplications and divisions apply an operation between the rows of a left slice and the rows of a right slice
+ * (or a value), storing the results at the start of a destination block, while the additions and subtractions
+ * add the rows of a source slice to the rows of a destination slice. The arithmetic wraps around on overflow, like the long operators of Java.
+ * {@link VectorColumnKernels} replaces the loops the Vector API can speed up.
+ */
+class ScalarColumnKernels {
+
+    void multiply(long[] destination, long[] left, int leftOffset, long[] right, int rightOffset, int length) {
+        for (int i = 0; i < length; i++)
+            destination[i] = left[leftOffset + i] * right[rightOffset + i];
+    }
+
+    void multiply(long[] destination, long[] left, int leftOffset, long value, int length) {
+        for (int i = 0; i < length; i++)
+            destination[i] = left[leftOffset + i] * value;
+    }
+
+    void divide(long[] destination, long[] left, int leftOffset, long[] right, int rightOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            long divisor = right[rightOffset + i];
+            //we throw the division by zero ourselves, so that the exception always carries its message
+            if (divisor == 0)
+                throw new ArithmeticException("/ by zero");
+            destination[i] = left[leftOffset + i] / divisor;
+        }
+    }
+
+    void divide(long[] destination, long[] left, int leftOffset, ConstantDivisor divisor, int length) {
+        for (int i = 0; i < length; i++)
+            destination[i] = divisor.divide(left[leftOffset + i]);
+    }
+
+    void add(long[] destination, int destinationOffset, long[] source, int sourceOffset, int length) {
+        for (int i = 0; i < length; i++)
+            destination[destinationOffset + i] += source[sourceOffset + i];
+    }
+
+    void subtract(long[] destination, int destinationOffset, long[] source, int sourceOffset, int length) {
+        for (int i = 0; i < length; i++)
+            destination[destinationOffset + i] -= source[sourceOffset + i];
+    }
+
+    /**
+     * Whether the loops use SIMD instructions through the Vector API.
+     */
+    boolean isVectorized() {
+        return false;
+    }
+}
@@ -0,0 +1,355 @@
+import com.sun.jna.platform.win32.WinNT;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The StreamingEvaluator class evaluates an expression while it is being read, one character at a time.
+ *
+ * It follows the same rules as formater and {@link Expression#evaluate()}, but instead of storing every number
+ * and operation it keeps only the sum of the finished terms and the term currently being built: every
+ * '*' and '/' is applied to the current term as soon as its number is read, and every '+' adds the current
+ * term to the sum. This means an expression of any length, even many megabytes, can be evaluated straight
+ * from a {@link Reader} or a {@link ReadableByteChannel} with constant memory.
+ *
+ * Only malformed expressions (ex.: "5**3") make operations or numbers wait for their pair. Those can't be folded
+ * into a fixed number of values, since every one of them is paired with a different number or operation later,
+ * so at most {@value #maxPending} of them can wait at once, and an expression with a longer run of them
+ * gives an ArithmeticException, like a division by zero, instead of taking more memory.
+ *
+ * A StreamingEvaluator keeps the state of one expression, so an instance must only be used by one thread at a time.
+ */
+public class StreamingEvaluator {
+
+    /**
+     * The size of the buffer used when reading from a Reader or a channel.
+     */
+    private static final int bufferSize = 1 << 16;
+
+    /**
+     * The greatest number of operations, or of numbers, waiting for their pair at once.
+     */
+    static final int maxPending = 1 << 16;
+
+    /**
+     * The sum of the terms that have already been closed by a '+'.
+     */
+    private int sum;
+
+    /**
+     * The term currently being built by '*' and '/' operations.
+     */
+    private int term;
+
+    /**
+     * Whether the first number of the expression has already been read into the term.
+     */
+    private boolean haveFirst;
+
+    /**
+     * The number currently being read, without its sign.
+     */
+    private int number;
+
+    /**
+     * Whether we are in the middle of reading a number.
+     */
+    private boolean inNumber;
+
+    /**
+     * Whether the previous character was a digit, used to decide if a '-' is a subtraction or just a negative sign.
+     */
+    private boolean previousWasDigit;
+
+    /**
+     * The kind of the last input, using the same values as formater:
+     * -1 at the start, 0 after a number, 1 after an operation and 2 after a '-'.
+     */
+    private byte lastInput = -1;
+
+    /**
+     * The number of characters read since the last reset.
+     */
+    private long length;
+
+    /**
+     * Operations that were read before the number they apply to (ex.: the leading '*' in "*5").
+     *
+     * In a well formed expression numbers and operations alternate, so this queue and the numbers queue below
+     * never hold more than one element, which is what keeps the memory constant.
+     * They only grow for malformed inputs with runs of operations or numbers, so that such inputs still give
+     * the same result as evaluateExpression, up to {@value #maxPending} elements.
+     */
+    private char[] pendingOperations = new char[4];
+    private int operationsHead, operationsTail;
+
+    /**
+     * Numbers that were read before the operation that applies them (ex.: the "-3" in "5 -3", whose '-' doesn't follow
+     * a digit, so it is only a sign). Those still waiting at the end are added to the result by {@link #finish()}.
+     */
+    private int[] pendingNumbers = new int[4];
+    private int numbersHead, numbersTail;
+
+    /**
+     * Evaluates the expression read from the given reader until its end. The reader is not closed.
+     *
+     * @param reader the reader the expression is read from.
+     * @return the result of the expression as an integer.
+     * @throws IOException if reading fails.
+     * @throws ArithmeticException if the expression divides by zero.
+     */
+    public static int evaluate(Reader reader) throws IOException {
+        StreamingEvaluator evaluator = new StreamingEvaluator();
+        char[] buffer = new char[bufferSize];
+        int read;
+        while ((read = reader.read(buffer)) != -1)
+            for (int i = 0; i < read; i++)
+                evaluator.accept(buffer[i]);
+        return evaluator.finishAndLog();
+    }
+
+    /**
+     * Evaluates the expression read from the given channel until its end. The channel is not closed.
+     *
+     * The bytes are read as ASCII characters straight from a direct buffer, without decoding them into a String.
+     *
+     * @param channel the channel the expression is read from.
+     * @return the result of the expression as an integer.
+     * @throws IOException if reading fails.
+     * @throws ArithmeticException if the expression divides by zero.
+     */
+    public static int evaluate(ReadableByteChannel channel) throws IOException {
+        StreamingEvaluator evaluator = new StreamingEvaluator();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                evaluator.accept((char) (buffer.get() & 0xFF));
+            buffer.clear();
+        }
+        return evaluator.finishAndLog();
+    }
+
+    /**
+     * Feeds the next character of the expression to the evaluator.
+     * Characters other than digits and the four operations are ignored, just like formater does.
+     *
+     * @param currentChar the next character of the expression.
+     * @throws ArithmeticException if a division by zero is found.
+     */
+    public void accept(char currentChar) {
+        length++;
+        boolean isDigit = currentChar >= 48 && currentChar <= 57;
+
+        if (isDigit) {
+            if (inNumber)
+                //keep adding the digits to the number we are constructing
+                number = number * 10 + currentChar - '1' + 1;
+            else if (lastInput != 0) {
+                //a new number starts here
+                number = currentChar - '1' + 1;
+                inNumber = true;
+            }
+            //a digit right after a number that was separated by an ignored char is skipped, just like formater does
+        } else {
+            //any other char ends the number we were constructing
+            if (inNumber)
+                endNumber();
+
+            if (currentChar == '/' || currentChar == '*' || currentChar == '+') {
+                operation(currentChar);
+                lastInput = 1;
+            } else if (currentChar == '-') {
+                //a '-' right after a digit is a subtraction, which formater folds into a '+' followed by a negative number
+                if (previousWasDigit)
+                    operation('+');
+                lastInput = 2;
+            }
+        }
+
+        previousWasDigit = isDigit;
+    }
+
+    /**
+     * Feeds a range of characters of the expression to the evaluator.
+     *
+     * @param chars the characters to be read.
+     * @param from  the index of the first character, inclusive.
+     * @param to    the index of the last character, exclusive.
+     * @throws ArithmeticException if a division by zero is found.
+     */
+    public void accept(CharSequence chars, int from, int to) {
+        for (int i = from; i < to; i++)
+            accept(chars.charAt(i));
+    }
+
+    /**
+     * Ends the expression, returns its result and resets the evaluator so that it can read a new expression.
+     *
+     * @return the result of the expression as an integer.
+     * @throws ArithmeticException if the expression divides by zero.
+     */
+    public int finish() {
+        try {
+            if (inNumber)
+                endNumber();
+
+            //an expression without numbers starts from 0, just like formater's empty numbers vector
+            if (!haveFirst) {
+                term = 0;
+                haveFirst = true;
+            }
+
+            //operations without a number after them are paired with 0
+            while (operationsHead < operationsTail)
+                apply(pendingOperations[operationsHead++], 0);
+            //and numbers without an operation before them are added, like the parsed expressions do
+            while (numbersHead < numbersTail)
+                apply('+', pendingNumbers[numbersHead++]);
+            return sum + term;
+        } finally {
+            reset();
+        }
+    }
+
+    /**
+     * Ends the number being read and tells whether every operation read so far was paired with its number.
+     * It is false only for malformed inputs (ex.: "*5" or "5 -3"), whose pending operations or numbers would
+     * still be paired with what comes next, so the expression read so far can't be evaluated on its own.
+     *
+     * @return whether no operation or number is waiting for its pair.
+     */
+    boolean isBalanced() {
+        if (inNumber)
+            endNumber();
+        return operationsHead == operationsTail && numbersHead == numbersTail;
+    }
+
+    /**
+     * Returns the number of characters read since the evaluator was created or last reset.
+     *
+     * @return the number of characters read.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Forgets the expression read so far, so that the evaluator can read a new one.
+     */
+    public void reset() {
+        sum = term = number = 0;
+        haveFirst = inNumber = previousWasDigit = false;
+        lastInput = -1;
+        length = 0;
+        operationsHead = operationsTail = numbersHead = numbersTail = 0;
+    }
+
+    /**
+     * Ends the expression like {@link #finish()} and logs its result.
+     *
+     * @return the result of the expression as an integer.
+     */
+    private int finishAndLog() {
+        long characters = length;
+        int result = finish();
+
+        //we log the result, but not the expression itself, since it can be many megabytes long
+        Logger.log("Evaluated a streamed expression of " + characters + " characters to be " + result, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+
+        return result;
+    }
+
+    /**
+     * Ends the number currently being read and hands it to the reduction with its sign.
+     */
+    private void endNumber() {
+        inNumber = false;
+        if (lastInput == 2)
+            number *= -1;
+        lastInput = 0;
+
+        if (!haveFirst) {
+            term = number;
+            haveFirst = true;
+        } else if (operationsHead < operationsTail)
+            apply(pendingOperations[operationsHead++], number);
+        else {
+            //there is no operation for this number yet, so it waits for the next one
+            if (numbersTail == pendingNumbers.length) {
+                if (numbersTail - numbersHead == maxPending)
+                    throw tooManyPending("numbers without their operations");
+                pendingNumbers = compact(pendingNumbers, numbersHead, numbersTail);
+                numbersTail -= numbersHead;
+                numbersHead = 0;
+            }
+            pendingNumbers[numbersTail++] = number;
+        }
+    }
+
+    /**
+     * Hands an operation to the reduction, applying it straight away if its number has already been read.
+     *
+     * @param operation the operation, one of '+', '*' or '/'.
+     */
+    private void operation(char operation) {
+        if (haveFirst && numbersHead < numbersTail)
+            apply(operation, pendingNumbers[numbersHead++]);
+        else {
+            //the number of this operation has not been read yet, so the operation waits for it
+            if (operationsTail == pendingOperations.length) {
+                if (operationsTail - operationsHead == maxPending)
+                    throw tooManyPending("operations without their numbers");
+                pendingOperations = compact(pendingOperations, operationsHead, operationsTail);
+                operationsTail -= operationsHead;
+                operationsHead = 0;
+            }
+            pendingOperations[operationsTail++] = operation;
+        }
+    }
+
+    /**
+     * Applies an operation between the current term and the next number.
+     *
+     * @param operation the operation, one of '+', '*' or '/'.
+     * @param next      the number that follows the operation.
+     */
+    private void apply(char operation, int next) {
+        if (operation == '*')
+            term = term * next;
+        else if (operation == '/') {
+            //we throw the division by zero ourselves, so that the exception always carries its message
+            // (the JVM can throw a shared exception without a message once the code is hot)
+            if (next == 0)
+                throw new ArithmeticException("/ by zero");
+            term = term / next;
+        }
+        else {
+            //a '+' closes the current term, so we add it to the sum and start a new term with the next number
+            sum = sum + term;
+            term = next;
+        }
+    }
+
+    private static ArithmeticException tooManyPending(String what) {
+        return new ArithmeticException("More than " + maxPending + " " + what + " in a row");
+    }
+
+    /**
+     * Moves the pending elements of a queue to its start, doubling the queue if it is full.
+     * The queues start with 4 elements, so they are never doubled past {@link #maxPending}.
+     */
+    private static char[] compact(char[] queue, int head, int tail) {
+        char[] result = head == 0 ? new char[queue.length * 2] : queue;
+        System.arraycopy(queue, head, result, 0, tail - head);
+        return result;
+    }
+
+    private static int[] compact(int[] queue, int head, int tail) {
+        int[] result = head == 0 ? new int[queue.length * 2] : queue;
+        System.arraycopy(queue, head, result, 0, tail - head);
+        return result;
+    }
+}
@@ -0,0 +1,95 @@
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The VectorColumnKernels class runs the multiplications, additions and subtractions of a {@link ColumnFormula}
+ * with the incubator Vector API, processing as many rows at once as the widest SIMD registers of the processor hold.
+ * The rows left over at the end of a slice go through the scalar loop, and so do the divisions
+ * (except the ones by a power of two, which are shifts), since processors have no SIMD instruction for dividing longs.
+ *
+ * This class can only be loaded when the jdk.incubator.vector module is added to the JVM (--add-modules jdk.incubator.vector),
+ * so it is only ever used through {@link ColumnFormula}, which falls back to {@link ScalarColumnKernels} otherwise.
+ */
+final class VectorColumnKernels extends ScalarColumnKernels {
+
+    /**
+     * The widest vector of longs the processor supports.
+     */
+    private static final VectorSpecies<Long> species = LongVector.SPECIES_PREFERRED;
+
+    /**
+     * Creates the kernels, failing if vectors are not worth it (a vector of a single long).
+     *
+     * @throws UnsupportedOperationException if the processor has no vector of at least two longs.
+     */
+    VectorColumnKernels() {
+        if (species.length() < 2)
+            throw new UnsupportedOperationException("No SIMD registers wide enough for two longs");
+    }
+
+    @Override
+    void multiply(long[] destination, long[] left, int leftOffset, long[] right, int rightOffset, int length) {
+        int i = 0;
+        for (int bound = species.loopBound(length); i < bound; i += species.length())
+            LongVector.fromArray(species, left, leftOffset + i)
+                    .mul(LongVector.fromArray(species, right, rightOffset + i))
+                    .intoArray(destination, i);
+        for (; i < length; i++)
+            destination[i] = left[leftOffset + i] * right[rightOffset + i];
+    }
+
+    @Override
+    void multiply(long[] destination, long[] left, int leftOffset, long value, int length) {
+        int i = 0;
+        for (int bound = species.loopBound(length); i < bound; i += species.length())
+            LongVector.fromArray(species, left, leftOffset + i)
+                    .mul(value)
+                    .intoArray(destination, i);
+        for (; i < length; i++)
+            destination[i] = left[leftOffset + i] * value;
+    }
+
+    @Override
+    void divide(long[] destination, long[] left, int leftOffset, ConstantDivisor divisor, int length) {
+        //only the divisions by a power of two are made of vector operations, the magic numbers need the high half of a product
+        if (!divisor.powerOfTwo || divisor.shift == 0) {
+            super.divide(destination, left, leftOffset, divisor, length);
+            return;
+        }
+        int i = 0;
+        for (int bound = species.loopBound(length); i < bound; i += species.length()) {
+            LongVector numbers = LongVector.fromArray(species, left, leftOffset + i);
+            LongVector rounding = numbers.lanewise(VectorOperators.ASHR, 63).lanewise(VectorOperators.LSHR, 64 - divisor.shift);
+            LongVector quotients = numbers.add(rounding).lanewise(VectorOperators.ASHR, divisor.shift);
+            (divisor.divisor < 0 ? quotients.neg() : quotients).intoArray(destination, i);
+        }
+        for (; i < length; i++)
+            destination[i] = divisor.divide(left[leftOffset + i]);
+    }
+
+    @Override
+    void add(long[] destination, int destinationOffset, long[] source, int sourceOffset, int length) {
+        int i = 0;
+        for (int bound = species.loopBound(length); i < bound; i += species.length())
+            LongVector.fromArray(species, destination, destinationOffset + i)
+                    .add(LongVector.fromArray(species, source, sourceOffset + i))
+                    .intoArray(destination, destinationOffset + i);
+        super.add(destination, destinationOffset + i, source, sourceOffset + i, length - i);
+    }
+
+    @Override
+    void subtract(long[] destination, int destinationOffset, long[] source, int sourceOffset, int length) {
+        int i = 0;
+        for (int bound = species.loopBound(length); i < bound; i += species.length())
+            LongVector.fromArray(species, destination, destinationOffset + i)
+                    .sub(LongVector.fromArray(species, source, sourceOffset + i))
+                    .intoArray(destination, destinationOffset + i);
+        super.subtract(destination, destinationOffset + i, source, sourceOffset + i, length - i);
+    }
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+}
@@ -0,0 +1,524 @@
+import com.sun.jna.platform.win32.WinNT;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The WorkerPool class evaluates a batch of expressions on several JVMs of the same machine: it starts worker processes
+ * running "Main --worker" from the same class path (the same jar), hands them chunks of lines over a Unix domain socket,
+ * and writes their results in the input order, like {@link BatchEvaluator} does on a single JVM. Every worker has
+ * its own heap and garbage collector, so a huge batch isn't limited by the heap of one JVM, and a worker that crashes
+ * is started again without stopping the batch.
+ *
+ * The coordinator and the workers talk with frames: an int length, a type byte, and a payload in which the lines
+ * and the error messages are written as a varint length followed by their UTF-8 bytes, and the results as a tag byte
+ * followed by the int value. A worker that exits or whose connection breaks has its chunk handed to the next
+ * free worker, while it is started again. A chunk whose workers crashed {@value #maxAttempts} times is given up,
+ * with an "Error: ..." line for every one of its expressions, so that a line that crashes the JVM can't stop the batch.
+ *
+ * The workers log to their own files (worker1.txt, worker2.txt... in the application's folder), since several
+ * processes can't append to the same segments.
+ */
+public final class WorkerPool implements Closeable {
+
+    //the types of the frames
+    private static final byte helloFrame = 1, chunkFrame = 2, resultsFrame = 3, shutdownFrame = 4;
+
+    //the tags of the results
+    private static final byte valueResult = 0, errorResult = 1;
+
+    /**
+     * The biggest frame accepted, to detect a broken stream before allocating its length.
+     */
+    private static final int maxFrameSize = 1 << 28;
+
+    /**
+     * The number of times a chunk is handed to a worker before it is given up.
+     */
+    private static final int maxAttempts = 3;
+
+    /**
+     * The number of starts in a row after which a worker that never connects is given up.
+     */
+    private static final int maxFailedStarts = 3;
+
+    /**
+     * The time a worker has to start and connect.
+     */
+    private static final long connectTimeoutMillis = 30_000;
+
+    private final int workerCount;
+    private final int chunkSize;
+    private final List<String> jvmOptions;
+
+    /**
+     * The temporary folder of the socket the workers connect to, deleted when the pool is closed.
+     */
+    private final Path socketFolder;
+    private final Path socketPath;
+    private final ServerSocketChannel server;
+
+    /**
+     * The connections expected, by worker id, completed by the thread accepting them once the worker said hello.
+     */
+    private final Map<Integer, CompletableFuture<SocketChannel>> connecting = new ConcurrentHashMap<>();
+
+    /**
+     * The chunks waiting for a worker. A chunk handed back by a crashed worker goes first, since the output waits for it.
+     */
+    private final LinkedBlockingDeque<Chunk> pending = new LinkedBlockingDeque<>();
+
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicInteger aliveWorkers;
+    private final LongAdder restarts = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool and starts its workers.
+     *
+     * @param workers    the number of worker processes, at least 1.
+     * @param chunkSize  the number of lines handed to a worker at once, at least 1.
+     * @param jvmOptions the options of the JVMs of the workers, ex.: "-Xmx512m".
+     * @throws IOException if the socket of the pool can't be created.
+     */
+    public WorkerPool(int workers, int chunkSize, List<String> jvmOptions) throws IOException {
+        if (workers < 1)
+            throw new IllegalArgumentException("The number of workers must be at least 1, but was " + workers);
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("The chunk size must be at least 1, but was " + chunkSize);
+        this.workerCount = workers;
+        this.chunkSize = chunkSize;
+        this.jvmOptions = List.copyOf(jvmOptions);
+        this.aliveWorkers = new AtomicInteger(workers);
+
+        socketFolder = Files.createTempDirectory("calculator-pool");
+        socketPath = socketFolder.resolve("pool.sock");
+        //in case the coordinator exits without closing the pool
+        socketFolder.toFile().deleteOnExit();
+        socketPath.toFile().deleteOnExit();
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socketPath));
+
+        threads.add(Thread.ofPlatform().daemon().name("Worker pool acceptor").start(this::acceptWorkers));
+        for (int id = 1; id <= workers; id++) {
+            int worker = id;
+            threads.add(Thread.ofPlatform().daemon().name("Worker " + id + " supervisor").start(() -> superviseWorker(worker)));
+        }
+        Logger.log("Worker pool started with " + workers + " workers on " + socketPath, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+    }
+
+    /**
+     * Evaluates every line of the input on the workers and writes the results to the output in the input order.
+     * At most two chunks per worker are read ahead, so the memory of the coordinator stays bounded.
+     * The output is flushed but not closed once the input is exhausted.
+     *
+     * @param input  the reader the expressions are read from, one expression per line.
+     * @param output the writer the results are written to, one result per line.
+     * @return the number of expressions evaluated.
+     * @throws IOException if reading the input or writing the output fails, or if every worker failed to start.
+     */
+    public long run(BufferedReader input, Writer output) throws IOException {
+        ArrayDeque<Chunk> inOrder = new ArrayDeque<>();
+        long count = 0, nextIndex = 0;
+        boolean inputDone = false;
+        while (true) {
+            //write the chunks already done, in order
+            while (!inOrder.isEmpty() && inOrder.peekFirst().results.isDone())
+                count += write(inOrder.pollFirst(), output);
+
+            if (!inputDone && inOrder.size() < 2 * workerCount) {
+                String[] lines = readChunk(input);
+                if (lines.length == 0)
+                    inputDone = true;
+                else {
+                    Chunk chunk = new Chunk(nextIndex++, lines);
+                    inOrder.addLast(chunk);
+                    pending.addLast(chunk);
+                    if (aliveWorkers.get() == 0)
+                        failPending();
+                }
+                continue;
+            }
+            if (inOrder.isEmpty())
+                break;
+            //nothing more to read for now, so we wait for the oldest chunk
+            count += write(inOrder.pollFirst(), output);
+        }
+        output.flush();
+        return count;
+    }
+
+    /**
+     * Returns the number of times a worker was started again after it crashed or its connection broke.
+     *
+     * @return the number of restarts.
+     */
+    public long getRestarts() {
+        return restarts.sum();
+    }
+
+    /**
+     * Stops the workers, asking them to exit after their current chunk, and deletes the socket.
+     *
+     * @throws IOException if the socket can't be deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Thread thread : threads)
+            thread.interrupt();
+        for (Thread thread : threads)
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        Files.deleteIfExists(socketPath);
+        Files.deleteIfExists(socketFolder);
+    }
+
+    private int write(Chunk chunk, Writer output) throws IOException {
+        String[] results;
+        try {
+            results = chunk.results.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the workers", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+        for (String result : results) {
+            output.write(result);
+            output.write('\n');
+        }
+        return results.length;
+    }
+
+    private String[] readChunk(BufferedReader input) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while (lines.size() < chunkSize && (line = input.readLine()) != null)
+            lines.add(line);
+        return lines.toArray(new String[0]);
+    }
+
+    /**
+     * Fails the chunks waiting for a worker once no worker is left to evaluate them.
+     */
+    private void failPending() {
+        Chunk chunk;
+        while ((chunk = pending.pollFirst()) != null)
+            chunk.results.completeExceptionally(new IOException("Every worker of the pool failed to start"));
+    }
+
+    /**
+     * Accepts the connections of the workers, and hands every one to the supervisor of the worker that said hello on it.
+     */
+    private void acceptWorkers() {
+        while (!closed) {
+            try {
+                SocketChannel channel = server.accept();
+                //the hello is read without buffering, so that nothing of the next frames is taken from the supervisor
+                DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+                int length = in.readInt();
+                byte type = in.readByte();
+                int id = length == 5 && type == helloFrame ? in.readInt() : -1;
+                CompletableFuture<SocketChannel> connection = connecting.get(id);
+                if (connection == null || !connection.complete(channel))
+                    channel.close();
+            } catch (IOException e) {
+                if (!closed)
+                    Logger.log("A worker could not connect: " + e.getMessage(), (byte) WinNT.EVENTLOG_WARNING_TYPE);
+            }
+        }
+    }
+
+    /**
+     * Starts a worker, hands it chunks until the pool is closed, and starts it again whenever it crashes.
+     */
+    private void superviseWorker(int id) {
+        int failedStarts = 0;
+        while (!closed) {
+            Process process = null;
+            SocketChannel channel = null;
+            Chunk chunk = null;
+            try {
+                CompletableFuture<SocketChannel> connection = new CompletableFuture<>();
+                connecting.put(id, connection);
+                process = startWorker(id);
+                Process started = process;
+                process.onExit().thenRun(() -> connection.completeExceptionally(new IOException("Worker " + id + " exited with status " + started.exitValue())));
+                channel = connection.get(connectTimeoutMillis, TimeUnit.MILLISECONDS);
+                failedStarts = 0;
+
+                //a worker that exits while we wait for its results closes its connection, which ends the read
+                SocketChannel connected = channel;
+                process.onExit().thenRun(() -> closeQuietly(connected));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+                ByteArrayOutputStream frame = new ByteArrayOutputStream(1 << 16);
+                try {
+                    while (!closed) {
+                        chunk = pending.takeFirst();
+                        writeChunk(frame, chunk);
+                        writeFrame(out, chunkFrame, frame);
+                        chunk.results.complete(readResults(in, chunk));
+                        chunk = null;
+                    }
+                } finally {
+                    //a worker told to stop writes its last logs before exiting
+                    if (closed && channel.isOpen())
+                        stopWorker(out, process);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | ExecutionException | TimeoutException e) {
+                if (closed)
+                    return;
+                String reason = e instanceof ExecutionException ? e.getCause().getMessage() : e.toString();
+                if (chunk != null)
+                    retry(chunk, reason);
+                if (channel == null && ++failedStarts >= maxFailedStarts) {
+                    Logger.log("Worker " + id + " failed to start " + failedStarts + " times, giving it up: " + reason, (byte) WinNT.EVENTLOG_ERROR_TYPE);
+                    if (aliveWorkers.decrementAndGet() == 0)
+                        failPending();
+                    return;
+                }
+                Logger.log("Worker " + id + " failed, starting it again: " + reason, (byte) WinNT.EVENTLOG_WARNING_TYPE);
+                restarts.increment();
+            } finally {
+                connecting.remove(id);
+                closeQuietly(channel);
+                if (process != null)
+                    process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Hands a chunk back to the other workers, or gives it up once it was tried too many times.
+     */
+    private void retry(Chunk chunk, String reason) {
+        if (++chunk.attempts < maxAttempts) {
+            pending.addFirst(chunk);
+            return;
+        }
+        Logger.log("Gave up a chunk of " + chunk.lines.length + " expressions after " + maxAttempts + " failed workers: " + reason, (byte) WinNT.EVENTLOG_ERROR_TYPE);
+        String[] results = new String[chunk.lines.length];
+        Arrays.fill(results, "Error: the worker evaluating this expression failed");
+        chunk.results.complete(results);
+    }
+
+    private Process startWorker(int id) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        //the workers keep their logs in the same folder as the coordinator
+        command.add("-Duser.home=" + System.getProperty("user.home"));
+        command.addAll(jvmOptions);
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), "Main", "--worker", socketPath.toString(), Integer.toString(id)));
+        if (Main.headlessBudgets)
+            command.add("--budget");
+        return new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private static void stopWorker(DataOutputStream out, Process process) {
+        try {
+            writeFrame(out, shutdownFrame, new ByteArrayOutputStream());
+            process.waitFor(5, TimeUnit.SECONDS);
+        } catch (IOException ignored) {
+            //the worker is killed anyway
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel != null)
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+    }
+
+    /**
+     * Runs a worker: connects to the pool, evaluates the chunks it is given, and sends back their results,
+     * until the pool tells it to stop or goes away.
+     *
+     * @param socket the socket of the pool.
+     * @param id     the id of the worker, from 1 to the number of workers.
+     * @throws IOException if the connection fails.
+     */
+    static void serve(Path socket, int id) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(1 << 16);
+            new DataOutputStream(frame).writeInt(id);
+            writeFrame(out, helloFrame, frame);
+            Logger.log("Worker " + id + " connected to " + socket, (byte) WinNT.EVENTLOG_INFORMATION_TYPE);
+
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    //the pool went away
+                    return;
+                }
+                if (length < 1 || length > maxFrameSize)
+                    throw new IOException("Invalid frame length " + length);
+                byte type = in.readByte();
+                if (type == shutdownFrame)
+                    return;
+                if (type != chunkFrame)
+                    throw new IOException("Unexpected frame type " + type);
+
+                long index = in.readLong();
+                int count = readVarInt(in);
+                DataOutputStream payload = new DataOutputStream(frame);
+                payload.writeLong(index);
+                writeVarInt(payload, count);
+                for (int i = 0; i < count; i++) {
+                    String expression = readString(in);
+                    try {
+                        int value = Evaluator.evaluateExpression(expression, Budget.forHeadless());
+                        payload.writeByte(valueResult);
+                        payload.writeInt(value);
+                    } catch (RuntimeException e) {
+                        payload.writeByte(errorResult);
+                        writeString(payload, String.valueOf(e.getMessage()));
+                    }
+                }
+                writeFrame(out, resultsFrame, frame);
+            }
+        }
+    }
+
+    private static void writeChunk(ByteArrayOutputStream frame, Chunk chunk) throws IOException {
+        DataOutputStream payload = new DataOutputStream(frame);
+        payload.writeLong(chunk.index);
+        writeVarInt(payload, chunk.lines.length);
+        for (String line : chunk.lines)
+            writeString(payload, line);
+    }
+
+    private static String[] readResults(DataInputStream in, Chunk chunk) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > maxFrameSize)
+            throw new IOException("Invalid frame length " + length);
+        if (in.readByte() != resultsFrame)
+            throw new IOException("Expected the results of a chunk");
+        long index = in.readLong();
+        int count = readVarInt(in);
+        if (index != chunk.index || count != chunk.lines.length)
+            throw new IOException("Got " + count + " results of chunk " + index + " instead of chunk " + chunk.index);
+
+        //the same lines as the batch mode
+        String[] results = new String[count];
+        for (int i = 0; i < count; i++)
+            results[i] = in.readByte() == valueResult ? String.valueOf(in.readInt()) : "Error: " + readString(in);
+        return results;
+    }
+
+    /**
+     * Writes a frame, with the payload collected in a buffer, which is then emptied for the next frame.
+     */
+    private static void writeFrame(DataOutputStream out, byte type, ByteArrayOutputStream payload) throws IOException {
+        out.writeInt(payload.size() + 1);
+        out.writeByte(type);
+        payload.writeTo(out);
+        out.flush();
+        payload.reset();
+    }
+
+    private static void writeString(DataOutput out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length > maxFrameSize)
+            throw new IOException("Invalid string length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a positive int in 7 bits per byte, the high bit telling that more bytes follow, so that the lengths
+     * of the short expressions only take one byte.
+     */
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    /**
+     * A chunk of lines of the input, with the results the workers found for them.
+     */
+    private static final class Chunk {
+        private final long index;
+        private final String[] lines;
+        private final CompletableFuture<String[]> results = new CompletableFuture<>();
+
+        //only used by the supervisor holding the chunk
+        private int attempts;
+
+        Chunk(long index, String[] lines) {
+            this.index = index;
+            this.lines = lines;
+        }
+    }
+}